@@ -0,0 +1,183 @@
+package com.example.demo.config;
+
+import com.example.demo.model.Device;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "spring.smart-home.ingest")
+public class IngestConfig {
+
+    private Async async = new Async();
+    private WriteBehind writeBehind = new WriteBehind();
+    private Binary binary = new Binary();
+    private Stream stream = new Stream();
+    private WebSocket webSocket = new WebSocket();
+    private Dedup dedup = new Dedup();
+    private Filter filter = new Filter();
+    private Admission admission = new Admission();
+    private Partitioning partitioning = new Partitioning();
+    private Rollup rollup = new Rollup();
+    private Recent recent = new Recent();
+    private Wal wal = new Wal();
+    private Quantiles quantiles = new Quantiles();
+    private Latest latest = new Latest();
+    private Buffers buffers = new Buffers();
+
+    // Асинхронный прием: ответ отдается сразу после постановки в буфер
+    @Data
+    public static class Async {
+        private boolean enabled = true;
+        private int shards = 0; // 0 - по числу ядер
+        private int bufferSize = 16384;
+        private int batchSize = 1000;
+        private long offerTimeoutMs = 50;
+        private long drainTimeoutMs = 30000;
+        private long persistRetryMs = 60000; // Сколько повторять запись пачки при ошибках БД, если журнал выключен
+        private long syncWaitMs = 30000;     // Сколько синхронный прием ждет поток шарда до отказа
+    }
+
+    // Журнал предзаписи асинхронного приема: показание подтверждается после сброса журнала на диск
+    @Data
+    public static class Wal {
+        private boolean enabled = false;
+        private String directory = "data/wal";
+        private int segmentSizeMb = 64;
+        private boolean fsync = true;       // false - без fsync, переживает падение процесса, но не ОС
+        private long syncTimeoutMs = 1000;  // Сколько ждать сброса на диск перед ответом 503
+    }
+
+    // Отложенная запись lastValue / isOnline устройств
+    @Data
+    public static class WriteBehind {
+        private boolean enabled = true;
+        private long flushIntervalMs = 1000;
+        private int dirtyThreshold = 5000;
+    }
+
+    // Бинарный протокол телеметрии поверх TCP/UDP
+    @Data
+    public static class Binary {
+        private boolean enabled = false;
+        private int tcpPort = 9100; // 0 - TCP выключен
+        private int udpPort = 9101; // 0 - UDP выключен
+    }
+
+    // Потоковый прием NDJSON: как часто отправлять подтверждения
+    @Data
+    public static class Stream {
+        private int ackEvery = 1000;
+        private long ackIntervalMs = 1000;
+    }
+
+    // Постоянные WebSocket-соединения устройств
+    @Data
+    public static class WebSocket {
+        private long flushIntervalMs = 20;
+        private int maxQueuedCommands = 1000;
+        private int sendTimeLimitMs = 5000;
+        private int sendBufferSizeLimit = 512 * 1024;
+    }
+
+    // Отсев повторов по номеру последовательности показания
+    @Data
+    public static class Dedup {
+        private boolean enabled = true;
+    }
+
+    // Фильтрация показаний перед записью, правила по типу устройства
+    @Data
+    public static class Filter {
+        private boolean enabled = false;
+        private Map<Device.DeviceType, FilterRule> rules = new EnumMap<>(Device.DeviceType.class);
+    }
+
+    // Ограничение входящей нагрузки на HTTP-прием: token bucket на устройство и на клиента, сброс по заполненности буфера
+    @Data
+    public static class Admission {
+        private boolean enabled = false;
+        private int slots = 131072;            // Ячеек в таблице корзин (округляется до степени двойки)
+        private double devicePerSecond = 10;
+        private int deviceBurst = 20;
+        private double clientPerSecond = 2000;
+        private int clientBurst = 5000;
+        private double shedBufferFill = 0.9;   // Доля заполненности буфера конвейера, после которой прием отклоняется
+        private long shedRetryAfterSeconds = 1;
+    }
+
+    // Секционирование device_data по времени (только PostgreSQL)
+    @Data
+    public static class Partitioning {
+        private boolean enabled = false;
+        private Period period = Period.DAY;
+        private int premakePeriods = 7;          // Сколько секций держать созданными наперед
+        private int retentionDays = 0;           // Секции старше удаляются целиком (0 - хранить все)
+        private long maintenanceIntervalMs = 3600000;
+        private int latestLookbackDays = 7;      // Окно поиска последнего показания, чтобы планировщик отсекал секции
+    }
+
+    // Агрегаты истории 1m / 1h / 1d
+    @Data
+    public static class Rollup {
+        private boolean enabled = true;
+        private long flushIntervalMs = 10000;
+        private int defaultMaxPoints = 500;   // Точек в ответе, если шаг не задан
+    }
+
+    // Недавняя история в памяти (сжатые блоки Gorilla)
+    @Data
+    public static class Recent {
+        private boolean enabled = true;
+        private int windowHours = 24;
+        private int chunkMinutes = 120;
+        private boolean warmup = true;   // Загружать окно из БД при старте
+    }
+
+    // Скетчи перцентилей по минутам и часам
+    @Data
+    public static class Quantiles {
+        private boolean enabled = true;
+        private Set<Device.DeviceType> types = EnumSet.of(
+                Device.DeviceType.TEMPERATURE_SENSOR, Device.DeviceType.HUMIDITY_SENSOR);
+        private int minuteRetentionHours = 6;
+        private int hourRetentionDays = 7;
+        private long flushIntervalMs = 60000;
+    }
+
+    // Последние показания устройств (device_latest_reading)
+    @Data
+    public static class Latest {
+        private boolean enabled = true;
+        private long flushIntervalMs = 1000;
+        private boolean seedFromHistory = true;  // Заполнить пустую таблицу из device_data при старте
+    }
+
+    // Кольцевые буферы последних показаний датчиков для оконных запросов автоматизации
+    @Data
+    public static class Buffers {
+        private boolean enabled = true;
+        private int capacity = 256;              // Показаний на устройство (округляется до степени двойки)
+        private Set<Device.DeviceType> types = EnumSet.of(Device.DeviceType.MOTION_SENSOR,
+                Device.DeviceType.LIGHT_SENSOR, Device.DeviceType.TEMPERATURE_SENSOR, Device.DeviceType.HUMIDITY_SENSOR);
+        private long occupancyWindowMs = 300000; // Комната занята, если датчик движения срабатывал за это время
+    }
+
+    public enum Period {
+        DAY, WEEK
+    }
+
+    @Data
+    public static class FilterRule {
+        private Double absoluteDeadband; // Изменение больше этого значения записывается
+        private Double percentDeadband;  // ...или больше этого процента от последнего записанного
+        private long maxSilenceMs;       // Heartbeat: записать показание, если молчали дольше (0 - выкл)
+        private long minIntervalMs;      // Отбрасывать показания чаще этого интервала (0 - выкл)
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.demo.config;
+
+import com.example.demo.controller.DeviceWebSocketHandler;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+@RequiredArgsConstructor
+public class WebSocketConfig implements WebSocketConfigurer {
+
+    private final DeviceWebSocketHandler deviceWebSocketHandler;
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        // Устройства не браузеры, проверка Origin им не нужна
+        registry.addHandler(deviceWebSocketHandler, "/ws/devices")
+                .setAllowedOriginPatterns("*");
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.demo.controller;
 
 import com.example.demo.dto.CsvImportResponse;
+import com.example.demo.model.Device;
 import com.example.demo.service.CsvService;
+import com.example.demo.service.ReadingExportService;
+import com.example.demo.service.ReadingImportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -9,13 +12,17 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.LocalDateTime;
 import java.util.Map;
 
 @Slf4j
@@ -26,6 +33,8 @@ import java.util.Map;
 public class CsvController {
     
     private final CsvService csvService;
+    private final ReadingExportService readingExportService;
+    private final ReadingImportService readingImportService;
     
     @Operation(
         summary = "Импорт устройств из CSV",
@@ -71,6 +80,26 @@ public class CsvController {
         }
     }
     
+    @Operation(
+        summary = "Загрузить историю показаний",
+        description = "Файл передается телом запроса (не multipart, без ограничения размера): CSV выгрузки " +
+                      "(deviceId;timestamp;value;dataType) или колоночный формат. Запись через COPY, " +
+                      "без автоматизации; показания неизвестных устройств пропускаются"
+    )
+    @PostMapping("/import/readings")
+    public ResponseEntity<?> importReadings(
+            @Parameter(description = "csv или columnar; по умолчанию определяется по содержимому")
+            @RequestParam(required = false) String format,
+            HttpServletRequest request) {
+        try {
+            return ResponseEntity.ok(readingImportService.importReadings(request.getInputStream(), format));
+        } catch (Exception e) {
+            log.error("Ошибка импорта истории показаний: {}", e.getMessage());
+            return ResponseEntity.badRequest()
+                    .body(Map.of("error", "Ошибка импорта: " + e.getMessage()));
+        }
+    }
+    
     @Operation(
         summary = "Скачать шаблон CSV",
         description = "Получить шаблон CSV файла для импорта устройств"
@@ -93,6 +122,51 @@ public class CsvController {
         }
     }
     
+    @Operation(
+        summary = "Выгрузить устройства в CSV",
+        description = "Все устройства в формате шаблона импорта"
+    )
+    @GetMapping("/export/inventory")
+    public ResponseEntity<StreamingResponseBody> exportInventory() {
+        StreamingResponseBody body = readingExportService::writeDevicesCsv;
+        return ResponseEntity.ok()
+                .header("Content-Type", "text/csv; charset=UTF-8")
+                .header("Content-Disposition", "attachment; filename=devices.csv")
+                .body(body);
+    }
+    
+    @Operation(
+        summary = "Выгрузить историю показаний",
+        description = "Показания за период потоком: format=csv или columnar (gzip, колоночный формат). " +
+                      "deviceId или type ограничивают выгрузку"
+    )
+    @GetMapping("/export/readings")
+    public ResponseEntity<?> exportReadings(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String deviceId,
+            @RequestParam(required = false) Device.DeviceType type,
+            @RequestParam(required = false, defaultValue = "csv") String format) {
+        ReadingExportService.ExportQuery query;
+        try {
+            query = readingExportService.prepare(deviceId, type, from, to, format);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+        }
+        
+        StreamingResponseBody body = out -> readingExportService.write(query, out);
+        if (ReadingExportService.FORMAT_COLUMNAR.equals(query.format())) {
+            return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header("Content-Disposition", "attachment; filename=readings.shrc.gz")
+                    .body(body);
+        }
+        return ResponseEntity.ok()
+                .header("Content-Type", "text/csv; charset=UTF-8")
+                .header("Content-Disposition", "attachment; filename=readings.csv")
+                .body(body);
+    }
+    
     private String generateDevicesCsvTemplate() {
         StringBuilder csv = new StringBuilder();
         
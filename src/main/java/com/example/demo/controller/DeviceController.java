@@ -1,11 +1,30 @@
 package com.example.demo.controller;
 
+import com.example.demo.dto.BatchIngestResponse;
 import com.example.demo.dto.DeviceDataRequest;
+import com.example.demo.model.ReadingBatch;
+import com.example.demo.service.AdmissionControlService;
+import com.example.demo.service.DeviceCommandDispatcher;
+import com.example.demo.service.DeviceDataRollupService;
+import com.example.demo.service.IngestPipeline;
+import com.example.demo.service.NdjsonIngestService;
+import com.example.demo.service.ReadingHistoryService;
+import com.example.demo.service.RecentHistoryStore;
 import com.example.demo.service.SmartHomeService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
 
 @RestController
@@ -14,14 +33,28 @@ import java.util.Map;
 public class DeviceController {
     
     private final SmartHomeService smartHomeService;
+    private final IngestPipeline ingestPipeline;
+    private final NdjsonIngestService ndjsonIngestService;
+    private final DeviceCommandDispatcher deviceCommandDispatcher;
+    private final AdmissionControlService admissionControlService;
+    private final DeviceDataRollupService deviceDataRollupService;
+    private final RecentHistoryStore recentHistoryStore;
+    private final ReadingHistoryService readingHistoryService;
     
     @PostMapping("/devices")
-    public ResponseEntity<String> receiveDeviceData(@RequestBody DeviceDataRequest request) {
+    public ResponseEntity<String> receiveDeviceData(@RequestBody DeviceDataRequest request,
+                                                    HttpServletRequest httpRequest) {
+        admissionControlService.admit(request.getDeviceId(), httpRequest.getRemoteAddr(), 1);
+        return processDeviceData(request);
+    }
+    
+    private ResponseEntity<String> processDeviceData(DeviceDataRequest request) {
         try {
             smartHomeService.processDeviceData(
                 request.getDeviceId(), 
                 request.getValue(), 
-                request.getDataType()
+                request.getDataType(),
+                request.getSequence()
             );
             return ResponseEntity.ok("Data received successfully");
         } catch (Exception e) {
@@ -29,14 +62,129 @@ public class DeviceController {
         }
     }
     
+    @PostMapping("/devices/async")
+    public ResponseEntity<String> receiveDeviceDataAsync(@RequestBody DeviceDataRequest request,
+                                                         HttpServletRequest httpRequest) {
+        if (request.getDeviceId() == null || request.getValue() == null) {
+            return ResponseEntity.badRequest().body("Error: deviceId and value are required");
+        }
+        admissionControlService.admit(request.getDeviceId(), httpRequest.getRemoteAddr(), 1);
+        // Конвейер выключен - обрабатываем синхронно
+        if (!ingestPipeline.isRunning()) {
+            return processDeviceData(request);
+        }
+        
+        long now = System.currentTimeMillis();
+        long timestamp = request.getTimestamp() != null ? request.getTimestamp() : now;
+        if (!ReadingBatch.isValidTimestamp(timestamp, now)) {
+            return ResponseEntity.badRequest().body("Error: timestamp is out of range");
+        }
+        long sequence = request.getSequence() != null ? request.getSequence() : ReadingBatch.NO_SEQUENCE;
+        IngestPipeline.SubmitResult result = ingestPipeline.submit(request.getDeviceId(), request.getValue(),
+                                                                   request.getDataType(), timestamp, sequence);
+        if (result == IngestPipeline.SubmitResult.REJECTED) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("Ingest buffer is full, retry later");
+        }
+        // Показание уже в очереди: повтор дал бы дубль, поэтому 202, но без обещания сохранности
+        if (result == IngestPipeline.SubmitResult.ACCEPTED_NOT_DURABLE) {
+            return ResponseEntity.accepted().body("Data accepted, not yet durable");
+        }
+        return ResponseEntity.accepted().body("Data accepted");
+    }
+    
+    @PostMapping("/devices/batch")
+    public ResponseEntity<?> receiveDeviceDataBatch(@RequestBody List<DeviceDataRequest> requests,
+                                                    HttpServletRequest httpRequest) {
+        // В пакете показания разных устройств - ограничиваем только клиента, по числу показаний
+        admissionControlService.admit(null, httpRequest.getRemoteAddr(), requests.size());
+        try {
+            BatchIngestResponse response = smartHomeService.processDeviceDataBatch(requests);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+    
+    // Долгий chunked-запрос с показаниями в NDJSON; подтверждения идут в ответ по мере обработки
+    @PostMapping(value = "/devices/stream", consumes = "application/x-ndjson")
+    public void receiveDeviceDataStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_OK);
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        ndjsonIngestService.ingest(request.getInputStream(), response.getOutputStream());
+    }
+    
+    // История по агрегатам одного dataType: resolution - шаг в секундах, либо maxPoints - сколько точек нужно на графике
+    @GetMapping("/devices/{deviceId}/history")
+    public ResponseEntity<?> getDeviceHistory(
+            @PathVariable String deviceId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String dataType,
+            @RequestParam(required = false) Long resolution,
+            @RequestParam(required = false) Integer maxPoints) {
+        try {
+            return ResponseEntity.ok(deviceDataRollupService.getHistory(deviceId, dataType, from, to, resolution,
+                                                                        maxPoints));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+    
+    // Сырые показания за недавний период (по умолчанию последний час), из памяти без обращения к БД
+    @GetMapping("/devices/{deviceId}/recent")
+    public ResponseEntity<?> getRecentReadings(
+            @PathVariable String deviceId,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String dataType) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusHours(1);
+        try {
+            return ResponseEntity.ok(recentHistoryStore.getRecent(deviceId, dataType, start, end));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+    
+    // Сырые показания за произвольный период, потоком и страницами: cursor - nextCursor из предыдущего ответа.
+    // С maxPoints - весь период, прореженный LTTB до maxPoints точек (для графиков); dataType обязателен,
+    // если у устройства за период показания нескольких типов
+    @GetMapping("/devices/{deviceId}/readings")
+    public ResponseEntity<?> getDeviceReadings(
+            @PathVariable String deviceId,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String dataType,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) Integer maxPoints) {
+        ReadingHistoryService.HistoryQuery query;
+        try {
+            query = readingHistoryService.prepare(deviceId, from, to, dataType, cursor, limit, maxPoints);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+        StreamingResponseBody body = out -> readingHistoryService.write(query, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+    
     @PostMapping("/devices/command")
     public ResponseEntity<String> sendDeviceCommand(@RequestBody Map<String, Object> command) {
         String deviceId = (String) command.get("deviceId");
         String action = (String) command.get("action");
-        Double value = (Double) command.get("value");
-        
-        System.out.println("Command to " + deviceId + ": " + action + " value: " + value);
+        Double value = command.get("value") instanceof Number ? ((Number) command.get("value")).doubleValue() : null;
         
+        if (!deviceCommandDispatcher.isConnected(deviceId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Device is not connected: " + deviceId);
+        }
+        if (!deviceCommandDispatcher.dispatch(deviceId, action, value)) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "1")
+                    .body("Command queue is full, retry later");
+        }
         return ResponseEntity.ok("Command sent successfully");
     }
 }
\ No newline at end of file
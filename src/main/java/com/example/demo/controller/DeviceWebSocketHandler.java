@@ -0,0 +1,111 @@
+package com.example.demo.controller;
+
+import com.example.demo.dto.DeviceDataRequest;
+import com.example.demo.dto.ReadingRejection;
+import com.example.demo.model.ReadingBatch;
+import com.example.demo.service.DeviceCommandDispatcher;
+import com.example.demo.service.DeviceRegistry;
+import com.example.demo.service.IngestPipeline;
+import com.example.demo.service.SmartHomeService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Постоянный канал устройства: /ws/devices?deviceId=...
+ * Вверх приходят показания (один объект DeviceDataRequest или массив), вниз - команды в виде массивов.
+ * Показания принимаются только от устройства соединения; непринятые показания (чужой deviceId,
+ * полный буфер, ошибка записи) возвращаются устройству кадром {"rejected": [...]}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class DeviceWebSocketHandler extends TextWebSocketHandler {
+
+    private static final String DEVICE_ID_ATTRIBUTE = "deviceId";
+
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceCommandDispatcher deviceCommandDispatcher;
+    private final IngestPipeline ingestPipeline;
+    private final SmartHomeService smartHomeService;
+    private final ObjectMapper objectMapper;
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        String deviceId = session.getUri() == null ? null : UriComponentsBuilder.fromUri(session.getUri())
+                .build()
+                .getQueryParams()
+                .getFirst(DEVICE_ID_ATTRIBUTE);
+        if (deviceRegistry.findByDeviceId(deviceId) == null) {
+            log.warn("WebSocket connection rejected, unknown device: {}", deviceId);
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Unknown device"));
+            return;
+        }
+        session.getAttributes().put(DEVICE_ID_ATTRIBUTE, deviceId);
+        deviceCommandDispatcher.register(deviceId, session);
+    }
+
+    @Override
+    protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+        String deviceId = (String) session.getAttributes().get(DEVICE_ID_ATTRIBUTE);
+        String payload = message.getPayload().trim();
+
+        DeviceDataRequest[] readings = payload.startsWith("[")
+                ? objectMapper.readValue(payload, DeviceDataRequest[].class)
+                : new DeviceDataRequest[] {objectMapper.readValue(payload, DeviceDataRequest.class)};
+
+        long now = System.currentTimeMillis();
+        List<ReadingRejection> rejections = new ArrayList<>();
+        for (DeviceDataRequest reading : readings) {
+            if (reading.getValue() == null) {
+                continue;
+            }
+            long timestamp = reading.getTimestamp() != null ? reading.getTimestamp() : now;
+            // Соединение привязано к устройству: deviceId в сообщении можно не передавать, но чужой не принимается
+            if (reading.getDeviceId() != null && !reading.getDeviceId().equals(deviceId)) {
+                rejections.add(new ReadingRejection(reading.getSequence(), timestamp,
+                        "deviceId does not match the connection"));
+                continue;
+            }
+            if (!ReadingBatch.isValidTimestamp(timestamp, now)) {
+                rejections.add(new ReadingRejection(reading.getSequence(), timestamp, "Timestamp is out of range"));
+                continue;
+            }
+            if (ingestPipeline.isRunning()) {
+                long sequence = reading.getSequence() != null ? reading.getSequence() : ReadingBatch.NO_SEQUENCE;
+                // submit ждет места в буфере и тем самым притормаживает чтение из этого соединения
+                if (ingestPipeline.submit(deviceId, reading.getValue(), reading.getDataType(), timestamp, sequence)
+                        == IngestPipeline.SubmitResult.REJECTED) {
+                    rejections.add(new ReadingRejection(reading.getSequence(), timestamp, "Ingest buffer is full"));
+                }
+            } else {
+                try {
+                    smartHomeService.processDeviceData(deviceId, reading.getValue(), reading.getDataType(),
+                                                       reading.getSequence());
+                } catch (RuntimeException e) {
+                    rejections.add(new ReadingRejection(reading.getSequence(), timestamp, e.getMessage()));
+                }
+            }
+        }
+        if (!rejections.isEmpty()) {
+            deviceCommandDispatcher.reject(deviceId, session, rejections);
+        }
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        String deviceId = (String) session.getAttributes().get(DEVICE_ID_ATTRIBUTE);
+        if (deviceId != null) {
+            deviceCommandDispatcher.unregister(deviceId, session);
+        }
+    }
+}
@@ -15,9 +15,13 @@ public class SmartHomeController {
     private final SmartHomeService smartHomeService;
     
     @PutMapping("/mode/settings")
-    public ResponseEntity<ModeSettings> updateModeSettings(@RequestBody ModeSettings settings) {
-        ModeSettings updatedSettings = smartHomeService.updateModeSettings(settings);
-        return ResponseEntity.ok(updatedSettings);
+    public ResponseEntity<?> updateModeSettings(@RequestBody ModeSettings settings) {
+        try {
+            ModeSettings updatedSettings = smartHomeService.updateModeSettings(settings);
+            return ResponseEntity.ok(updatedSettings);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
     }
     
     @GetMapping("/roomstatus")
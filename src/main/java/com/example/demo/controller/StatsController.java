@@ -1,10 +1,32 @@
 package com.example.demo.controller;
 
+import com.example.demo.model.Device;
+import com.example.demo.service.AdmissionControlService;
+import com.example.demo.service.AutomationRuleEngine;
+import com.example.demo.service.BinaryTelemetryListener;
+import com.example.demo.service.DataTypeDictionary;
+import com.example.demo.service.DeviceDataPartitionManager;
+import com.example.demo.service.DeviceDataRollupService;
+import com.example.demo.service.DeviceCommandDispatcher;
+import com.example.demo.service.DeviceRegistry;
+import com.example.demo.service.DeviceShardExecutor;
+import com.example.demo.service.DeviceStateWriteBehind;
+import com.example.demo.service.IngestDedupService;
+import com.example.demo.service.IngestPipeline;
+import com.example.demo.service.LatestReadingStore;
+import com.example.demo.service.ReadingImportService;
+import com.example.demo.service.RecentHistoryStore;
+import com.example.demo.service.RecentReadingBuffers;
+import com.example.demo.service.SensorQuantileService;
 import com.example.demo.service.SmartHomeService;
+import com.example.demo.service.TelemetryFilterService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 @RestController
@@ -13,12 +35,72 @@ import java.util.Map;
 public class StatsController {
     
     private final SmartHomeService smartHomeService;
+    private final IngestPipeline ingestPipeline;
+    private final DeviceStateWriteBehind deviceStateWriteBehind;
+    private final DeviceRegistry deviceRegistry;
+    private final BinaryTelemetryListener binaryTelemetryListener;
+    private final DeviceCommandDispatcher deviceCommandDispatcher;
+    private final IngestDedupService ingestDedupService;
+    private final TelemetryFilterService telemetryFilterService;
+    private final AdmissionControlService admissionControlService;
+    private final DeviceDataPartitionManager deviceDataPartitionManager;
+    private final DeviceDataRollupService deviceDataRollupService;
+    private final RecentHistoryStore recentHistoryStore;
+    private final SensorQuantileService sensorQuantileService;
+    private final ReadingImportService readingImportService;
+    private final LatestReadingStore latestReadingStore;
+    private final RecentReadingBuffers recentReadingBuffers;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final AutomationRuleEngine automationRuleEngine;
+    private final DeviceShardExecutor deviceShardExecutor;
     
     @GetMapping
     public ResponseEntity<Map<String, Object>> getAutomationStats() {
         return ResponseEntity.ok(smartHomeService.getAutomationStats());
     }
     
+    @GetMapping("/ingest")
+    public ResponseEntity<Map<String, Object>> getIngestStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pipeline", ingestPipeline.getStats());
+        stats.put("owners", deviceShardExecutor.getStats());
+        stats.put("writeBehind", deviceStateWriteBehind.getStats());
+        stats.put("registry", deviceRegistry.getStats());
+        stats.put("binary", binaryTelemetryListener.getStats());
+        stats.put("commands", deviceCommandDispatcher.getStats());
+        stats.put("dedup", ingestDedupService.getStats());
+        stats.put("filter", telemetryFilterService.getStats());
+        stats.put("admission", admissionControlService.getStats());
+        stats.put("partitions", deviceDataPartitionManager.getStats());
+        stats.put("rollup", deviceDataRollupService.getStats());
+        stats.put("recent", recentHistoryStore.getStats());
+        stats.put("quantiles", sensorQuantileService.getStats());
+        stats.put("import", readingImportService.getStats());
+        stats.put("latest", latestReadingStore.getStats());
+        stats.put("buffers", recentReadingBuffers.getStats());
+        stats.put("dataTypes", dataTypeDictionary.getStats());
+        stats.put("automation", automationRuleEngine.getStats());
+        return ResponseEntity.ok(stats);
+    }
+    
+    // Перцентили показаний одного dataType по комнатам / типам / устройствам за окно (по умолчанию последний час)
+    @GetMapping("/percentiles")
+    public ResponseEntity<?> getPercentiles(
+            @RequestParam(required = false) Device.DeviceType type,
+            @RequestParam(required = false) String dataType,
+            @RequestParam(required = false, defaultValue = "room") String groupBy,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false, defaultValue = "0.5,0.95,0.99") double[] quantiles) {
+        LocalDateTime end = to != null ? to : LocalDateTime.now();
+        LocalDateTime start = from != null ? from : end.minusHours(1);
+        try {
+            return ResponseEntity.ok(sensorQuantileService.query(type, dataType, groupBy, start, end, quantiles));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body("Error: " + e.getMessage());
+        }
+    }
+    
     @GetMapping("/efficiency")
     public ResponseEntity<Map<String, Object>> getEfficiency() {
         return ResponseEntity.ok(Map.of(
@@ -0,0 +1,19 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class BatchIngestResponse {
+    private int acceptedCount;
+    private int filteredCount;
+    private int duplicateCount;
+    private int rejectedCount;
+    private int devicesAffected;
+    private List<String> errors;
+}
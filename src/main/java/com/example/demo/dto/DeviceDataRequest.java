@@ -7,4 +7,6 @@ public class DeviceDataRequest {
     private String deviceId;
     private Double value;
     private String dataType;
-}
\ No newline at end of file
+    private Long timestamp; // Время снятия показания (epoch millis), если шлюз буферизует данные
+    private Long sequence;  // Необязательный номер показания устройства для отсева повторов при ретраях
+}
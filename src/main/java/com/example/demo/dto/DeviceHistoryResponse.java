@@ -0,0 +1,21 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.RollupTier;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class DeviceHistoryResponse {
+    private String deviceId;
+    private String dataType;
+    private RollupTier tier;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private List<HistoryPoint> points;
+}
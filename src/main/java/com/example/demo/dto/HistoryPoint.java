@@ -0,0 +1,19 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class HistoryPoint {
+    private LocalDateTime bucketStart;
+    private double min;
+    private double max;
+    private double avg;
+    private long count;
+    private double last;
+}
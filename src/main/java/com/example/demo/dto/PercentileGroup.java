@@ -0,0 +1,20 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Map;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class PercentileGroup {
+    private String group;
+    private int devices;
+    private long count;
+    private double min;
+    private double max;
+    private double avg;
+    private Map<String, Double> percentiles; // "p50" -> значение
+}
@@ -0,0 +1,23 @@
+package com.example.demo.dto;
+
+import com.example.demo.model.Device;
+import com.example.demo.model.RollupTier;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class PercentileResponse {
+    private Device.DeviceType type;
+    private String dataType;
+    private String groupBy;
+    private RollupTier tier;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private List<PercentileGroup> groups;
+}
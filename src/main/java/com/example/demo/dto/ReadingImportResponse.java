@@ -0,0 +1,19 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class ReadingImportResponse {
+    private String format;
+    private long importedCount;
+    private long skippedCount;            // Показания неизвестных устройств
+    private List<String> unknownDevices;  // Первые из неизвестных deviceId
+    private long elapsedMs;
+    private long rowsPerSecond;
+}
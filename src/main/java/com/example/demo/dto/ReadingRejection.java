@@ -0,0 +1,18 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Отказ в приеме показания, отправляется устройству по WebSocket в кадре {"rejected": [...]}.
+ * По sequence/timestamp устройство находит показание и повторяет его позже.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReadingRejection {
+    private Long sequence;
+    private long timestamp;
+    private String error;
+}
@@ -0,0 +1,20 @@
+package com.example.demo.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@Builder
+@AllArgsConstructor
+public class RecentReadingsResponse {
+    private String deviceId;
+    private String dataType;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private String source; // "memory" или "database"
+    private List<ReadingPoint> points;
+}
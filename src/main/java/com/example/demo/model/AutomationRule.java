@@ -0,0 +1,46 @@
+package com.example.demo.model;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Правило автоматизации в ModeSettings.schedule: {"rules": [...]}.
+ * Срабатывает на показание устройства trigger, если значение выше above и/или ниже below,
+ * текущий режим входит в modes (по умолчанию только "auto") и время в окне from - to ("HH:mm",
+ * окно может переходить через полночь). Тогда всем устройствам каждого action отправляется команда.
+ */
+@Data
+public class AutomationRule {
+    private String name;
+    private Trigger trigger;
+    private Double above;
+    private Double below;
+    private List<String> modes;
+    private String from;
+    private String to;
+    private List<Action> actions;
+
+    /**
+     * Конкретное устройство (deviceId) или все устройства типа, при необходимости только в комнате room.
+     */
+    @Data
+    public static class Trigger {
+        private String deviceId;
+        private Device.DeviceType type;
+        private String room;
+    }
+
+    /**
+     * Получатели: deviceId, точное имя name, или тип и/или комната.
+     */
+    @Data
+    public static class Action {
+        private String deviceId;
+        private String name;
+        private Device.DeviceType type;
+        private String room;
+        private String command;
+        private Double value;
+    }
+}
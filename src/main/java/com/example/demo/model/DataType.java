@@ -0,0 +1,19 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+/**
+ * Словарь типов показаний ("temperature", "humidity", "state", ...). В device_data и в памяти хранится
+ * только code; имя подставляется на границе API. Код 0 не используется - это показание без типа.
+ */
+@Entity
+@Data
+@Table(name = "data_type")
+public class DataType {
+    @Id
+    private Short code;
+    
+    @Column(nullable = false, unique = true)
+    private String name;
+}
@@ -6,6 +6,7 @@ import java.time.LocalDateTime;
 
 @Entity
 @Data
+@Table(indexes = @Index(name = "device_data_device_ts_idx", columnList = "device_id, timestamp DESC"))
 public class DeviceData {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -18,5 +19,6 @@ public class DeviceData {
     private Double value;
     private LocalDateTime timestamp;
     
-    private String dataType; // "temperature", "humidity", "state", etc.
+    @Column(name = "data_type_code")
+    private Short dataTypeCode; // Код DataTypeDictionary: "temperature", "humidity", "state", etc.
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Агрегат показаний одного типа (dataType) одного устройства за одно ведро времени (минута, час или сутки).
+ * Хранится сумма, а не среднее: так частичные агрегаты складываются при дозаписи.
+ * dataType - код из DataTypeDictionary, показания без dataType хранятся с кодом 0.
+ */
+@Entity
+@Data
+@Table(name = "device_data_rollup",
+       uniqueConstraints = @UniqueConstraint(name = "device_data_rollup_series_uk",
+                                             columnNames = {"device_id", "data_type_code", "tier", "bucket_start"}))
+public class DeviceDataRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+    
+    @Column(name = "data_type_code", nullable = false)
+    private Short dataTypeCode;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RollupTier tier;
+    
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+    
+    private Double minValue;
+    private Double maxValue;
+    private Double sumValue;
+    private Long sampleCount;
+    private Double lastValue;
+    private LocalDateTime lastTimestamp;
+}
@@ -0,0 +1,36 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Скетч квантилей показаний одного типа (dataType) одного устройства за одно ведро времени
+ * (сериализованный QuantileSketch). Показания без dataType хранятся с кодом 0.
+ */
+@Entity
+@Data
+@Table(name = "device_data_sketch",
+       uniqueConstraints = @UniqueConstraint(name = "device_data_sketch_series_uk",
+                                             columnNames = {"device_id", "data_type_code", "tier", "bucket_start"}))
+public class DeviceDataSketch {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+    
+    @Column(name = "data_type_code", nullable = false)
+    private Short dataTypeCode;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private RollupTier tier;
+    
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+    
+    @Column(nullable = false)
+    private byte[] sketch;
+}
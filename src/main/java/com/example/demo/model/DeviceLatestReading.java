@@ -0,0 +1,31 @@
+package com.example.demo.model;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * Последнее показание устройства по каждому dataType. Поддерживается при приеме,
+ * чтобы не искать последнюю строку в device_data. dataType - код из DataTypeDictionary, показания без dataType хранятся с кодом 0.
+ */
+@Entity
+@Data
+@Table(name = "device_latest_reading",
+       uniqueConstraints = @UniqueConstraint(name = "device_latest_reading_uk",
+                                             columnNames = {"device_id", "data_type_code"}))
+public class DeviceLatestReading {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+    
+    @Column(name = "data_type_code", nullable = false)
+    private Short dataTypeCode;
+    
+    private Double value;
+    
+    @Column(nullable = false)
+    private LocalDateTime timestamp;
+}
@@ -0,0 +1,25 @@
+package com.example.demo.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Итог записи пачки показаний: устройства для автоматизации (с обновленным lastValue)
+ * и число отброшенных показаний по причинам. invalid - показания, которые не приняла БД
+ * (например, значение или время вне допустимого диапазона).
+ */
+@Getter
+@AllArgsConstructor
+public class IngestResult {
+
+    public static final IngestResult EMPTY = new IngestResult(Collections.emptyMap(), 0, 0, 0, 0);
+
+    private final Map<String, Device> touched;
+    private final int unknownDevices;
+    private final int duplicates;
+    private final int filtered;
+    private final int invalid;
+}
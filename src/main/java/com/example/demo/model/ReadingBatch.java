@@ -0,0 +1,125 @@
+package com.example.demo.model;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Пачка показаний датчиков в колоночном виде: массивы примитивов вместо списка сущностей.
+ * Позволяет писать DeviceData пакетами, не создавая объект на каждое показание.
+ */
+public class ReadingBatch {
+
+    // Показание без номера последовательности (не участвует в отсеве повторов)
+    public static final long NO_SEQUENCE = -1;
+
+    // Насколько часы устройства могут спешить
+    public static final long MAX_CLOCK_SKEW_MS = 24 * 60 * 60 * 1000L;
+
+    private String[] deviceIds;
+    private double[] values;
+    private short[] dataTypes;  // Коды DataTypeDictionary
+    private long[] timestamps;
+    private long[] sequences;
+    private int size;
+
+    public ReadingBatch(int capacity) {
+        int initial = Math.max(capacity, 1);
+        this.deviceIds = new String[initial];
+        this.values = new double[initial];
+        this.dataTypes = new short[initial];
+        this.timestamps = new long[initial];
+        this.sequences = new long[initial];
+    }
+
+    public void add(String deviceId, double value, short dataType, long timestamp) {
+        add(deviceId, value, dataType, timestamp, NO_SEQUENCE);
+    }
+
+    public void add(String deviceId, double value, short dataType, long timestamp, long sequence) {
+        if (size == deviceIds.length) {
+            grow();
+        }
+        deviceIds[size] = deviceId;
+        values[size] = value;
+        dataTypes[size] = dataType;
+        timestamps[size] = timestamp;
+        sequences[size] = sequence;
+        size++;
+    }
+
+    /**
+     * Время показания, которое принимается на входе: не раньше эпохи и не дальше MAX_CLOCK_SKEW_MS в будущем.
+     * Время вне диапазона timestamp БД не дает записать всю пачку, а время из будущего ломает окна
+     * фильтра и агрегатов, поэтому такие показания отклоняются сразу.
+     */
+    public static boolean isValidTimestamp(long timestamp, long now) {
+        return timestamp >= 0 && timestamp <= now + MAX_CLOCK_SKEW_MS;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getDeviceId(int index) {
+        return deviceIds[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    public short getDataType(int index) {
+        return dataTypes[index];
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public long getSequence(int index) {
+        return sequences[index];
+    }
+
+    /**
+     * Оставляет только показания, для индекса которых предикат вернул true (порядок сохраняется).
+     * Возвращает количество удаленных показаний.
+     */
+    public int retain(IntPredicate keep) {
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (!keep.test(read)) {
+                continue;
+            }
+            if (write != read) {
+                deviceIds[write] = deviceIds[read];
+                values[write] = values[read];
+                dataTypes[write] = dataTypes[read];
+                timestamps[write] = timestamps[read];
+                sequences[write] = sequences[read];
+            }
+            write++;
+        }
+        int removed = size - write;
+        Arrays.fill(deviceIds, write, size, null);
+        size = write;
+        return removed;
+    }
+
+    public void clear() {
+        Arrays.fill(deviceIds, 0, size, null);
+        size = 0;
+    }
+
+    private void grow() {
+        int capacity = deviceIds.length * 2;
+        deviceIds = Arrays.copyOf(deviceIds, capacity);
+        values = Arrays.copyOf(values, capacity);
+        dataTypes = Arrays.copyOf(dataTypes, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.demo.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Уровни агрегации истории показаний, от мелкого к крупному.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum RollupTier {
+    MINUTE(60_000L),
+    HOUR(3_600_000L),
+    DAY(86_400_000L);
+
+    private final long bucketMillis;
+
+    public long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, bucketMillis) * bucketMillis;
+    }
+
+    /**
+     * Самый крупный уровень, ведро которого не больше запрошенного шага; для шага меньше минуты - MINUTE.
+     */
+    public static RollupTier forResolution(long resolutionMillis) {
+        RollupTier chosen = MINUTE;
+        for (RollupTier tier : values()) {
+            if (tier.bucketMillis <= resolutionMillis) {
+                chosen = tier;
+            }
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.demo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Хранение словаря типов показаний и перевод старых строковых колонок data_type на коды.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DataTypeJdbcRepository {
+
+    // Код - следующий за максимальным; при гонке с другим экземпляром строка не вставится и вставка повторится
+    private static final String INSERT_SQL =
+            "INSERT INTO data_type (code, name) SELECT COALESCE(MAX(code), 0) + 1, ? FROM data_type" +
+            " ON CONFLICT DO NOTHING";
+
+    private static final String COLUMN_EXISTS_SQL =
+            "SELECT 1 FROM information_schema.columns WHERE table_schema = current_schema()" +
+            " AND table_name = ? AND column_name = ?";
+
+    // Имена и коды - по диапазону id: перевод device_data идет порциями (migrateChunk)
+    private static final String IMPORT_LEGACY_NAMES_SQL =
+            "INSERT INTO data_type (code, name)" +
+            " SELECT (SELECT COALESCE(MAX(code), 0) FROM data_type) + ROW_NUMBER() OVER (ORDER BY name), name" +
+            " FROM (SELECT DISTINCT data_type AS name FROM device_data" +
+            "   WHERE id > ? AND id <= ? AND data_type IS NOT NULL) names" +
+            " WHERE name NOT IN (SELECT name FROM data_type)";
+
+    private static final String ENCODE_LEGACY_ROWS_SQL =
+            "UPDATE device_data d SET data_type_code = t.code FROM data_type t" +
+            " WHERE d.id > ? AND d.id <= ? AND d.data_type = t.name AND d.data_type_code IS NULL";
+
+    // Прогресс перевода device_data на коды: одна строка, пока он не закончен
+    private static final String MIGRATION_TABLE = "device_data_type_migration";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void forEach(EntryConsumer consumer) {
+        jdbcTemplate.query("SELECT code, name FROM data_type",
+                (RowCallbackHandler) rs -> consumer.accept(rs.getShort(1), rs.getString(2)));
+    }
+
+    /**
+     * Код типа, при необходимости добавляя его в словарь; null, если вставку перехватил другой экземпляр
+     * с тем же кодом (нужно повторить). Своя транзакция: код попадает в кэш словаря и не должен
+     * откатиться вместе с транзакцией вызывающего (например, загрузкой файла через COPY).
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Short findOrInsert(String name) {
+        Short code = find(name);
+        if (code != null) {
+            return code;
+        }
+        jdbcTemplate.update(INSERT_SQL, name);
+        return find(name);
+    }
+
+    private Short find(String name) {
+        List<Short> codes = jdbcTemplate.queryForList("SELECT code FROM data_type WHERE name = ?", Short.class, name);
+        return codes.isEmpty() ? null : codes.get(0);
+    }
+
+    public boolean columnExists(String table, String column) {
+        return !jdbcTemplate.queryForList(COLUMN_EXISTS_SQL, table, column).isEmpty();
+    }
+
+    /**
+     * Начинает перевод device_data со строковой колонки data_type на data_type_code: только быстрые DDL
+     * и запись диапазона id, строки которого перекодирует migrateChunk. Новые строки пишутся сразу с кодом.
+     * Повторный вызов не сбрасывает прогресс.
+     */
+    @Transactional
+    public void startDeviceDataMigration() {
+        jdbcTemplate.execute("ALTER TABLE device_data ADD COLUMN IF NOT EXISTS data_type_code smallint");
+        jdbcTemplate.execute("ALTER TABLE device_data ALTER COLUMN data_type DROP NOT NULL");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + MIGRATION_TABLE +
+                " (id int PRIMARY KEY, migrated_to bigint NOT NULL, migrate_until bigint NOT NULL)");
+        jdbcTemplate.update("INSERT INTO " + MIGRATION_TABLE +
+                " SELECT 1, COALESCE(MIN(id), 1) - 1, COALESCE(MAX(id), 0) FROM device_data ON CONFLICT (id) DO NOTHING");
+    }
+
+    /**
+     * Незаконченный перевод: строки device_data с id в (migratedTo, migrateUntil]; null, если перевода нет.
+     */
+    public MigrationProgress findMigrationProgress() {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, MIGRATION_TABLE);
+        if (!Boolean.TRUE.equals(exists)) {
+            return null;
+        }
+        List<MigrationProgress> progress = jdbcTemplate.query("SELECT migrated_to, migrate_until FROM " + MIGRATION_TABLE,
+                (rs, row) -> new MigrationProgress(rs.getLong(1), rs.getLong(2)));
+        return progress.isEmpty() ? null : progress.get(0);
+    }
+
+    /**
+     * Переносит имена строк device_data с id в (afterId, uptoId] в словарь, проставляет им коды и в той же
+     * транзакции сдвигает прогресс. Возвращает число перекодированных строк.
+     */
+    @Transactional
+    public int migrateChunk(long afterId, long uptoId) {
+        jdbcTemplate.update(IMPORT_LEGACY_NAMES_SQL, afterId, uptoId);
+        int rows = jdbcTemplate.update(ENCODE_LEGACY_ROWS_SQL, afterId, uptoId);
+        jdbcTemplate.update("UPDATE " + MIGRATION_TABLE + " SET migrated_to = ?", uptoId);
+        return rows;
+    }
+
+    /**
+     * Удаляет старую колонку (без перезаписи таблицы) вместе с прогрессом перевода.
+     */
+    @Transactional
+    public void finishDeviceDataMigration() {
+        jdbcTemplate.execute("ALTER TABLE device_data DROP COLUMN IF EXISTS data_type");
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + MIGRATION_TABLE);
+    }
+
+    /**
+     * device_latest_reading со строковым ключом просто очищается и получает ключ по коду:
+     * при старте она заполнится из истории заново. Повторный запуск безопасен: ограничение уникальности
+     * могло уже появиться (его создает и ddl-auto), поэтому оно пересоздается.
+     */
+    @Transactional
+    public void resetLatestReadings() {
+        jdbcTemplate.execute("TRUNCATE device_latest_reading");
+        jdbcTemplate.execute("ALTER TABLE device_latest_reading DROP CONSTRAINT IF EXISTS device_latest_reading_uk");
+        jdbcTemplate.execute("ALTER TABLE device_latest_reading DROP COLUMN IF EXISTS data_type");
+        jdbcTemplate.execute("ALTER TABLE device_latest_reading ADD COLUMN IF NOT EXISTS data_type_code smallint");
+        jdbcTemplate.execute("ALTER TABLE device_latest_reading ALTER COLUMN data_type_code SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE device_latest_reading ADD CONSTRAINT device_latest_reading_uk" +
+                " UNIQUE (device_id, data_type_code)");
+    }
+
+    public record MigrationProgress(long migratedTo, long migrateUntil) {
+    }
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(short code, String name);
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.demo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Массовая загрузка показаний через COPY FROM STDIN (только PostgreSQL).
+ * Строки кодируются в текстовый формат COPY прямо в байтовый буфер и уходят на сервер по 64 КБ,
+ * без PreparedStatement и разбора SQL на каждую строку.
+ * Загрузка идет порциями по CHUNK_ROWS строк в одной транзакции: между порциями соединение свободно
+ * для других запросов (например, дозаписи агрегатов), а ошибка в любом месте откатывает весь файл.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceDataCopyRepository {
+
+    private static final String COPY_SQL =
+            "COPY device_data (device_id, value, data_type_code, timestamp) FROM STDIN WITH (FORMAT text)";
+
+    public static final int CHUNK_ROWS = 100_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Загружает все строки source. listener вызывается после каждой порции, когда COPY уже завершен.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public long copyReadings(ReadingSource source, ChunkListener listener) throws IOException {
+        try {
+            return jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                CopyStream stream = new CopyStream(copyManager, listener);
+                try {
+                    source.readInto(stream);
+                    stream.finish();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    stream.cancel();
+                }
+                return stream.rows;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ReadingSource {
+        void readInto(ReadingSink sink) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface ReadingSink {
+        void accept(long devicePk, long timestamp, Double value, short dataType) throws IOException;
+
+        /**
+         * Завершает текущий COPY, не закрывая порцию: до следующей строки соединение свободно
+         * для других запросов в той же транзакции (например, создания секции).
+         */
+        default void pause() throws IOException {
+        }
+    }
+
+    @FunctionalInterface
+    public interface ChunkListener {
+        void afterChunk(long rows, boolean last) throws IOException;
+    }
+
+    private static final class CopyStream implements ReadingSink {
+        private static final byte[] NULL = {'\\', 'N'};
+
+        private final CopyManager copyManager;
+        private final ChunkListener listener;
+        private final ZoneId zone = ZoneId.systemDefault();
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+        private CopyIn copyIn;
+        private long chunkRows;
+        private long rows;
+
+        CopyStream(CopyManager copyManager, ChunkListener listener) {
+            this.copyManager = copyManager;
+            this.listener = listener;
+        }
+
+        @Override
+        public void accept(long devicePk, long timestamp, Double value, short dataType) throws IOException {
+            // Строка точно помещается в свободное место: числа, double и timestamp
+            if (position + 128 > buffer.length) {
+                flushBuffer();
+            }
+            writeAscii(Long.toString(devicePk));
+            buffer[position++] = '\t';
+            if (value != null) {
+                writeAscii(Double.toString(value));
+            } else {
+                write(NULL);
+            }
+            buffer[position++] = '\t';
+            if (dataType != 0) {
+                writeAscii(Short.toString(dataType));
+            } else {
+                write(NULL);
+            }
+            buffer[position++] = '\t';
+            writeAscii(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone).toString());
+            buffer[position++] = '\n';
+
+            rows++;
+            if (++chunkRows >= CHUNK_ROWS) {
+                endChunk(false);
+            }
+        }
+
+        void finish() throws IOException {
+            endChunk(true);
+        }
+
+        @Override
+        public void pause() throws IOException {
+            flushBuffer();
+            endCopy();
+        }
+
+        void cancel() {
+            if (copyIn != null && copyIn.isActive()) {
+                try {
+                    copyIn.cancelCopy();
+                } catch (SQLException ignored) {
+                    // Транзакция все равно откатывается
+                }
+            }
+        }
+
+        private void endChunk(boolean last) throws IOException {
+            flushBuffer();
+            endCopy();
+            chunkRows = 0;
+            listener.afterChunk(rows, last);
+        }
+
+        private void endCopy() throws IOException {
+            if (copyIn != null) {
+                try {
+                    copyIn.endCopy();
+                } catch (SQLException e) {
+                    throw new IOException("COPY failed: " + e.getMessage(), e);
+                }
+                copyIn = null;
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (position == 0) {
+                return;
+            }
+            try {
+                if (copyIn == null) {
+                    copyIn = copyManager.copyIn(COPY_SQL);
+                }
+                copyIn.writeToCopy(buffer, 0, position);
+            } catch (SQLException e) {
+                throw new IOException("COPY failed: " + e.getMessage(), e);
+            }
+            position = 0;
+        }
+
+        private void writeAscii(String value) {
+            for (int i = 0; i < value.length(); i++) {
+                buffer[position++] = (byte) value.charAt(i);
+            }
+        }
+
+        private void write(byte[] bytes) {
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+    }
+}
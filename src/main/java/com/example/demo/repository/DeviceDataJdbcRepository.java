@@ -0,0 +1,240 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.ReadingBatch;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Пакетная запись показаний напрямую через JDBC.
+ * Hibernate не батчит INSERT для сущностей с IDENTITY, поэтому горячий путь идет мимо JPA.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceDataJdbcRepository {
+
+    // Постраничная выборка по ключу (timestamp, id), от новых к старым; без OFFSET, сколько бы страниц ни было
+    private static final String SELECT_RANGE_SQL =
+            "SELECT id, value, data_type_code, timestamp FROM device_data" +
+            " WHERE device_id = ? AND timestamp >= ? AND timestamp < ?" +
+            " ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    private static final String SELECT_RANGE_AFTER_CURSOR_SQL =
+            "SELECT id, value, data_type_code, timestamp FROM device_data" +
+            " WHERE device_id = ? AND timestamp >= ? AND timestamp < ? AND (timestamp, id) < (?, ?)" +
+            " ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    // То же по одному dataType; показания без типа хранятся с NULL в data_type_code
+    private static final String SELECT_TYPE_RANGE_SQL =
+            "SELECT id, value, data_type_code, timestamp FROM device_data" +
+            " WHERE device_id = ? AND data_type_code IS NOT DISTINCT FROM ? AND timestamp >= ? AND timestamp < ?" +
+            " ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    private static final String SELECT_TYPE_RANGE_AFTER_CURSOR_SQL =
+            "SELECT id, value, data_type_code, timestamp FROM device_data" +
+            " WHERE device_id = ? AND data_type_code IS NOT DISTINCT FROM ? AND timestamp >= ? AND timestamp < ?" +
+            " AND (timestamp, id) < (?, ?)" +
+            " ORDER BY timestamp DESC, id DESC LIMIT ?";
+
+    private static final String SELECT_RANGE_ASC_SQL =
+            "SELECT timestamp, value FROM device_data" +
+            " WHERE device_id = ? AND data_type_code IS NOT DISTINCT FROM ? AND timestamp >= ? AND timestamp < ?" +
+            " AND value IS NOT NULL" +
+            " ORDER BY timestamp";
+
+    // Больше двух типов знать не нужно: достаточно понять, один ли ряд в диапазоне
+    private static final String SELECT_RANGE_DATA_TYPES_SQL =
+            "SELECT DISTINCT data_type_code FROM device_data" +
+            " WHERE device_id = ? AND timestamp >= ? AND timestamp < ? LIMIT 2";
+
+    private static final String SELECT_EXPORT_SQL =
+            "SELECT id, value, data_type_code, timestamp FROM device_data" +
+            " WHERE device_id = ? AND timestamp >= ? AND timestamp < ?" +
+            " ORDER BY timestamp, id";
+
+    private static final String SELECT_SINCE_SQL =
+            "SELECT device_id, value, timestamp, data_type_code FROM device_data WHERE timestamp >= ? ORDER BY timestamp";
+
+    // Драйвер PostgreSQL читает порциями только при fetchSize > 0 и выключенном autocommit (внутри транзакции)
+    private static final int FETCH_SIZE = 10000;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO device_data (device_id, value, data_type_code, timestamp) VALUES (?, ?, ?, ?)";
+
+    // Размер одного JDBC-батча; с reWriteBatchedInserts драйвер склеивает его в multi-row INSERT
+    private static final int JDBC_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Вставляет одной транзакцией показания пачки с индексами rows[0..count).
+     * devicePks[row] - первичный ключ устройства показания row.
+     */
+    @Transactional
+    public void insertBatch(ReadingBatch batch, long[] devicePks, int[] rows, int count) {
+        insertRows(batch, devicePks, rows, 0, count);
+    }
+
+    /**
+     * Пробная вставка показаний rows[from..to) с откатом: ничего не записывает, только проверяет,
+     * что БД их примет. Ошибка БД пробрасывается.
+     */
+    @Transactional
+    public void probeBatch(ReadingBatch batch, long[] devicePks, int[] rows, int from, int to) {
+        insertRows(batch, devicePks, rows, from, to);
+        TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+    }
+
+    private void insertRows(ReadingBatch batch, long[] devicePks, int[] rows, int start, int end) {
+        for (int from = start; from < end; from += JDBC_BATCH_SIZE) {
+            final int offset = from;
+            final int chunk = Math.min(JDBC_BATCH_SIZE, end - from);
+            jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    int row = rows[offset + i];
+                    ps.setLong(1, devicePks[row]);
+                    ps.setDouble(2, batch.getValue(row));
+                    setDataType(ps, 3, batch.getDataType(row));
+                    ps.setTimestamp(4, new Timestamp(batch.getTimestamp(row)));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk;
+                }
+            });
+        }
+    }
+
+    /**
+     * Потоково перебирает показания новее from (по возрастанию времени), не загружая их в память целиком.
+     */
+    @Transactional(readOnly = true)
+    public void forEachSince(long fromMillis, ReadingConsumer consumer) {
+        RowCallbackHandler handler = rs -> {
+            double value = rs.getDouble(2);
+            if (!rs.wasNull()) {
+                consumer.accept(rs.getLong(1), rs.getShort(4), rs.getTimestamp(3).getTime(), value);
+            }
+        };
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_SINCE_SQL);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setTimestamp(1, new Timestamp(fromMillis));
+            return ps;
+        }, handler);
+    }
+
+    /**
+     * Потоково перебирает показания устройства в [from, to) от новых к старым, не больше limit строк.
+     * dataType - код типа или null для всех типов.
+     * cursorTimestamp / cursorId - последняя строка предыдущей страницы (null для первой).
+     */
+    @Transactional(readOnly = true)
+    public void forEachInRange(long devicePk, Short dataType, Timestamp from, Timestamp to, Timestamp cursorTimestamp,
+                               Long cursorId, int limit, HistoryRowConsumer consumer) {
+        RowCallbackHandler handler = rs -> {
+            double value = rs.getDouble(2);
+            consumer.accept(rs.getLong(1), rs.getTimestamp(4), rs.wasNull() ? null : value, rs.getShort(3));
+        };
+        jdbcTemplate.query(connection -> {
+            boolean afterCursor = cursorTimestamp != null && cursorId != null;
+            String sql = dataType == null
+                    ? (afterCursor ? SELECT_RANGE_AFTER_CURSOR_SQL : SELECT_RANGE_SQL)
+                    : (afterCursor ? SELECT_TYPE_RANGE_AFTER_CURSOR_SQL : SELECT_TYPE_RANGE_SQL);
+            PreparedStatement ps = connection.prepareStatement(sql);
+            ps.setFetchSize(Math.min(limit, FETCH_SIZE));
+            int index = 1;
+            ps.setLong(index++, devicePk);
+            if (dataType != null) {
+                setDataType(ps, index++, dataType);
+            }
+            ps.setTimestamp(index++, from);
+            ps.setTimestamp(index++, to);
+            if (afterCursor) {
+                ps.setTimestamp(index++, cursorTimestamp);
+                ps.setLong(index++, cursorId);
+            }
+            ps.setInt(index, limit);
+            return ps;
+        }, handler);
+    }
+
+    /**
+     * Потоково перебирает значения одного dataType устройства в [from, to) по возрастанию времени, весь диапазон.
+     */
+    @Transactional(readOnly = true)
+    public void forEachValueInRange(long devicePk, short dataType, Timestamp from, Timestamp to,
+                                    ValueConsumer consumer) {
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_RANGE_ASC_SQL);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setLong(1, devicePk);
+            setDataType(ps, 2, dataType);
+            ps.setTimestamp(3, from);
+            ps.setTimestamp(4, to);
+            return ps;
+        }, (RowCallbackHandler) rs -> consumer.accept(rs.getTimestamp(1).getTime(), rs.getDouble(2)));
+    }
+
+    /**
+     * Коды dataType показаний устройства в [from, to), не больше двух (0 - показания без типа).
+     */
+    @Transactional(readOnly = true)
+    public List<Short> findDataTypesInRange(long devicePk, Timestamp from, Timestamp to) {
+        return jdbcTemplate.query(SELECT_RANGE_DATA_TYPES_SQL, (rs, rowNum) -> rs.getShort(1), devicePk, from, to);
+    }
+
+    /**
+     * Потоково перебирает все показания устройства в [from, to) по возрастанию времени, включая пустые значения.
+     */
+    @Transactional(readOnly = true)
+    public void forEachForExport(long devicePk, Timestamp from, Timestamp to, HistoryRowConsumer consumer) {
+        RowCallbackHandler handler = rs -> {
+            double value = rs.getDouble(2);
+            consumer.accept(rs.getLong(1), rs.getTimestamp(4), rs.wasNull() ? null : value, rs.getShort(3));
+        };
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(SELECT_EXPORT_SQL);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setLong(1, devicePk);
+            ps.setTimestamp(2, from);
+            ps.setTimestamp(3, to);
+            return ps;
+        }, handler);
+    }
+
+    private static void setDataType(PreparedStatement ps, int index, short dataType) throws SQLException {
+        if (dataType != 0) {
+            ps.setShort(index, dataType);
+        } else {
+            ps.setNull(index, Types.SMALLINT);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ValueConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    @FunctionalInterface
+    public interface HistoryRowConsumer {
+        void accept(long id, Timestamp timestamp, Double value, short dataType);
+    }
+
+    @FunctionalInterface
+    public interface ReadingConsumer {
+        void accept(long devicePk, short dataType, long timestamp, double value);
+    }
+}
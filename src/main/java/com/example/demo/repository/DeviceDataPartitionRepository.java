@@ -0,0 +1,139 @@
+package com.example.demo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * DDL секционирования device_data по времени (PostgreSQL, декларативные RANGE-секции по timestamp).
+ * Родительская таблица без первичного ключа: уникальный индекс на секционированной таблице
+ * обязан включать timestamp, а для вставок и выборок он не нужен.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceDataPartitionRepository {
+
+    public static final String TABLE = "device_data";
+    public static final String LEGACY_PARTITION = "device_data_legacy";
+    public static final String DEFAULT_PARTITION = "device_data_default";
+
+    // Своя последовательность: identity-последовательность старой таблицы удаляется вместе с ней
+    private static final String ID_SEQUENCE = "device_data_pk_seq";
+
+    private static final String CREATE_PARENT_SQL =
+            "CREATE TABLE " + TABLE + " (" +
+            " id bigint NOT NULL DEFAULT nextval('" + ID_SEQUENCE + "')," +
+            " device_id bigint," +
+            " value double precision," +
+            " timestamp timestamp(6)," +
+            " data_type_code smallint" +
+            ") PARTITION BY RANGE (timestamp)";
+
+    // Индекс под выборки "последние показания устройства"; на секциях создается автоматически
+    private static final String CREATE_INDEX_SQL =
+            "CREATE INDEX IF NOT EXISTS device_data_device_ts_idx ON " + TABLE + " (device_id, timestamp DESC)";
+
+    private static final Pattern UPPER_BOUND = Pattern.compile("TO \\('([^']+)'\\)");
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Вид таблицы device_data: 'p' - секционированная, 'r' - обычная, null - таблицы нет.
+     */
+    public String tableKind() {
+        List<String> kinds = jdbcTemplate.queryForList(
+                "SELECT relkind::text FROM pg_class WHERE oid = to_regclass(?)", String.class, TABLE);
+        return kinds.isEmpty() ? null : kinds.get(0);
+    }
+
+    @Transactional
+    public void createPartitionedTable() {
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + ID_SEQUENCE);
+        jdbcTemplate.execute(CREATE_PARENT_SQL);
+        jdbcTemplate.execute(CREATE_INDEX_SQL);
+        jdbcTemplate.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF " + TABLE + " DEFAULT");
+    }
+
+    /**
+     * Превращает обычную таблицу в секционированную без переписывания истории:
+     * старая таблица целиком становится секцией (MINVALUE, boundary), строки новее boundary
+     * переносятся в секцию по умолчанию и оттуда - в свежие секции при их создании.
+     * Проверка границ и построение индекса на старой таблице - один полный проход, выполняется один раз.
+     */
+    @Transactional
+    public void convertLegacyTable(LocalDateTime boundary) {
+        jdbcTemplate.execute("LOCK TABLE " + TABLE + " IN ACCESS EXCLUSIVE MODE");
+        Long nextId = jdbcTemplate.queryForObject("SELECT coalesce(max(id), 0) + 1 FROM " + TABLE, Long.class);
+        jdbcTemplate.execute("CREATE SEQUENCE IF NOT EXISTS " + ID_SEQUENCE + " START WITH " + nextId);
+
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " RENAME TO " + LEGACY_PARTITION);
+        jdbcTemplate.execute("ALTER TABLE " + LEGACY_PARTITION + " ALTER COLUMN id DROP IDENTITY IF EXISTS");
+
+        jdbcTemplate.execute(CREATE_PARENT_SQL);
+        jdbcTemplate.execute(CREATE_INDEX_SQL);
+        jdbcTemplate.execute("CREATE TABLE " + DEFAULT_PARTITION + " PARTITION OF " + TABLE + " DEFAULT");
+
+        jdbcTemplate.update(
+                "WITH moved AS (DELETE FROM " + LEGACY_PARTITION +
+                " WHERE timestamp >= ? OR timestamp IS NULL RETURNING id, device_id, value, timestamp, data_type_code)" +
+                " INSERT INTO " + DEFAULT_PARTITION + " (id, device_id, value, timestamp, data_type_code)" +
+                " SELECT id, device_id, value, timestamp, data_type_code FROM moved",
+                Timestamp.valueOf(boundary));
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + LEGACY_PARTITION +
+                " FOR VALUES FROM (MINVALUE) TO ('" + Timestamp.valueOf(boundary) + "')");
+    }
+
+    /**
+     * Создает секцию [from, to). Строки этого диапазона, попавшие в секцию по умолчанию, переносятся в нее.
+     */
+    @Transactional
+    public void createPartition(String name, LocalDateTime from, LocalDateTime to) {
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE " + TABLE + " INCLUDING DEFAULTS)");
+        jdbcTemplate.update(
+                "WITH moved AS (DELETE FROM " + DEFAULT_PARTITION +
+                " WHERE timestamp >= ? AND timestamp < ? RETURNING id, device_id, value, timestamp, data_type_code)" +
+                " INSERT INTO " + name + " (id, device_id, value, timestamp, data_type_code)" +
+                " SELECT id, device_id, value, timestamp, data_type_code FROM moved",
+                Timestamp.valueOf(from), Timestamp.valueOf(to));
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " ATTACH PARTITION " + name +
+                " FOR VALUES FROM ('" + Timestamp.valueOf(from) + "') TO ('" + Timestamp.valueOf(to) + "')");
+    }
+
+    /**
+     * Секции device_data с верхней границей диапазона (null у секции по умолчанию).
+     */
+    public List<Partition> findPartitions() {
+        return jdbcTemplate.query(
+                "SELECT c.relname, pg_get_expr(c.relpartbound, c.oid) FROM pg_inherits i" +
+                " JOIN pg_class c ON c.oid = i.inhrelid WHERE i.inhparent = to_regclass(?) ORDER BY c.relname",
+                (rs, rowNum) -> new Partition(rs.getString(1), parseUpperBound(rs.getString(2))),
+                TABLE);
+    }
+
+    public void dropPartition(String name) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    /**
+     * Чистит секцию по умолчанию от строк старше срока хранения (туда попадают только показания
+     * с неверным временем, поэтому DELETE здесь дешевый).
+     */
+    public int purgeDefaultPartition(LocalDateTime before) {
+        return jdbcTemplate.update("DELETE FROM " + DEFAULT_PARTITION + " WHERE timestamp < ?", Timestamp.valueOf(before));
+    }
+
+    private static LocalDateTime parseUpperBound(String bound) {
+        Matcher matcher = UPPER_BOUND.matcher(bound != null ? bound : "");
+        return matcher.find() ? Timestamp.valueOf(matcher.group(1)).toLocalDateTime() : null;
+    }
+
+    public record Partition(String name, LocalDateTime upperBound) {
+    }
+}
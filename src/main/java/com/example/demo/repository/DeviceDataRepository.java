@@ -3,10 +3,19 @@ package com.example.demo.repository;
 import com.example.demo.model.DeviceData;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
 public interface DeviceDataRepository extends JpaRepository<DeviceData, Long> {
     List<DeviceData> findByDeviceIdOrderByTimestampDesc(Long deviceId);
     DeviceData findTopByDeviceIdOrderByTimestampDesc(Long deviceId);
+    
+    // Выборки с границей по времени: при секционированной device_data читаются только нужные секции
+    DeviceData findTopByDeviceIdAndTimestampGreaterThanEqualOrderByTimestampDesc(Long deviceId, LocalDateTime from);
+    List<DeviceData> findByDeviceIdAndTimestampBetweenOrderByTimestampDesc(Long deviceId, LocalDateTime from, LocalDateTime to);
+    List<DeviceData> findByDeviceIdAndDataTypeCodeAndTimestampBetweenOrderByTimestampDesc(
+            Long deviceId, Short dataTypeCode, LocalDateTime from, LocalDateTime to);
+    List<DeviceData> findByDeviceIdAndDataTypeCodeIsNullAndTimestampBetweenOrderByTimestampDesc(
+            Long deviceId, LocalDateTime from, LocalDateTime to);
 }
\ No newline at end of file
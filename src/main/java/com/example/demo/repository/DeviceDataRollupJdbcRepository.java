@@ -0,0 +1,144 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.DeviceDataRollup;
+import com.example.demo.model.RollupTier;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Дозапись агрегатов одним батчем: частичный агрегат ведра складывается с уже сохраненным.
+ * Здесь же перевод таблицы со старого ключа (устройство, уровень, ведро) на ключ с dataType
+ * и пересчет агрегатов из device_data порциями по id.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceDataRollupJdbcRepository {
+
+    // Частичный агрегат складывается с сохраненным: так пишутся и сбросы из памяти, и пересчет из device_data
+    private static final String MERGE_SQL =
+            " ON CONFLICT (device_id, data_type_code, tier, bucket_start) DO UPDATE SET" +
+            " min_value = LEAST(r.min_value, EXCLUDED.min_value)," +
+            " max_value = GREATEST(r.max_value, EXCLUDED.max_value)," +
+            " sum_value = r.sum_value + EXCLUDED.sum_value," +
+            " sample_count = r.sample_count + EXCLUDED.sample_count," +
+            " last_value = CASE WHEN EXCLUDED.last_timestamp >= r.last_timestamp" +
+            "   THEN EXCLUDED.last_value ELSE r.last_value END," +
+            " last_timestamp = GREATEST(r.last_timestamp, EXCLUDED.last_timestamp)";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO device_data_rollup AS r" +
+            " (device_id, data_type_code, tier, bucket_start, min_value, max_value, sum_value, sample_count," +
+            " last_value, last_timestamp)" +
+            " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)" + MERGE_SQL;
+
+    private static final String LEGACY_CONSTRAINT = "device_data_rollup_bucket_uk";
+
+    private static final String CONSTRAINT_EXISTS_SQL = "SELECT 1 FROM pg_constraint WHERE conname = ?";
+
+    // Ведра считаются как в RollupTier.bucketStart: по epoch millis, затем в локальное время зоны приложения.
+    // Пересчитываются строки device_data с id в (?, ?]: строки новее пересчета учтены сбросами из памяти
+    private static final String REBUILD_TIER_SQL =
+            "INSERT INTO device_data_rollup AS r" +
+            " (device_id, data_type_code, tier, bucket_start, min_value, max_value, sum_value, sample_count," +
+            " last_value, last_timestamp)" +
+            " SELECT device_id, data_type_code, ?, bucket_start, MIN(value), MAX(value), SUM(value), COUNT(*)," +
+            " (ARRAY_AGG(value ORDER BY timestamp DESC))[1], MAX(timestamp)" +
+            " FROM (SELECT device_id, COALESCE(data_type_code, 0) AS data_type_code, value, timestamp," +
+            "   to_timestamp(floor(extract(epoch FROM timestamp AT TIME ZONE ?) / ?) * ?) AT TIME ZONE ? AS bucket_start" +
+            "   FROM device_data WHERE id > ? AND id <= ? AND value IS NOT NULL) d" +
+            " GROUP BY device_id, data_type_code, bucket_start" + MERGE_SQL;
+
+    // Прогресс пересчета: одна строка, пока он не закончен
+    private static final String REBUILD_TABLE = "device_data_rollup_rebuild";
+
+    private static final int JDBC_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void upsertBatch(List<DeviceDataRollup> rollups) {
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rollups, JDBC_BATCH_SIZE, (ps, rollup) -> {
+            ps.setLong(1, rollup.getDeviceId());
+            ps.setShort(2, rollup.getDataTypeCode());
+            ps.setString(3, rollup.getTier().name());
+            ps.setTimestamp(4, Timestamp.valueOf(rollup.getBucketStart()));
+            ps.setDouble(5, rollup.getMinValue());
+            ps.setDouble(6, rollup.getMaxValue());
+            ps.setDouble(7, rollup.getSumValue());
+            ps.setLong(8, rollup.getSampleCount());
+            ps.setDouble(9, rollup.getLastValue());
+            ps.setTimestamp(10, Timestamp.valueOf(rollup.getLastTimestamp()));
+        });
+    }
+
+    /**
+     * Таблица еще с ключом без dataType: в ее ведрах смешаны показания разных типов.
+     */
+    public boolean hasLegacyKey() {
+        return !jdbcTemplate.queryForList(CONSTRAINT_EXISTS_SQL, LEGACY_CONSTRAINT).isEmpty();
+    }
+
+    /**
+     * Переводит таблицу на ключ (устройство, dataType, уровень, ведро). Смешанные по типам агрегаты
+     * разделить нельзя, поэтому таблица очищается, а строки device_data, уже записанные к этому моменту,
+     * ставятся в очередь пересчета (rebuildChunk). Только быстрые DDL, без прохода по device_data.
+     */
+    @Transactional
+    public void switchToDataTypeKey() {
+        jdbcTemplate.execute("TRUNCATE device_data_rollup");
+        jdbcTemplate.execute("ALTER TABLE device_data_rollup ADD COLUMN IF NOT EXISTS data_type_code smallint");
+        jdbcTemplate.execute("ALTER TABLE device_data_rollup ALTER COLUMN data_type_code SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE device_data_rollup DROP CONSTRAINT IF EXISTS " + LEGACY_CONSTRAINT);
+        jdbcTemplate.execute("ALTER TABLE device_data_rollup DROP CONSTRAINT IF EXISTS device_data_rollup_series_uk");
+        jdbcTemplate.execute("ALTER TABLE device_data_rollup ADD CONSTRAINT device_data_rollup_series_uk" +
+                " UNIQUE (device_id, data_type_code, tier, bucket_start)");
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + REBUILD_TABLE +
+                " (id int PRIMARY KEY, rebuilt_to bigint NOT NULL, rebuild_until bigint NOT NULL)");
+        jdbcTemplate.update("DELETE FROM " + REBUILD_TABLE);
+        jdbcTemplate.update("INSERT INTO " + REBUILD_TABLE +
+                " SELECT 1, COALESCE(MIN(id), 1) - 1, COALESCE(MAX(id), 0) FROM device_data");
+    }
+
+    /**
+     * Незаконченный пересчет: строки device_data с id в (rebuiltTo, rebuildUntil]; null, если пересчета нет.
+     */
+    public RebuildProgress findRebuildProgress() {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, REBUILD_TABLE);
+        if (!Boolean.TRUE.equals(exists)) {
+            return null;
+        }
+        List<RebuildProgress> progress = jdbcTemplate.query("SELECT rebuilt_to, rebuild_until FROM " + REBUILD_TABLE,
+                (rs, row) -> new RebuildProgress(rs.getLong(1), rs.getLong(2)));
+        return progress.isEmpty() ? null : progress.get(0);
+    }
+
+    /**
+     * Досчитывает агрегаты по строкам device_data с id в (afterId, uptoId] и в той же транзакции
+     * сдвигает прогресс: после перезапуска пересчет продолжится без двойного учета.
+     * Возвращает число затронутых агрегатов.
+     */
+    @Transactional
+    public int rebuildChunk(ZoneId zone, long afterId, long uptoId) {
+        int rows = 0;
+        for (RollupTier tier : RollupTier.values()) {
+            long seconds = tier.getBucketMillis() / 1000;
+            rows += jdbcTemplate.update(REBUILD_TIER_SQL, tier.name(), zone.getId(), seconds, seconds, zone.getId(),
+                    afterId, uptoId);
+        }
+        jdbcTemplate.update("UPDATE " + REBUILD_TABLE + " SET rebuilt_to = ?", uptoId);
+        return rows;
+    }
+
+    public void finishRebuild() {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + REBUILD_TABLE);
+    }
+
+    public record RebuildProgress(long rebuiltTo, long rebuildUntil) {
+    }
+}
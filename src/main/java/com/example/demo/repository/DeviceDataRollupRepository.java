@@ -0,0 +1,17 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.DeviceDataRollup;
+import com.example.demo.model.RollupTier;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface DeviceDataRollupRepository extends JpaRepository<DeviceDataRollup, Long> {
+    List<DeviceDataRollup> findByDeviceIdAndTierAndBucketStartBetweenOrderByBucketStart(
+            Long deviceId, RollupTier tier, LocalDateTime from, LocalDateTime to);
+
+    List<DeviceDataRollup> findByDeviceIdAndDataTypeCodeAndTierAndBucketStartBetweenOrderByBucketStart(
+            Long deviceId, Short dataTypeCode, RollupTier tier, LocalDateTime from, LocalDateTime to);
+}
@@ -0,0 +1,83 @@
+package com.example.demo.repository;
+
+import com.example.demo.model.RollupTier;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Хранение скетчей квантилей: скетч ведра целиком в памяти, поэтому при дозаписи строка просто заменяется.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceDataSketchJdbcRepository {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO device_data_sketch (device_id, data_type_code, tier, bucket_start, sketch) VALUES (?, ?, ?, ?, ?)" +
+            " ON CONFLICT (device_id, data_type_code, tier, bucket_start) DO UPDATE SET sketch = EXCLUDED.sketch";
+
+    // Ключ до разделения скетчей по dataType
+    private static final String LEGACY_CONSTRAINT = "device_data_sketch_bucket_uk";
+
+    private static final int JDBC_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public boolean hasLegacyKey() {
+        return !jdbcTemplate.queryForList("SELECT 1 FROM pg_constraint WHERE conname = ?", LEGACY_CONSTRAINT).isEmpty();
+    }
+
+    /**
+     * Переводит таблицу на ключ (устройство, dataType, уровень, ведро). Скетч, в который слиты показания
+     * разных типов, обратно не разделить, поэтому сохраненные скетчи удаляются.
+     */
+    @Transactional
+    public void switchToDataTypeKey() {
+        jdbcTemplate.execute("TRUNCATE device_data_sketch");
+        jdbcTemplate.execute("ALTER TABLE device_data_sketch ADD COLUMN IF NOT EXISTS data_type_code smallint");
+        jdbcTemplate.execute("ALTER TABLE device_data_sketch ALTER COLUMN data_type_code SET NOT NULL");
+        jdbcTemplate.execute("ALTER TABLE device_data_sketch DROP CONSTRAINT IF EXISTS " + LEGACY_CONSTRAINT);
+        jdbcTemplate.execute("ALTER TABLE device_data_sketch DROP CONSTRAINT IF EXISTS device_data_sketch_series_uk");
+        jdbcTemplate.execute("ALTER TABLE device_data_sketch ADD CONSTRAINT device_data_sketch_series_uk" +
+                " UNIQUE (device_id, data_type_code, tier, bucket_start)");
+    }
+
+    @Transactional
+    public void upsertBatch(List<SketchRow> rows) {
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows, JDBC_BATCH_SIZE, (ps, row) -> {
+            ps.setLong(1, row.devicePk());
+            ps.setShort(2, row.dataType());
+            ps.setString(3, row.tier().name());
+            ps.setTimestamp(4, new Timestamp(row.bucketStart()));
+            ps.setBytes(5, row.sketch());
+        });
+    }
+
+    @Transactional(readOnly = true)
+    public void forEachSince(RollupTier tier, long fromMillis, SketchConsumer consumer) {
+        jdbcTemplate.query(
+                "SELECT device_id, data_type_code, bucket_start, sketch FROM device_data_sketch" +
+                " WHERE tier = ? AND bucket_start >= ?",
+                (RowCallbackHandler) rs -> consumer.accept(rs.getLong(1), rs.getShort(2), rs.getTimestamp(3).getTime(),
+                        rs.getBytes(4)),
+                tier.name(), new Timestamp(fromMillis));
+    }
+
+    public int deleteBefore(RollupTier tier, long beforeMillis) {
+        return jdbcTemplate.update("DELETE FROM device_data_sketch WHERE tier = ? AND bucket_start < ?",
+                tier.name(), new Timestamp(beforeMillis));
+    }
+
+    public record SketchRow(long devicePk, short dataType, RollupTier tier, long bucketStart, byte[] sketch) {
+    }
+
+    @FunctionalInterface
+    public interface SketchConsumer {
+        void accept(long devicePk, short dataType, long bucketStart, byte[] sketch);
+    }
+}
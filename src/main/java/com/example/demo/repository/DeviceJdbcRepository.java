@@ -0,0 +1,48 @@
+package com.example.demo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Пакетное обновление горячего состояния устройств (lastValue / isOnline) через JDBC.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceJdbcRepository {
+
+    private static final String UPDATE_STATE_SQL =
+            "UPDATE device SET last_value = ?, is_online = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Обновляет состояние устройств одним JDBC-батчем; массивы параллельны, count - число строк.
+     */
+    @Transactional
+    public void updateStates(long[] ids, Double[] lastValues, boolean[] online, int count) {
+        jdbcTemplate.batchUpdate(UPDATE_STATE_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                if (lastValues[i] != null) {
+                    ps.setDouble(1, lastValues[i]);
+                } else {
+                    ps.setNull(1, Types.DOUBLE);
+                }
+                ps.setBoolean(2, online[i]);
+                ps.setLong(3, ids[i]);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return count;
+            }
+        });
+    }
+}
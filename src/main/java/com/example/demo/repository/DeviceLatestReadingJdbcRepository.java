@@ -0,0 +1,75 @@
+package com.example.demo.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Запись последних показаний. Более старое показание не затирает более новое,
+ * поэтому порядок сброса и повторы после восстановления из журнала не важны.
+ */
+@Repository
+@RequiredArgsConstructor
+public class DeviceLatestReadingJdbcRepository {
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO device_latest_reading AS l (device_id, data_type_code, value, timestamp) VALUES (?, ?, ?, ?)" +
+            " ON CONFLICT (device_id, data_type_code) DO UPDATE SET value = EXCLUDED.value, timestamp = EXCLUDED.timestamp" +
+            " WHERE EXCLUDED.timestamp >= l.timestamp";
+
+    // Первичное заполнение из истории: по одной строке на (устройство, dataType), один проход по таблице
+    private static final String SEED_SQL =
+            "INSERT INTO device_latest_reading (device_id, data_type_code, value, timestamp)" +
+            " SELECT DISTINCT ON (device_id, COALESCE(data_type_code, 0))" +
+            "   device_id, COALESCE(data_type_code, 0), value, timestamp" +
+            " FROM device_data WHERE device_id IS NOT NULL AND timestamp IS NOT NULL" +
+            " ORDER BY device_id, COALESCE(data_type_code, 0), timestamp DESC" +
+            " ON CONFLICT (device_id, data_type_code) DO NOTHING";
+
+    private static final int JDBC_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void upsertBatch(List<LatestRow> rows) {
+        jdbcTemplate.batchUpdate(UPSERT_SQL, rows, JDBC_BATCH_SIZE, (ps, row) -> {
+            ps.setLong(1, row.devicePk());
+            ps.setShort(2, row.dataType());
+            ps.setDouble(3, row.value());
+            ps.setTimestamp(4, new Timestamp(row.timestamp()));
+        });
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM device_latest_reading LIMIT 1").isEmpty();
+    }
+
+    @Transactional
+    public int seedFromHistory() {
+        return jdbcTemplate.update(SEED_SQL);
+    }
+
+    @Transactional(readOnly = true)
+    public void forEach(LatestConsumer consumer) {
+        jdbcTemplate.query("SELECT device_id, data_type_code, value, timestamp FROM device_latest_reading",
+                (RowCallbackHandler) rs -> {
+                    double value = rs.getDouble(3);
+                    if (!rs.wasNull()) {
+                        consumer.accept(rs.getLong(1), rs.getShort(2), value, rs.getTimestamp(4).getTime());
+                    }
+                });
+    }
+
+    public record LatestRow(long devicePk, short dataType, double value, long timestamp) {
+    }
+
+    @FunctionalInterface
+    public interface LatestConsumer {
+        void accept(long devicePk, short dataType, double value, long timestamp);
+    }
+}
@@ -9,4 +9,4 @@ import java.util.List;
 public interface DeviceRepository extends JpaRepository<Device, Long> {
     List<Device> findByRoomId(Long roomId);
     Device findByDeviceId(String deviceId);
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.exception.PayloadTooLargeException;
+import com.example.demo.exception.TooManyRequestsException;
+import com.example.demo.util.TokenBucketTable;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Допуск запросов на прием показаний. Проверки идут от дешевых к дорогим:
+ * заполненность буфера конвейера (общий сброс нагрузки), корзина клиента, корзина устройства.
+ * Отказ - TooManyRequestsException, который превращается в 429 с Retry-After.
+ * Пакет больше client-burst показаний не пройдет никогда и отклоняется сразу с 413.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdmissionControlService {
+
+    private final IngestConfig ingestConfig;
+    private final IngestPipeline ingestPipeline;
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder shed = new LongAdder();
+    private final LongAdder clientThrottled = new LongAdder();
+    private final LongAdder deviceThrottled = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+
+    private TokenBucketTable deviceBuckets;
+    private TokenBucketTable clientBuckets;
+
+    @PostConstruct
+    public void init() {
+        IngestConfig.Admission config = ingestConfig.getAdmission();
+        deviceBuckets = new TokenBucketTable(config.getSlots(), config.getDevicePerSecond(), config.getDeviceBurst());
+        clientBuckets = new TokenBucketTable(config.getSlots(), config.getClientPerSecond(), config.getClientBurst());
+        log.info("Ingest admission control {} - device: {}/s (burst {}), client: {}/s (burst {}), shed at {}% buffer fill",
+                 config.isEnabled() ? "enabled" : "disabled",
+                 config.getDevicePerSecond(), config.getDeviceBurst(),
+                 config.getClientPerSecond(), config.getClientBurst(), config.getShedBufferFill() * 100);
+    }
+
+    /**
+     * Проверяет запрос с readings показаниями. deviceId может быть null (пакет от нескольких устройств) -
+     * тогда проверяется только клиент.
+     */
+    public void admit(String deviceId, String clientKey, int readings) {
+        IngestConfig.Admission config = ingestConfig.getAdmission();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        if (readings > clientBuckets.getBurst()) {
+            oversized.increment();
+            throw new PayloadTooLargeException("Batch of " + readings + " readings exceeds the limit of "
+                    + clientBuckets.getBurst() + " per request");
+        }
+
+        if (ingestPipeline.isRunning() && ingestPipeline.bufferFill() >= config.getShedBufferFill()) {
+            shed.increment();
+            throw new TooManyRequestsException("Server is overloaded, retry later", config.getShedRetryAfterSeconds());
+        }
+
+        long now = System.nanoTime();
+        long wait = clientBuckets.tryAcquire(clientKey, readings, now);
+        if (wait > 0) {
+            clientThrottled.increment();
+            throw new TooManyRequestsException("Rate limit exceeded for client", retryAfterSeconds(wait));
+        }
+
+        if (deviceId != null) {
+            wait = deviceBuckets.tryAcquire(deviceId, 1, now);
+            if (wait > 0) {
+                deviceThrottled.increment();
+                log.debug("Device {} throttled for {} ms", deviceId, TimeUnit.NANOSECONDS.toMillis(wait));
+                throw new TooManyRequestsException("Rate limit exceeded for device " + deviceId, retryAfterSeconds(wait));
+            }
+        }
+
+        admitted.increment();
+    }
+
+    private long retryAfterSeconds(long waitNanos) {
+        // Retry-After в целых секундах, округляем вверх
+        return Math.max(1, (waitNanos + 999_999_999L) / 1_000_000_000L);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getAdmission().isEnabled());
+        stats.put("admitted", admitted.sum());
+        stats.put("shed", shed.sum());
+        stats.put("clientThrottled", clientThrottled.sum());
+        stats.put("deviceThrottled", deviceThrottled.sum());
+        stats.put("oversized", oversized.sum());
+        stats.put("bufferFill", ingestPipeline.bufferFill());
+        return stats;
+    }
+}
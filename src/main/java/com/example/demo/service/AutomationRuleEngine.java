@@ -0,0 +1,508 @@
+package com.example.demo.service;
+
+import com.example.demo.model.AutomationRule;
+import com.example.demo.model.Device;
+import com.example.demo.model.ModeSettings;
+import com.example.demo.repository.ModeSettingsRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.DoubleStream;
+
+/**
+ * Декларативные правила автоматизации из ModeSettings.schedule текущего режима.
+ * При загрузке правила компилируются в сеть на каждый режим: индекс от устройства, типа и типа с комнатой
+ * к зависящим от них правилам. Внутри индекса пороги above / below отсортированы, а правила с обоими порогами
+ * лежат в дереве интервалов. Показание проверяет только правила текущего режима и своего устройства,
+ * подходящие пороги находятся за O(log n + сработавших), сколько бы правил ни было задано.
+ * Вместе с правилами кэшируются настройки текущего режима: прием показаний не ходит за ними в БД,
+ * а после каждого сохранения настроек вызывается reload(). Режимы без правил AutomationService
+ * обрабатывает встроенной логикой.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AutomationRuleEngine {
+
+    // Текущий режим - первая строка, как и в AutomationService
+    private static final long CURRENT_MODE_ID = 1L;
+    private static final Set<String> DEFAULT_MODES = Set.of("auto");
+
+    private final ModeSettingsRepository modeSettingsRepository;
+    private final ObjectMapper objectMapper;
+
+    // Настройки режима и правила публикуются вместе, одной ссылкой
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder firedRules = new LongAdder();
+    private volatile long compileMillis;
+
+    /**
+     * Перечитывает текущий режим и компилирует его правила. Перезагрузки выполняются по очереди:
+     * каждая читает настройки не раньше предыдущей, и последней публикуется самая свежая версия.
+     */
+    @PostConstruct
+    public synchronized void reload() {
+        ModeSettings mode = modeSettingsRepository.findById(CURRENT_MODE_ID).orElse(null);
+        long version = snapshot.version() + 1;
+        long started = System.nanoTime();
+        RuleSet ruleSet;
+        try {
+            ruleSet = compile(mode != null ? mode.getSchedule() : null);
+        } catch (RuntimeException e) {
+            log.error("Automation rules are invalid, using built-in automation: {}", e.getMessage());
+            snapshot = new Snapshot(mode, RuleSet.EMPTY, version);
+            return;
+        }
+        compileMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        snapshot = new Snapshot(mode, ruleSet, version);
+        if (ruleSet.ruleCount() > 0) {
+            log.info("Compiled {} automation rules for {} modes in {} ms",
+                    ruleSet.ruleCount(), ruleSet.byMode().size(), compileMillis);
+        }
+    }
+
+    /**
+     * Проверяет правила до сохранения настроек режима; RuntimeException с описанием ошибки.
+     */
+    public void validate(String schedule) {
+        compile(schedule);
+    }
+
+    /**
+     * Настройки текущего режима на момент последней перезагрузки; null, если режим не задан.
+     */
+    public ModeSettings currentMode() {
+        return snapshot.mode();
+    }
+
+    public boolean hasRules(String modeName) {
+        return modeName != null && snapshot.rules().byMode().containsKey(modeName);
+    }
+
+    /**
+     * Действия сработавших на показание правил в порядке их объявления.
+     */
+    public List<AutomationRule.Action> evaluate(Device device, Double value, String modeName, LocalTime now) {
+        RuleNetwork network = snapshot.rules().byMode().get(modeName);
+        if (network == null) {
+            return List.of();
+        }
+        evaluations.increment();
+        List<CompiledRule> matched = new ArrayList<>();
+        network.match(device, value, now, matched);
+        if (matched.isEmpty()) {
+            return List.of();
+        }
+        if (matched.size() > 1) {
+            matched.sort(Comparator.comparingInt(CompiledRule::order));
+        }
+        firedRules.add(matched.size());
+
+        List<AutomationRule.Action> actions = new ArrayList<>();
+        for (CompiledRule rule : matched) {
+            log.debug("Automation rule '{}' fired by {}: {}", rule.name(), device.getDeviceId(), value);
+            actions.addAll(rule.actions());
+        }
+        return actions;
+    }
+
+    public Map<String, Object> getStats() {
+        Snapshot current = snapshot;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("version", current.version());
+        stats.put("rules", current.rules().ruleCount());
+        stats.put("modes", current.rules().byMode().keySet());
+        stats.put("compileMs", compileMillis);
+        stats.put("evaluations", evaluations.sum());
+        stats.put("fired", firedRules.sum());
+        return stats;
+    }
+
+    private RuleSet compile(String schedule) {
+        if (schedule == null || schedule.isBlank()) {
+            return RuleSet.EMPTY;
+        }
+        List<AutomationRule> rules;
+        try {
+            JsonNode rulesNode = objectMapper.readTree(schedule).get("rules");
+            if (rulesNode == null || rulesNode.isNull()) {
+                return RuleSet.EMPTY;
+            }
+            rules = objectMapper.convertValue(rulesNode, new TypeReference<List<AutomationRule>>() { });
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            throw new RuntimeException("Invalid automation rules JSON: " + e.getMessage());
+        }
+
+        Map<String, NetworkBuilder> byMode = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            AutomationRule rule = rules.get(i);
+            String label = rule.getName() != null ? rule.getName() : "#" + (i + 1);
+            CompiledRule compiled = compileRule(rule, i, label);
+            Set<String> modes = rule.getModes() == null || rule.getModes().isEmpty()
+                    ? DEFAULT_MODES : Set.copyOf(rule.getModes());
+            for (String mode : modes) {
+                byMode.computeIfAbsent(mode, key -> new NetworkBuilder()).add(rule.getTrigger(), compiled, rule.getAbove(), rule.getBelow());
+            }
+        }
+
+        Map<String, RuleNetwork> networks = new HashMap<>();
+        byMode.forEach((mode, builder) -> networks.put(mode, builder.build()));
+        return new RuleSet(networks, rules.size());
+    }
+
+    private static CompiledRule compileRule(AutomationRule rule, int order, String label) {
+        AutomationRule.Trigger trigger = rule.getTrigger();
+        if (trigger == null || (trigger.getDeviceId() == null) == (trigger.getType() == null)) {
+            throw new RuntimeException("Rule '" + label + "': trigger must set either deviceId or type");
+        }
+        if (trigger.getDeviceId() != null && trigger.getRoom() != null) {
+            throw new RuntimeException("Rule '" + label + "': trigger room applies only to a device type");
+        }
+        if (rule.getAbove() != null && rule.getBelow() != null && rule.getAbove() >= rule.getBelow()) {
+            throw new RuntimeException("Rule '" + label + "': 'above' must be less than 'below'");
+        }
+        if (rule.getActions() == null || rule.getActions().isEmpty()) {
+            throw new RuntimeException("Rule '" + label + "': no actions");
+        }
+        for (AutomationRule.Action action : rule.getActions()) {
+            if (action.getCommand() == null || action.getCommand().isBlank()) {
+                throw new RuntimeException("Rule '" + label + "': action command is required");
+            }
+            if (action.getDeviceId() == null && action.getName() == null
+                    && action.getType() == null && action.getRoom() == null) {
+                throw new RuntimeException("Rule '" + label + "': action must set deviceId, name, type or room");
+            }
+        }
+
+        LocalTime from;
+        LocalTime to;
+        try {
+            from = rule.getFrom() != null ? LocalTime.parse(rule.getFrom()) : null;
+            to = rule.getTo() != null ? LocalTime.parse(rule.getTo()) : null;
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Rule '" + label + "': invalid time " + e.getParsedString());
+        }
+        return new CompiledRule(order, label, from, to, List.copyOf(rule.getActions()));
+    }
+
+    private record Snapshot(ModeSettings mode, RuleSet rules, long version) {
+
+        static final Snapshot EMPTY = new Snapshot(null, RuleSet.EMPTY, 0);
+    }
+
+    private record RuleSet(Map<String, RuleNetwork> byMode, int ruleCount) {
+
+        static final RuleSet EMPTY = new RuleSet(Map.of(), 0);
+    }
+
+    // Правила одного режима
+    private record RuleNetwork(Map<String, RuleBucket> byDeviceId,
+                               Map<Device.DeviceType, RuleBucket> byType,
+                               Map<Device.DeviceType, Map<String, RuleBucket>> byTypeAndRoom) {
+
+        void match(Device device, Double value, LocalTime now, List<CompiledRule> out) {
+            RuleBucket bucket = byDeviceId.get(device.getDeviceId());
+            if (bucket != null) {
+                bucket.match(value, now, out);
+            }
+            if (device.getType() == null) {
+                return;
+            }
+            bucket = byType.get(device.getType());
+            if (bucket != null) {
+                bucket.match(value, now, out);
+            }
+            Map<String, RuleBucket> rooms = byTypeAndRoom.get(device.getType());
+            if (rooms != null && device.getRoom() != null) {
+                bucket = rooms.get(device.getRoom().getName());
+                if (bucket != null) {
+                    bucket.match(value, now, out);
+                }
+            }
+        }
+    }
+
+    private record CompiledRule(int order, String name, LocalTime from, LocalTime to,
+                                List<AutomationRule.Action> actions) {
+
+        boolean inWindow(LocalTime now) {
+            if (from == null && to == null) {
+                return true;
+            }
+            if (from == null) {
+                return now.isBefore(to);
+            }
+            if (to == null) {
+                return !now.isBefore(from);
+            }
+            return from.isBefore(to)
+                    ? !now.isBefore(from) && now.isBefore(to)
+                    : !now.isBefore(from) || now.isBefore(to);
+        }
+    }
+
+    // Правила одного ключа индекса: без порога, только по above, только по below (пороги по возрастанию)
+    // и с обоими порогами (дерево интервалов, null - таких нет)
+    private static final class RuleBucket {
+        private final CompiledRule[] unconditional;
+        private final double[] aboveThresholds;
+        private final CompiledRule[] aboveRules;
+        private final double[] belowThresholds;
+        private final CompiledRule[] belowRules;
+        private final IntervalNode intervals;
+
+        RuleBucket(CompiledRule[] unconditional, double[] aboveThresholds, CompiledRule[] aboveRules,
+                   double[] belowThresholds, CompiledRule[] belowRules, IntervalNode intervals) {
+            this.unconditional = unconditional;
+            this.aboveThresholds = aboveThresholds;
+            this.aboveRules = aboveRules;
+            this.belowThresholds = belowThresholds;
+            this.belowRules = belowRules;
+            this.intervals = intervals;
+        }
+
+        void match(Double value, LocalTime now, List<CompiledRule> out) {
+            for (CompiledRule rule : unconditional) {
+                if (rule.inWindow(now)) {
+                    out.add(rule);
+                }
+            }
+            if (value == null || value.isNaN()) {
+                return;
+            }
+            double current = value;
+            // Порог above ниже значения - префикс массива
+            int aboveEnd = firstNotLess(aboveThresholds, current);
+            for (int i = 0; i < aboveEnd; i++) {
+                addInWindow(aboveRules[i], now, out);
+            }
+            // Порог below выше значения - суффикс массива
+            for (int i = firstGreater(belowThresholds, current); i < belowRules.length; i++) {
+                addInWindow(belowRules[i], now, out);
+            }
+            if (intervals != null) {
+                intervals.match(current, now, out);
+            }
+        }
+
+        private static int firstNotLess(double[] sorted, double value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sorted[middle] < value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static int firstGreater(double[] sorted, double value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (sorted[middle] <= value) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static void addInWindow(CompiledRule rule, LocalTime now, List<CompiledRule> out) {
+        if (rule.inWindow(now)) {
+            out.add(rule);
+        }
+    }
+
+    /**
+     * Узел дерева интервалов для правил above < значение < below. В узле - интервалы, строго содержащие
+     * center, отсортированные по above и по убыванию below; слева - целиком не выше center, справа - не ниже.
+     * Значение левее center проверяет в узле только префикс по above, правее - префикс по below,
+     * и спускается в одно поддерево: O(log n + сработавших).
+     */
+    private static final class IntervalNode {
+        private final double center;
+        private final Interval[] byAbove;
+        private final Interval[] byBelowDescending;
+        private final IntervalNode left;
+        private final IntervalNode right;
+
+        private IntervalNode(double center, Interval[] byAbove, Interval[] byBelowDescending,
+                             IntervalNode left, IntervalNode right) {
+            this.center = center;
+            this.byAbove = byAbove;
+            this.byBelowDescending = byBelowDescending;
+            this.left = left;
+            this.right = right;
+        }
+
+        static IntervalNode build(List<Interval> intervals) {
+            if (intervals.isEmpty()) {
+                return null;
+            }
+            double[] ends = intervals.stream()
+                    .flatMapToDouble(interval -> DoubleStream.of(interval.above(), interval.below()))
+                    .sorted().distinct().toArray();
+            if (ends.length == 2) {
+                // Все интервалы одинаковые: узел без поддеревьев, центр - правая граница (в интервал не входит)
+                return leaf(ends[1], intervals);
+            }
+            // Центр - внутренняя граница: в каждом поддереве различных границ меньше, глубина O(log n)
+            double center = ends[ends.length / 2];
+            List<Interval> lower = new ArrayList<>();
+            List<Interval> upper = new ArrayList<>();
+            List<Interval> spanning = new ArrayList<>();
+            for (Interval interval : intervals) {
+                if (interval.below() <= center) {
+                    lower.add(interval);
+                } else if (interval.above() >= center) {
+                    upper.add(interval);
+                } else {
+                    spanning.add(interval);
+                }
+            }
+            IntervalNode node = leaf(center, spanning);
+            return new IntervalNode(center, node.byAbove, node.byBelowDescending, build(lower), build(upper));
+        }
+
+        private static IntervalNode leaf(double center, List<Interval> intervals) {
+            Interval[] byAbove = intervals.toArray(new Interval[0]);
+            Arrays.sort(byAbove, Comparator.comparingDouble(Interval::above));
+            Interval[] byBelow = intervals.toArray(new Interval[0]);
+            Arrays.sort(byBelow, Comparator.comparingDouble(Interval::below).reversed());
+            return new IntervalNode(center, byAbove, byBelow, null, null);
+        }
+
+        void match(double value, LocalTime now, List<CompiledRule> out) {
+            IntervalNode node = this;
+            while (node != null) {
+                if (value < node.center) {
+                    // below всех интервалов узла не ниже center, значит выше значения
+                    for (Interval interval : node.byAbove) {
+                        if (interval.above() >= value) {
+                            break;
+                        }
+                        if (interval.below() > value) {
+                            addInWindow(interval.rule(), now, out);
+                        }
+                    }
+                    node = node.left;
+                } else {
+                    // above всех интервалов узла ниже center, значит не выше значения
+                    for (Interval interval : node.byBelowDescending) {
+                        if (interval.below() <= value) {
+                            break;
+                        }
+                        if (interval.above() < value) {
+                            addInWindow(interval.rule(), now, out);
+                        }
+                    }
+                    node = node.right;
+                }
+            }
+        }
+    }
+
+    private static final class NetworkBuilder {
+        private final Map<String, BucketBuilder> byDeviceId = new HashMap<>();
+        private final Map<Device.DeviceType, BucketBuilder> byType = new EnumMap<>(Device.DeviceType.class);
+        private final Map<Device.DeviceType, Map<String, BucketBuilder>> byTypeAndRoom =
+                new EnumMap<>(Device.DeviceType.class);
+
+        void add(AutomationRule.Trigger trigger, CompiledRule rule, Double above, Double below) {
+            BucketBuilder bucket;
+            if (trigger.getDeviceId() != null) {
+                bucket = byDeviceId.computeIfAbsent(trigger.getDeviceId(), key -> new BucketBuilder());
+            } else if (trigger.getRoom() != null) {
+                bucket = byTypeAndRoom.computeIfAbsent(trigger.getType(), key -> new HashMap<>())
+                        .computeIfAbsent(trigger.getRoom(), key -> new BucketBuilder());
+            } else {
+                bucket = byType.computeIfAbsent(trigger.getType(), key -> new BucketBuilder());
+            }
+            bucket.add(rule, above, below);
+        }
+
+        RuleNetwork build() {
+            Map<String, RuleBucket> deviceBuckets = new HashMap<>();
+            byDeviceId.forEach((deviceId, builder) -> deviceBuckets.put(deviceId, builder.build()));
+            Map<Device.DeviceType, RuleBucket> typeBuckets = new EnumMap<>(Device.DeviceType.class);
+            byType.forEach((type, builder) -> typeBuckets.put(type, builder.build()));
+            Map<Device.DeviceType, Map<String, RuleBucket>> roomBuckets = new EnumMap<>(Device.DeviceType.class);
+            byTypeAndRoom.forEach((type, rooms) -> {
+                Map<String, RuleBucket> buckets = new HashMap<>();
+                rooms.forEach((room, builder) -> buckets.put(room, builder.build()));
+                roomBuckets.put(type, buckets);
+            });
+            return new RuleNetwork(deviceBuckets, typeBuckets, roomBuckets);
+        }
+    }
+
+    private static final class BucketBuilder {
+        private final List<CompiledRule> unconditional = new ArrayList<>();
+        private final List<Threshold> above = new ArrayList<>();
+        private final List<Threshold> below = new ArrayList<>();
+        private final List<Interval> between = new ArrayList<>();
+
+        void add(CompiledRule rule, Double aboveThreshold, Double belowThreshold) {
+            if (aboveThreshold != null && belowThreshold != null) {
+                between.add(new Interval(aboveThreshold, belowThreshold, rule));
+            } else if (aboveThreshold != null) {
+                above.add(new Threshold(aboveThreshold, rule));
+            } else if (belowThreshold != null) {
+                below.add(new Threshold(belowThreshold, rule));
+            } else {
+                unconditional.add(rule);
+            }
+        }
+
+        RuleBucket build() {
+            Threshold[] aboveSorted = sorted(above);
+            Threshold[] belowSorted = sorted(below);
+            return new RuleBucket(unconditional.toArray(new CompiledRule[0]),
+                    Arrays.stream(aboveSorted).mapToDouble(Threshold::value).toArray(),
+                    Arrays.stream(aboveSorted).map(Threshold::rule).toArray(CompiledRule[]::new),
+                    Arrays.stream(belowSorted).mapToDouble(Threshold::value).toArray(),
+                    Arrays.stream(belowSorted).map(Threshold::rule).toArray(CompiledRule[]::new),
+                    IntervalNode.build(between));
+        }
+
+        private static Threshold[] sorted(List<Threshold> thresholds) {
+            Threshold[] array = thresholds.toArray(new Threshold[0]);
+            Arrays.sort(array, Comparator.comparingDouble(Threshold::value));
+            return array;
+        }
+    }
+
+    private record Threshold(double value, CompiledRule rule) {
+    }
+
+    private record Interval(double above, double below, CompiledRule rule) {
+    }
+}
@@ -1,16 +1,14 @@
 package com.example.demo.service;
 
+import com.example.demo.model.AutomationRule;
 import com.example.demo.model.Device;
 import com.example.demo.model.ModeSettings;
-import com.example.demo.repository.DeviceRepository;
-import com.example.demo.repository.ModeSettingsRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.util.List;
-import java.util.stream.Collectors;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
@@ -18,12 +16,21 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class AutomationService {
     
-    private final DeviceRepository deviceRepository;
-    private final ModeSettingsRepository modeSettingsRepository;
+    private final DeviceStateWriteBehind deviceStateWriteBehind;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceCommandDispatcher deviceCommandDispatcher;
+    private final AutomationRuleEngine automationRuleEngine;
+    private final DeviceShardExecutor deviceShardExecutor;
     
     public void processAutomation(Device triggeredDevice, Double value) {
         log.info("Automation triggered by {}: {}", triggeredDevice.getName(), value);
-        ModeSettings currentMode = modeSettingsRepository.findById(1L).orElse(null);
+        // Настройки режима кэшируются движком правил и обновляются при их сохранении
+        ModeSettings currentMode = automationRuleEngine.currentMode();
+        // Правила текущего режима, если для него заданы; иначе встроенная логика ниже
+        if (currentMode != null && automationRuleEngine.hasRules(currentMode.getModeName())) {
+            applyRules(triggeredDevice, value, currentMode.getModeName());
+            return;
+        }
         if (currentMode == null || !"auto".equals(currentMode.getModeName())) {
             log.debug("Automation skipped - mode not auto or not found");
             return;
@@ -169,30 +176,48 @@ public class AutomationService {
         sendCommandToDevices(acDevices, "ECO", 0.3);
     }
     
-    // Вспомогательные методы
+    private void applyRules(Device triggeredDevice, Double value, String modeName) {
+        List<AutomationRule.Action> actions =
+                automationRuleEngine.evaluate(triggeredDevice, value, modeName, LocalTime.now());
+        for (AutomationRule.Action action : actions) {
+            sendCommandToDevices(resolveTargets(action), action.getCommand(), action.getValue());
+        }
+    }
+    
+    private List<Device> resolveTargets(AutomationRule.Action action) {
+        if (action.getDeviceId() != null) {
+            Device device = deviceRegistry.findByDeviceId(action.getDeviceId());
+            return device != null ? List.of(device) : List.of();
+        }
+        if (action.getName() != null) {
+            return deviceRegistry.findByName(action.getName());
+        }
+        if (action.getType() == null) {
+            return getDevicesByRoom(action.getRoom());
+        }
+        List<Device> devices = getDevicesByType(action.getType());
+        if (action.getRoom() != null) {
+            devices.removeIf(device -> device.getRoom() == null || !action.getRoom().equals(device.getRoom().getName()));
+        }
+        return devices;
+    }
+    
+    // Вспомогательные методы: выборки из индексов реестра устройств, без обращения к БД
     private List<Device> getDevicesByType(Device.DeviceType type) {
-        return deviceRepository.findAll().stream()
-                .filter(d -> d.getType() == type)
-                .collect(Collectors.toList());
+        return deviceRegistry.findByType(type);
     }
     
     private List<Device> getDevicesByName(String name) {
-        return deviceRepository.findAll().stream()
-                .filter(d -> d.getName().toLowerCase().contains(name.toLowerCase()))
-                .collect(Collectors.toList());
+        return deviceRegistry.findByNameContaining(name);
     }
     
     private List<Device> getDevicesByRoom(String roomName) {
-        return deviceRepository.findAll().stream()
-                .filter(d -> d.getRoom() != null && roomName.equals(d.getRoom().getName()))
-                .collect(Collectors.toList());
+        return deviceRegistry.findByRoomName(roomName);
     }
     
     private Device getDeviceByName(String name) {
-        return deviceRepository.findAll().stream()
-                .filter(d -> name.equals(d.getName()))
-                .findFirst()
-                .orElse(null);
+        List<Device> devices = deviceRegistry.findByName(name);
+        return devices.isEmpty() ? null : devices.get(0);
     }
     
     private void sendCommandToDevices(List<Device> devices, String command, Double value) {
@@ -204,11 +229,17 @@ public class AutomationService {
                  LocalDateTime.now(), deviceId, command, value);
         // System.out.println("🚀 [" + LocalDateTime.now() + "] Command to " + deviceId + ": " + command + " value: " + value);
         
-        Device device = deviceRepository.findByDeviceId(deviceId);
+        Device device = deviceRegistry.findByDeviceId(deviceId);
         if (device != null) {
-            device.setLastValue(value);
-            deviceRepository.save(device);
-            log.debug("Device {} state updated to value: {}", deviceId, value);
+            if (!deviceCommandDispatcher.dispatch(deviceId, command, value)) {
+                log.debug("Command to {} not delivered - device is not connected", deviceId);
+            }
+            // Сущность устройства меняет только поток-владелец его шарда
+            deviceShardExecutor.execute(deviceId, () -> {
+                device.setLastValue(value);
+                deviceStateWriteBehind.markDirty(device);
+                log.debug("Device {} state updated to value: {}", deviceId, value);
+            });
         } else {
             log.warn("Device not found for command: {}", deviceId);
         }
@@ -0,0 +1,246 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.ReadingBatch;
+import com.example.demo.util.BinaryFrameDecoder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NIO-приемник бинарной телеметрии (формат кадра описан в BinaryFrameDecoder).
+ * Один поток-селектор обслуживает TCP-соединения и UDP-датаграммы; кадры декодируются прямо
+ * из direct-буферов и отправляются в тот же асинхронный конвейер, что и REST-запросы.
+ * Подтверждений протокол не предусматривает: если буфер шарда полон, показание отбрасывается
+ * и учитывается в статистике.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BinaryTelemetryListener implements SmartLifecycle {
+
+    private static final int TCP_BUFFER_SIZE = 2 * (BinaryFrameDecoder.MAX_FRAME_LENGTH + 2);
+    private static final int UDP_BUFFER_SIZE = 65536;
+
+    private final IngestPipeline ingestPipeline;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final IngestConfig ingestConfig;
+
+    private Selector selector;
+    private Thread selectorThread;
+    private volatile boolean running;
+
+    // Код протокола -> код словаря; типы регистрируются при старте, чтобы поток-селектор не ходил в БД
+    private short[] dataTypeCodes;
+    private ByteBuffer udpBuffer;
+    private BinaryFrameDecoder udpDecoder;
+    private final BinaryFrameDecoder.ReadingSink sink = this::accept;
+
+    private final LongAdder openConnections = new LongAdder();
+    private final LongAdder readings = new LongAdder();
+    private final LongAdder rejectedReadings = new LongAdder();
+    private final LongAdder malformedFrames = new LongAdder();
+    private final LongAdder invalidTimestamps = new LongAdder();
+
+    @Override
+    public void start() {
+        IngestConfig.Binary config = ingestConfig.getBinary();
+        if (!config.isEnabled()) {
+            return;
+        }
+        if (!ingestPipeline.isRunning()) {
+            log.warn("Binary telemetry listener requires the async ingest pipeline, not starting");
+            return;
+        }
+
+        dataTypeCodes = new short[BinaryFrameDecoder.DATA_TYPES.size()];
+        for (int i = 0; i < dataTypeCodes.length; i++) {
+            dataTypeCodes[i] = dataTypeDictionary.encode(BinaryFrameDecoder.DATA_TYPES.get(i));
+        }
+
+        try {
+            selector = Selector.open();
+            if (config.getTcpPort() > 0) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(config.getTcpPort()));
+                server.configureBlocking(false);
+                server.register(selector, SelectionKey.OP_ACCEPT);
+            }
+            if (config.getUdpPort() > 0) {
+                DatagramChannel datagram = DatagramChannel.open();
+                datagram.bind(new InetSocketAddress(config.getUdpPort()));
+                datagram.configureBlocking(false);
+                datagram.register(selector, SelectionKey.OP_READ);
+                udpBuffer = ByteBuffer.allocateDirect(UDP_BUFFER_SIZE);
+                udpDecoder = new BinaryFrameDecoder();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open binary telemetry listener: " + e.getMessage(), e);
+        }
+
+        running = true;
+        selectorThread = new Thread(this::selectLoop, "binary-telemetry");
+        selectorThread.start();
+        log.info("Binary telemetry listener started - tcp: {}, udp: {}", config.getTcpPort(), config.getUdpPort());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Binary telemetry listener stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Запускаемся после конвейера и останавливаемся раньше него
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 3072;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running);
+        stats.put("openConnections", openConnections.sum());
+        stats.put("readings", readings.sum());
+        stats.put("rejected", rejectedReadings.sum());
+        stats.put("malformedFrames", malformedFrames.sum());
+        stats.put("invalidTimestamps", invalidTimestamps.sum());
+        return stats;
+    }
+
+    private void selectLoop() {
+        while (running) {
+            try {
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        acceptConnection((ServerSocketChannel) key.channel());
+                    } else if (key.channel() instanceof DatagramChannel) {
+                        readDatagrams((DatagramChannel) key.channel());
+                    } else if (key.isReadable()) {
+                        readConnection(key);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Binary telemetry listener error: {}", e.getMessage());
+            }
+        }
+
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            log.warn("Failed to close binary telemetry channels: {}", e.getMessage());
+        }
+    }
+
+    private void acceptConnection(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.register(selector, SelectionKey.OP_READ, new Connection());
+        openConnections.increment();
+    }
+
+    private void readConnection(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (channel.read(connection.buffer) < 0) {
+                close(key);
+                return;
+            }
+            connection.buffer.flip();
+            int decoded = connection.decoder.decode(connection.buffer, sink);
+            if (decoded < 0) {
+                malformedFrames.increment();
+                log.warn("Malformed binary frame from {}, closing connection", channel.getRemoteAddress());
+                close(key);
+                return;
+            }
+            connection.buffer.compact();
+        } catch (IOException e) {
+            close(key);
+        }
+    }
+
+    private void readDatagrams(DatagramChannel channel) throws IOException {
+        while (true) {
+            udpBuffer.clear();
+            if (channel.receive(udpBuffer) == null) {
+                return;
+            }
+            udpBuffer.flip();
+            // Датаграмма должна содержать только целые кадры
+            if (udpDecoder.decode(udpBuffer, sink) < 0 || udpBuffer.hasRemaining()) {
+                malformedFrames.increment();
+            }
+        }
+    }
+
+    private boolean accept(String deviceId, double value, int dataType, long timestamp) {
+        readings.increment();
+        if (!ReadingBatch.isValidTimestamp(timestamp, System.currentTimeMillis())) {
+            invalidTimestamps.increment();
+            rejectedReadings.increment();
+            return false;
+        }
+        if (!ingestPipeline.trySubmit(deviceId, value, dataTypeCodes[dataType], timestamp, ReadingBatch.NO_SEQUENCE)) {
+            rejectedReadings.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Failed to close connection: {}", e.getMessage());
+        }
+        openConnections.decrement();
+    }
+
+    private static final class Connection {
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(TCP_BUFFER_SIZE);
+        private final BinaryFrameDecoder decoder = new BinaryFrameDecoder();
+    }
+}
@@ -27,6 +27,7 @@ public class CsvService {
     
     private final DeviceRepository deviceRepository;
     private final RoomRepository roomRepository;
+    private final DeviceRegistry deviceRegistry;
     
     public CsvImportResponse importDevicesFromCsv(MultipartFile file) {
         List<String> errors = new ArrayList<>();
@@ -111,7 +112,7 @@ public class CsvService {
         }
         
         // Проверяем, нет ли уже устройства с таким ID
-        if (deviceRepository.findByDeviceId(dto.getDeviceId()) != null) {
+        if (deviceRegistry.findByDeviceId(dto.getDeviceId().trim()) != null) {
             throw new IllegalArgumentException("Устройство с таким ID уже существует");
         }
         
@@ -142,7 +143,7 @@ public class CsvService {
         
         device.setLastValue(dto.getInitialValue());
         
-        deviceRepository.save(device);
+        deviceRegistry.register(deviceRepository.save(device));
         log.info("Импортировано устройство: {}", device.getName());
     }
     
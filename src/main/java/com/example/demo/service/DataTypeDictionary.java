@@ -0,0 +1,242 @@
+package com.example.demo.service;
+
+import com.example.demo.repository.DataTypeJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Словарь dataType: имя типа показания -> двухбайтовый код. Типов единицы, а показаний миллионы,
+ * поэтому в device_data, журнале приема и буферах хранится код, а строка - один раз в таблице data_type.
+ * Кодирование - на границе приема (HTTP, WebSocket, NDJSON, бинарный протокол), декодирование -
+ * при выдаче наружу. Код 0 - показание без dataType. Новые имена регистрируются в БД, коды не меняются.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DataTypeDictionary {
+
+    public static final short NONE = 0;
+
+    // Защита от мусора в dataType: сверх лимита показания сохраняются без типа
+    static final int MAX_TYPES = 1024;
+    private static final int MAX_NAME_LENGTH = 255;
+    private static final int REGISTER_ATTEMPTS = 3;
+    // Неизвестный код перечитывает словарь из БД не чаще раза в этот интервал
+    private static final long RELOAD_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Строк device_data (по диапазону id) в одной транзакции перевода на коды
+    private static final long MIGRATION_CHUNK_IDS = 100_000;
+    // Порция повторяется, если ее имя перехватила регистрация нового типа с тем же кодом
+    private static final int MIGRATION_ATTEMPTS = 3;
+
+    private final DataTypeJdbcRepository dataTypeJdbcRepository;
+
+    private final Map<String, Short> codes = new ConcurrentHashMap<>();
+    // Индекс - код; массив заменяется целиком при регистрации
+    private volatile String[] names = new String[1];
+    private long lastReload = System.nanoTime() - RELOAD_INTERVAL_NANOS;
+
+    // Открывается, когда у всех строк device_data есть data_type_code
+    private final CountDownLatch deviceDataEncoded = new CountDownLatch(1);
+    private Thread migrationThread;
+    private volatile boolean stopped;
+    private volatile long migrationRemaining;
+
+    private final LongAdder registered = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder unknownCodes = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        if (dataTypeJdbcRepository.columnExists("device_data", "data_type")) {
+            dataTypeJdbcRepository.startDeviceDataMigration();
+            log.info("device_data keyed by data_type name, rows are encoded in the background");
+        }
+        DataTypeJdbcRepository.MigrationProgress progress = dataTypeJdbcRepository.findMigrationProgress();
+        if (progress != null) {
+            migrationRemaining = progress.migrateUntil() - progress.migratedTo();
+            migrationThread = new Thread(() -> migrateDeviceData(progress), "data-type-migration");
+            migrationThread.setDaemon(true);
+            migrationThread.start();
+        } else {
+            deviceDataEncoded.countDown();
+        }
+        if (dataTypeJdbcRepository.columnExists("device_latest_reading", "data_type")) {
+            dataTypeJdbcRepository.resetLatestReadings();
+            log.info("Cleared device_latest_reading keyed by data_type name, it will be reseeded from history");
+        }
+        reload();
+        log.info("Loaded {} data types", codes.size());
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (migrationThread != null) {
+            try {
+                migrationThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Перевод строк device_data, записанных до появления словаря, со строковой колонки на коды.
+     * Каждая порция вместе со сдвигом прогресса - одна транзакция: остановка и перезапуск продолжают
+     * с места остановки. Пока перевод не закончен, старые строки читаются без типа.
+     */
+    private void migrateDeviceData(DataTypeJdbcRepository.MigrationProgress progress) {
+        long done = progress.migratedTo();
+        long until = progress.migrateUntil();
+        long started = System.nanoTime();
+        int rows = 0;
+        int failures = 0;
+        try {
+            while (done < until && !stopped) {
+                migrationRemaining = until - done;
+                long upto = Math.min(until, done + MIGRATION_CHUNK_IDS);
+                try {
+                    rows += dataTypeJdbcRepository.migrateChunk(done, upto);
+                } catch (DataIntegrityViolationException e) {
+                    if (++failures >= MIGRATION_ATTEMPTS) {
+                        throw e;
+                    }
+                    continue;
+                }
+                failures = 0;
+                done = upto;
+            }
+            if (done >= until) {
+                dataTypeJdbcRepository.finishDeviceDataMigration();
+                migrationRemaining = 0;
+                deviceDataEncoded.countDown();
+                log.info("Encoded data_type of {} device_data rows in {} ms", rows,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } else {
+                log.info("data_type encoding paused at id {} of {}, it resumes on next start", done, until);
+            }
+        } catch (RuntimeException e) {
+            log.error("data_type encoding failed at id {}, it resumes on next start: {}", done, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Ждет, пока у всех строк device_data появится data_type_code; false, если не дождались за timeout.
+     */
+    public boolean awaitDeviceDataEncoded(long timeout, TimeUnit unit) throws InterruptedException {
+        return deviceDataEncoded.await(timeout, unit);
+    }
+
+    /**
+     * Код типа; неизвестное имя регистрируется. null и пустая строка - NONE.
+     */
+    public short encode(String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        Short code = codes.get(name);
+        return code != null ? code : register(name);
+    }
+
+    /**
+     * Код уже известного типа без регистрации; -1, если такого типа нет.
+     */
+    public short find(String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        Short code = codes.get(name);
+        return code != null ? code : -1;
+    }
+
+    /**
+     * Имя типа; null для NONE. Код, записанный другим экземпляром приложения, подгружается из БД;
+     * неизвестный и после этого код дает null без повторных запросов, пока не пройдет RELOAD_INTERVAL.
+     */
+    public String decode(short code) {
+        if (code == NONE) {
+            return null;
+        }
+        String[] current = names;
+        if (code > 0 && code < current.length && current[code] != null) {
+            return current[code];
+        }
+        synchronized (this) {
+            current = names;
+            if (code <= 0 || code >= current.length || current[code] == null) {
+                long now = System.nanoTime();
+                if (now - lastReload < RELOAD_INTERVAL_NANOS) {
+                    unknownCodes.increment();
+                    return null;
+                }
+                lastReload = now;
+                reload();
+                current = names;
+            }
+            return code > 0 && code < current.length ? current[code] : null;
+        }
+    }
+
+    private synchronized short register(String name) {
+        Short code = codes.get(name);
+        if (code != null) {
+            return code;
+        }
+        if (codes.size() >= MAX_TYPES || name.length() > MAX_NAME_LENGTH) {
+            overflowed.increment();
+            if (overflowed.sum() == 1) {
+                log.warn("Data type '{}' is not registered (limit {} types, {} chars), storing readings without it",
+                        name, MAX_TYPES, MAX_NAME_LENGTH);
+            }
+            return NONE;
+        }
+        for (int attempt = 0; attempt < REGISTER_ATTEMPTS; attempt++) {
+            code = dataTypeJdbcRepository.findOrInsert(name);
+            if (code != null) {
+                put(code, name);
+                registered.increment();
+                log.info("Registered data type '{}' with code {}", name, code);
+                return code;
+            }
+        }
+        throw new RuntimeException("Failed to register data type: " + name);
+    }
+
+    private synchronized void reload() {
+        dataTypeJdbcRepository.forEach(this::put);
+    }
+
+    private void put(short code, String name) {
+        String[] current = names;
+        if (code >= current.length) {
+            current = Arrays.copyOf(current, Math.max(code + 1, current.length * 2));
+        } else {
+            current = current.clone();
+        }
+        current[code] = name;
+        names = current;
+        codes.put(name, code);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("types", codes.size());
+        stats.put("registered", registered.sum());
+        stats.put("overflowed", overflowed.sum());
+        stats.put("unknownCodes", unknownCodes.sum());
+        stats.put("migrationRemaining", migrationRemaining);
+        return stats;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.DeviceCommand;
+import com.example.demo.dto.ReadingRejection;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Доставка команд устройствам через их постоянные WebSocket-соединения.
+ * Команды копятся в ограниченной очереди соединения и раз в flush-interval-ms уходят одним
+ * сообщением-массивом. Медленное соединение, у которого переполнился буфер отправки, закрывается,
+ * а переполнение очереди команд отбрасывает новые команды.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceCommandDispatcher {
+
+    private final IngestConfig ingestConfig;
+    private final ObjectMapper objectMapper;
+
+    private final Map<String, DeviceChannel> channels = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flushExecutor;
+
+    private final LongAdder queuedCommands = new LongAdder();
+    private final LongAdder sentCommands = new LongAdder();
+    private final LongAdder droppedCommands = new LongAdder();
+    private final LongAdder undeliverableCommands = new LongAdder();
+    private final LongAdder rejectedReadings = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        long interval = ingestConfig.getWebSocket().getFlushIntervalMs();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "device-command-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flushExecutor.shutdown();
+        flush();
+    }
+
+    /**
+     * Привязывает соединение к устройству. Предыдущее соединение устройства закрывается.
+     */
+    public void register(String deviceId, WebSocketSession session) {
+        IngestConfig.WebSocket config = ingestConfig.getWebSocket();
+        WebSocketSession decorated = new ConcurrentWebSocketSessionDecorator(
+                session, config.getSendTimeLimitMs(), config.getSendBufferSizeLimit());
+        DeviceChannel previous = channels.put(deviceId, new DeviceChannel(decorated));
+        if (previous != null) {
+            closeQuietly(previous.session, CloseStatus.NORMAL.withReason("Replaced by a new connection"));
+        }
+        log.info("Device {} connected over WebSocket", deviceId);
+    }
+
+    public void unregister(String deviceId, WebSocketSession session) {
+        DeviceChannel channel = channels.get(deviceId);
+        if (channel != null && channel.session.getId().equals(session.getId())) {
+            channels.remove(deviceId, channel);
+            log.info("Device {} disconnected", deviceId);
+        }
+    }
+
+    public boolean isConnected(String deviceId) {
+        return channels.containsKey(deviceId);
+    }
+
+    /**
+     * Ставит команду в очередь соединения устройства.
+     * Возвращает false, если устройство не подключено или его очередь переполнена.
+     */
+    public boolean dispatch(String deviceId, String command, Double value) {
+        DeviceChannel channel = channels.get(deviceId);
+        if (channel == null) {
+            undeliverableCommands.increment();
+            return false;
+        }
+        if (channel.pendingCount.incrementAndGet() > ingestConfig.getWebSocket().getMaxQueuedCommands()) {
+            channel.pendingCount.decrementAndGet();
+            droppedCommands.increment();
+            log.warn("Command queue of device {} is full, dropping {}", deviceId, command);
+            return false;
+        }
+        channel.pending.offer(new DeviceCommand(deviceId, command, value, System.currentTimeMillis()));
+        queuedCommands.increment();
+        return true;
+    }
+
+    /**
+     * Сразу отправляет устройству отказы в приеме показаний (кадр-объект {"rejected": [...]},
+     * команды же уходят массивами). Отправка идет через то же соединение, что и команды.
+     */
+    public void reject(String deviceId, WebSocketSession session, List<ReadingRejection> rejections) {
+        DeviceChannel channel = channels.get(deviceId);
+        if (channel == null || !channel.session.getId().equals(session.getId())) {
+            return;
+        }
+        try {
+            channel.session.sendMessage(new TextMessage(objectMapper.writeValueAsString(Map.of("rejected", rejections))));
+            rejectedReadings.add(rejections.size());
+        } catch (Exception e) {
+            log.warn("Failed to send {} rejections to device {}: {}", rejections.size(), deviceId, e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("connectedDevices", channels.size());
+        stats.put("queued", queuedCommands.sum());
+        stats.put("sent", sentCommands.sum());
+        stats.put("dropped", droppedCommands.sum());
+        stats.put("undeliverable", undeliverableCommands.sum());
+        stats.put("rejectedReadings", rejectedReadings.sum());
+        return stats;
+    }
+
+    private void flush() {
+        for (Map.Entry<String, DeviceChannel> entry : channels.entrySet()) {
+            DeviceChannel channel = entry.getValue();
+            if (channel.pending.isEmpty()) {
+                continue;
+            }
+
+            List<DeviceCommand> commands = new ArrayList<>();
+            DeviceCommand command;
+            while ((command = channel.pending.poll()) != null) {
+                channel.pendingCount.decrementAndGet();
+                commands.add(command);
+            }
+
+            try {
+                channel.session.sendMessage(new TextMessage(objectMapper.writeValueAsString(commands)));
+                sentCommands.add(commands.size());
+            } catch (Exception e) {
+                droppedCommands.add(commands.size());
+                log.warn("Failed to send {} commands to device {}: {}", commands.size(), entry.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void closeQuietly(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException e) {
+            log.debug("Failed to close WebSocket session: {}", e.getMessage());
+        }
+    }
+
+    private static final class DeviceChannel {
+        private final WebSocketSession session;
+        private final Queue<DeviceCommand> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        private DeviceChannel(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.repository.DeviceDataPartitionRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Обслуживание секций device_data: при старте переводит таблицу на секционирование,
+ * затем периодически создает секции наперед и удаляет целиком секции старше срока хранения.
+ * Удаление секции вместо DELETE не оставляет мертвых строк, VACUUM и распухание индексов
+ * касаются только текущих секций.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceDataPartitionManager implements SmartLifecycle {
+
+    private static final DateTimeFormatter NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private final DeviceDataPartitionRepository partitionRepository;
+    private final IngestConfig ingestConfig;
+
+    private ScheduledExecutorService maintenanceExecutor;
+    private volatile boolean running;
+
+    private final AtomicLong partitionsCreated = new AtomicLong();
+    private final AtomicLong partitionsDropped = new AtomicLong();
+    private volatile int partitionCount;
+    private volatile boolean partitioned;
+    private volatile LocalDateTime lastMaintenance;
+
+    @Override
+    public void start() {
+        IngestConfig.Partitioning config = ingestConfig.getPartitioning();
+        running = true;
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        try {
+            preparePartitionedTable(config);
+            maintain();
+            partitioned = true;
+        } catch (Exception e) {
+            log.error("Failed to enable device_data partitioning, keeping the plain table: {}", e.getMessage(), e);
+            return;
+        }
+
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "device-data-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenanceExecutor.scheduleWithFixedDelay(this::maintainSafely,
+                config.getMaintenanceIntervalMs(), config.getMaintenanceIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Таблица должна быть готова до того, как конвейер начнет писать показания
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 5120;
+    }
+
+    private void preparePartitionedTable(IngestConfig.Partitioning config) {
+        String kind = partitionRepository.tableKind();
+        if ("p".equals(kind)) {
+            return;
+        }
+        if (kind == null) {
+            log.info("Creating partitioned device_data table");
+            partitionRepository.createPartitionedTable();
+            return;
+        }
+
+        LocalDateTime boundary = periodStart(LocalDate.now(), config.getPeriod()).atStartOfDay();
+        log.warn("Converting device_data to a partitioned table, existing rows before {} become partition {} " +
+                 "(one full scan, the table is locked until it finishes)",
+                 boundary, DeviceDataPartitionRepository.LEGACY_PARTITION);
+        long started = System.currentTimeMillis();
+        partitionRepository.convertLegacyTable(boundary);
+        log.info("device_data converted to a partitioned table in {} ms", System.currentTimeMillis() - started);
+    }
+
+    private void maintainSafely() {
+        try {
+            maintain();
+        } catch (Exception e) {
+            log.error("device_data partition maintenance failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Создает недостающие секции от текущего периода на premake-periods вперед и удаляет устаревшие.
+     */
+    public synchronized void maintain() {
+        IngestConfig.Partitioning config = ingestConfig.getPartitioning();
+        LocalDateTime now = LocalDateTime.now();
+
+        Set<String> existing = partitionRepository.findPartitions().stream()
+                .map(DeviceDataPartitionRepository.Partition::name)
+                .collect(Collectors.toSet());
+        LocalDate from = periodStart(now.toLocalDate(), config.getPeriod());
+        for (int i = 0; i <= config.getPremakePeriods(); i++) {
+            LocalDate to = nextPeriod(from, config.getPeriod());
+            String name = partitionName(from);
+            if (!existing.contains(name)) {
+                partitionRepository.createPartition(name, from.atStartOfDay(), to.atStartOfDay());
+                partitionsCreated.incrementAndGet();
+                log.info("Created partition {} [{}, {})", name, from, to);
+            }
+            from = to;
+        }
+
+        if (config.getRetentionDays() > 0) {
+            LocalDateTime cutoff = now.minusDays(config.getRetentionDays());
+            for (DeviceDataPartitionRepository.Partition partition : partitionRepository.findPartitions()) {
+                if (partition.upperBound() != null && !partition.upperBound().isAfter(cutoff)) {
+                    partitionRepository.dropPartition(partition.name());
+                    partitionsDropped.incrementAndGet();
+                    log.info("Dropped partition {} (data before {})", partition.name(), partition.upperBound());
+                }
+            }
+            int purged = partitionRepository.purgeDefaultPartition(cutoff);
+            if (purged > 0) {
+                log.info("Purged {} expired rows from {}", purged, DeviceDataPartitionRepository.DEFAULT_PARTITION);
+            }
+        }
+
+        partitionCount = partitionRepository.findPartitions().size();
+        lastMaintenance = now;
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    /**
+     * Создает секцию периода, в который попадает time, если ее еще нет; для загрузки истории, чтобы старые
+     * показания не ложились в секцию по умолчанию. Может вызываться внутри транзакции загрузки - тогда секция
+     * видна другим после ее фиксации. Возвращает диапазон, куда строки попадут без новых секций:
+     * старую секцию (from = null), секцию периода или, для периодов старше срока хранения, сам период -
+     * такие строки остаются в секции по умолчанию и вычищаются при обслуживании.
+     */
+    public synchronized Coverage ensurePartition(LocalDateTime time) {
+        IngestConfig.Partitioning config = ingestConfig.getPartitioning();
+        List<DeviceDataPartitionRepository.Partition> partitions = partitionRepository.findPartitions();
+        for (DeviceDataPartitionRepository.Partition partition : partitions) {
+            if (DeviceDataPartitionRepository.LEGACY_PARTITION.equals(partition.name())
+                    && partition.upperBound() != null && time.isBefore(partition.upperBound())) {
+                return new Coverage(null, partition.upperBound());
+            }
+        }
+
+        LocalDate from = periodStart(time.toLocalDate(), config.getPeriod());
+        LocalDate to = nextPeriod(from, config.getPeriod());
+        Coverage coverage = new Coverage(from.atStartOfDay(), to.atStartOfDay());
+        if (config.getRetentionDays() > 0
+                && !coverage.to().isAfter(LocalDateTime.now().minusDays(config.getRetentionDays()))) {
+            return coverage;
+        }
+        String name = partitionName(from);
+        if (partitions.stream().noneMatch(partition -> partition.name().equals(name))) {
+            partitionRepository.createPartition(name, coverage.from(), coverage.to());
+            partitionsCreated.incrementAndGet();
+            partitionCount = partitions.size() + 1;
+            log.info("Created partition {} [{}, {}) for historical readings", name, from, to);
+        }
+        return coverage;
+    }
+
+    private static LocalDate periodStart(LocalDate date, IngestConfig.Period period) {
+        return period == IngestConfig.Period.WEEK
+                ? date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY))
+                : date;
+    }
+
+    private static LocalDate nextPeriod(LocalDate start, IngestConfig.Period period) {
+        return period == IngestConfig.Period.WEEK ? start.plusWeeks(1) : start.plusDays(1);
+    }
+
+    private static String partitionName(LocalDate start) {
+        return DeviceDataPartitionRepository.TABLE + "_p" + start.format(NAME_FORMAT);
+    }
+
+    /**
+     * Диапазон времени [from, to); from = null - без нижней границы.
+     */
+    public record Coverage(LocalDateTime from, LocalDateTime to) {
+    }
+
+    public Map<String, Object> getStats() {
+        IngestConfig.Partitioning config = ingestConfig.getPartitioning();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", config.isEnabled());
+        stats.put("period", config.getPeriod());
+        stats.put("partitions", partitionCount);
+        stats.put("created", partitionsCreated.get());
+        stats.put("dropped", partitionsDropped.get());
+        stats.put("lastMaintenance", lastMaintenance);
+        return stats;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.DeviceHistoryResponse;
+import com.example.demo.dto.HistoryPoint;
+import com.example.demo.model.Device;
+import com.example.demo.model.DeviceDataRollup;
+import com.example.demo.model.RollupTier;
+import com.example.demo.repository.DeviceDataRollupJdbcRepository;
+import com.example.demo.repository.DeviceDataRollupRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Агрегаты истории показаний по уровням 1m / 1h / 1d (min, max, avg, count, last), отдельно по каждому dataType.
+ * После записи в device_data показание добавляется в ведра всех уровней в памяти; раз в flush-interval-ms накопленные
+ * частичные агрегаты дописываются в device_data_rollup через ON CONFLICT и складываются с сохраненными.
+ * Запрос истории читает самый крупный уровень, который дает нужный шаг, - за месяц это сотни строк.
+ * Агрегаты еще не сброшенных ведер в ответ не попадают (отставание не больше flush-interval-ms).
+ * При переходе со старого ключа без dataType агрегаты прежних показаний пересчитываются из device_data
+ * в фоне порциями по id, не задерживая старт; пока пересчет идет, история за прошлое неполна.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceDataRollupService {
+
+    private final DeviceDataRollupJdbcRepository rollupJdbcRepository;
+    private final DeviceDataRollupRepository rollupRepository;
+    private final DeviceRegistry deviceRegistry;
+    // Словарь стартует раньше: он переводит device_data на коды, из которых пересчитываются агрегаты;
+    // пересчет ждет конца этого перевода
+    private final DataTypeDictionary dataTypeDictionary;
+    private final IngestConfig ingestConfig;
+
+    // Строк device_data (по диапазону id) в одной транзакции пересчета
+    private static final long REBUILD_CHUNK_IDS = 500_000;
+
+    private final Map<BucketKey, Bucket> pending = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flushExecutor;
+    private Thread rebuildThread;
+    private volatile boolean stopped;
+    private volatile long rebuildRemaining;
+
+    private final LongAdder recordedReadings = new LongAdder();
+    private final LongAdder flushedBuckets = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        if (rollupJdbcRepository.hasLegacyKey()) {
+            rollupJdbcRepository.switchToDataTypeKey();
+            log.info("Rollups switched to the data type key, history is rebuilt in the background");
+        }
+        DeviceDataRollupJdbcRepository.RebuildProgress progress = rollupJdbcRepository.findRebuildProgress();
+        if (progress != null) {
+            rebuildRemaining = progress.rebuildUntil() - progress.rebuiltTo();
+            rebuildThread = new Thread(() -> rebuild(progress), "rollup-rebuild");
+            rebuildThread.setDaemon(true);
+            rebuildThread.start();
+        }
+        long interval = ingestConfig.getRollup().getFlushIntervalMs();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "rollup-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (rebuildThread != null) {
+            try {
+                rebuildThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+        log.info("Rollup service stopped, {} buckets left unflushed", pending.size());
+    }
+
+    /**
+     * Пересчет агрегатов строк device_data, записанных до перехода на новый ключ. Каждая порция
+     * вместе со сдвигом прогресса - одна транзакция, так что остановка и перезапуск не дают двойного учета.
+     * Более новые строки учтены сбросами из памяти и складываются с пересчитанными через ON CONFLICT.
+     */
+    private void rebuild(DeviceDataRollupJdbcRepository.RebuildProgress progress) {
+        ZoneId zone = ZoneId.systemDefault();
+        long done = progress.rebuiltTo();
+        long until = progress.rebuildUntil();
+        long started = System.nanoTime();
+        int rows = 0;
+        try {
+            // Агрегаты группируются по data_type_code: старые строки должны сначала получить коды
+            while (!dataTypeDictionary.awaitDeviceDataEncoded(1, TimeUnit.SECONDS)) {
+                if (stopped) {
+                    log.info("Rollup rebuild paused before data types were encoded, it resumes on next start");
+                    return;
+                }
+            }
+            while (done < until && !stopped) {
+                rebuildRemaining = until - done;
+                long upto = Math.min(until, done + REBUILD_CHUNK_IDS);
+                rows += rollupJdbcRepository.rebuildChunk(zone, done, upto);
+                done = upto;
+            }
+            if (done >= until) {
+                rollupJdbcRepository.finishRebuild();
+                rebuildRemaining = 0;
+                log.info("Rebuilt {} rollups keyed by data type in {} ms", rows,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            } else {
+                log.info("Rollup rebuild paused at id {} of {}, it resumes on next start", done, until);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            log.error("Rollup rebuild failed at id {}, it resumes on next start: {}", done, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Учитывает записанное показание во всех уровнях. devicePk - первичный ключ устройства,
+     * dataType - код DataTypeDictionary. Вызывается только после успешной записи в device_data.
+     */
+    public void record(long devicePk, short dataType, double value, long timestamp) {
+        if (!ingestConfig.getRollup().isEnabled()) {
+            return;
+        }
+        for (RollupTier tier : RollupTier.values()) {
+            BucketKey key = new BucketKey(devicePk, dataType, tier, tier.bucketStart(timestamp));
+            pending.compute(key, (k, bucket) -> {
+                if (bucket == null) {
+                    bucket = new Bucket();
+                }
+                bucket.add(value, timestamp);
+                return bucket;
+            });
+        }
+        recordedReadings.increment();
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Rollup flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        // Забираем ведра по одному: запись, пришедшая после remove, начнет новый частичный агрегат
+        Map<BucketKey, Bucket> drained = new LinkedHashMap<>();
+        for (BucketKey key : pending.keySet()) {
+            Bucket bucket = pending.remove(key);
+            if (bucket != null) {
+                drained.put(key, bucket);
+            }
+        }
+
+        List<DeviceDataRollup> rollups = new ArrayList<>(drained.size());
+        drained.forEach((key, bucket) -> rollups.add(bucket.toEntity(key)));
+        try {
+            rollupJdbcRepository.upsertBatch(rollups);
+        } catch (RuntimeException e) {
+            // Возвращаем агрегаты обратно, чтобы не потерять их до следующей попытки
+            drained.forEach((key, bucket) -> pending.merge(key, bucket, Bucket::merge));
+            failedFlushes.increment();
+            throw e;
+        }
+
+        flushedBuckets.add(rollups.size());
+        log.debug("Flushed {} rollup buckets", rollups.size());
+    }
+
+    /**
+     * История устройства за [from, to]. Шаг задается явно (resolutionSeconds) или выводится
+     * из maxPoints; берется самый крупный уровень, ведро которого не больше шага.
+     * dataType можно не указывать, если за период у устройства есть показания только одного типа.
+     */
+    public DeviceHistoryResponse getHistory(String deviceId, String dataType, LocalDateTime from, LocalDateTime to,
+                                            Long resolutionSeconds, Integer maxPoints) {
+        Device device = deviceRegistry.findByDeviceId(deviceId);
+        if (device == null) {
+            throw new RuntimeException("Device not found: " + deviceId);
+        }
+        if (!from.isBefore(to)) {
+            throw new RuntimeException("'from' must be before 'to'");
+        }
+
+        long resolutionMillis;
+        if (resolutionSeconds != null && resolutionSeconds > 0) {
+            resolutionMillis = TimeUnit.SECONDS.toMillis(resolutionSeconds);
+        } else {
+            int points = maxPoints != null && maxPoints > 0 ? maxPoints : ingestConfig.getRollup().getDefaultMaxPoints();
+            resolutionMillis = Duration.between(from, to).toMillis() / points;
+        }
+        RollupTier tier = RollupTier.forResolution(resolutionMillis);
+
+        List<DeviceDataRollup> rollups;
+        if (dataType != null) {
+            short code = dataTypeDictionary.find(dataType);
+            rollups = code < 0 ? List.of() : rollupRepository
+                    .findByDeviceIdAndDataTypeCodeAndTierAndBucketStartBetweenOrderByBucketStart(
+                            device.getId(), code, tier, from, to);
+        } else {
+            rollups = rollupRepository.findByDeviceIdAndTierAndBucketStartBetweenOrderByBucketStart(
+                    device.getId(), tier, from, to);
+            if (rollups.stream().map(DeviceDataRollup::getDataTypeCode).distinct().count() > 1) {
+                throw new RuntimeException("Device " + deviceId + " reports several data types, specify dataType");
+            }
+            dataType = rollups.isEmpty() ? null : dataTypeDictionary.decode(rollups.get(0).getDataTypeCode());
+        }
+        
+        List<HistoryPoint> points = new ArrayList<>();
+        for (DeviceDataRollup rollup : rollups) {
+            points.add(HistoryPoint.builder()
+                    .bucketStart(rollup.getBucketStart())
+                    .min(rollup.getMinValue())
+                    .max(rollup.getMaxValue())
+                    .avg(rollup.getSumValue() / rollup.getSampleCount())
+                    .count(rollup.getSampleCount())
+                    .last(rollup.getLastValue())
+                    .build());
+        }
+
+        log.debug("History for {} [{} - {}]: tier {}, {} points", deviceId, from, to, tier, points.size());
+        return DeviceHistoryResponse.builder()
+                .deviceId(deviceId)
+                .dataType(dataType)
+                .tier(tier)
+                .from(from)
+                .to(to)
+                .points(points)
+                .build();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getRollup().isEnabled());
+        stats.put("recorded", recordedReadings.sum());
+        stats.put("pendingBuckets", pending.size());
+        stats.put("flushedBuckets", flushedBuckets.sum());
+        stats.put("failedFlushes", failedFlushes.sum());
+        stats.put("rebuildRemainingIds", rebuildRemaining);
+        return stats;
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    private record BucketKey(long devicePk, short dataType, RollupTier tier, long bucketStart) {
+    }
+
+    // Частичный агрегат ведра; меняется только внутри compute/merge карты, поэтому без своей синхронизации
+    private static final class Bucket {
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private long count;
+        private double last;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        void add(double value, long timestamp) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+            if (timestamp >= lastTimestamp) {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+        }
+
+        Bucket merge(Bucket other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            count += other.count;
+            if (other.lastTimestamp >= lastTimestamp) {
+                last = other.last;
+                lastTimestamp = other.lastTimestamp;
+            }
+            return this;
+        }
+
+        DeviceDataRollup toEntity(BucketKey key) {
+            DeviceDataRollup rollup = new DeviceDataRollup();
+            rollup.setDeviceId(key.devicePk());
+            rollup.setDataTypeCode(key.dataType());
+            rollup.setTier(key.tier());
+            rollup.setBucketStart(toLocalDateTime(key.bucketStart()));
+            rollup.setMinValue(min);
+            rollup.setMaxValue(max);
+            rollup.setSumValue(sum);
+            rollup.setSampleCount(count);
+            rollup.setLastValue(last);
+            rollup.setLastTimestamp(toLocalDateTime(lastTimestamp));
+            return rollup;
+        }
+    }
+}
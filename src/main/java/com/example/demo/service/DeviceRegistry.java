@@ -0,0 +1,265 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реестр устройств в памяти с поиском по deviceId за O(1) без обращения к БД.
+ * Загружается при старте и обновляется при создании, изменении и удалении устройств.
+ * Сущности в реестре - "горячее" состояние устройств: их lastValue / isOnline меняются при приеме показаний.
+ * Вторичные индексы (тип, комната, имя, триграммы имени) хранят deviceId и обновляются при регистрации,
+ * поэтому выборки автоматизации стоят O(результата), а не проход по всем устройствам.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceRegistry {
+
+    // Сколько помнить, что устройства нет в БД, чтобы поток мусорных deviceId не бил в базу
+    private static final long UNKNOWN_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final int MAX_UNKNOWN_ENTRIES = 10000;
+    // Длина n-граммы имени: подстрока короче ищется проходом по всем устройствам
+    private static final int NAME_GRAM = 3;
+
+    private final DeviceRepository deviceRepository;
+
+    private final Map<String, Device> devicesByDeviceId = new ConcurrentHashMap<>();
+    private final Map<String, Long> unknownDeviceIds = new ConcurrentHashMap<>();
+
+    // Ключи, под которыми устройство лежит в индексах: сущность могут изменить на месте до повторной регистрации
+    private final Map<String, IndexKeys> indexedKeys = new HashMap<>();
+    private final Map<Device.DeviceType, Set<String>> byType = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byRoomName = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byName = new ConcurrentHashMap<>();
+    // Триграммы имени в нижнем регистре: кандидаты для поиска по подстроке
+    private final Map<String, Set<String>> byNameGram = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @PostConstruct
+    public void load() {
+        List<Device> devices = deviceRepository.findAll();
+        devices.forEach(this::register);
+        log.info("Device registry loaded: {} devices", devicesByDeviceId.size());
+    }
+
+    /**
+     * Поиск устройства по внешнему ID. Промах проверяется в БД один раз и кешируется.
+     */
+    public Device findByDeviceId(String deviceId) {
+        if (deviceId == null) {
+            return null;
+        }
+        Device device = devicesByDeviceId.get(deviceId);
+        if (device != null) {
+            hits.increment();
+            return device;
+        }
+
+        misses.increment();
+        Long unknownSince = unknownDeviceIds.get(deviceId);
+        if (unknownSince != null && System.nanoTime() - unknownSince < UNKNOWN_TTL_NANOS) {
+            return null;
+        }
+
+        device = deviceRepository.findByDeviceId(deviceId);
+        if (device != null) {
+            register(device);
+        } else {
+            if (unknownDeviceIds.size() >= MAX_UNKNOWN_ENTRIES) {
+                unknownDeviceIds.clear();
+            }
+            unknownDeviceIds.put(deviceId, System.nanoTime());
+        }
+        return device;
+    }
+
+    /**
+     * Добавляет или заменяет устройство (после создания или изменения).
+     */
+    public synchronized void register(Device device) {
+        if (device.getDeviceId() == null) {
+            return;
+        }
+        String deviceId = device.getDeviceId();
+        unindex(deviceId);
+        devicesByDeviceId.put(deviceId, device);
+        index(deviceId, IndexKeys.of(device));
+        unknownDeviceIds.remove(deviceId);
+    }
+
+    /**
+     * Убирает устройство после удаления.
+     */
+    public synchronized void remove(Device device) {
+        if (device.getDeviceId() != null) {
+            unindex(device.getDeviceId());
+            devicesByDeviceId.remove(device.getDeviceId());
+        }
+    }
+
+    public List<Device> findByType(Device.DeviceType type) {
+        return resolve(byType.get(type));
+    }
+
+    public List<Device> findByRoomName(String roomName) {
+        return roomName != null ? resolve(byRoomName.get(roomName)) : List.of();
+    }
+
+    /**
+     * Устройства с точно таким именем, по возрастанию первичного ключа.
+     */
+    public List<Device> findByName(String name) {
+        if (name == null) {
+            return List.of();
+        }
+        List<Device> devices = resolve(byName.get(name));
+        devices.sort(Comparator.comparing(Device::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        return devices;
+    }
+
+    /**
+     * Устройства, имя которых содержит query без учета регистра ("осушитель" найдет "Осушитель воздуха"
+     * и "Увлажнительосушитель"), по возрастанию первичного ключа. Кандидаты берутся из самого короткого
+     * списка триграмм query и проверяются по имени целиком.
+     */
+    public List<Device> findByNameContaining(String query) {
+        if (query == null || query.isEmpty()) {
+            return List.of();
+        }
+        String needle = query.toLowerCase(Locale.ROOT);
+        Collection<String> candidates = devicesByDeviceId.keySet();
+        if (needle.length() >= NAME_GRAM) {
+            for (int i = 0; i + NAME_GRAM <= needle.length(); i++) {
+                Set<String> deviceIds = byNameGram.get(needle.substring(i, i + NAME_GRAM));
+                if (deviceIds == null) {
+                    return List.of();
+                }
+                if (deviceIds.size() < candidates.size()) {
+                    candidates = deviceIds;
+                }
+            }
+        }
+        List<Device> devices = new ArrayList<>();
+        for (String deviceId : candidates) {
+            Device device = devicesByDeviceId.get(deviceId);
+            if (device != null && device.getName() != null
+                    && device.getName().toLowerCase(Locale.ROOT).contains(needle)) {
+                devices.add(device);
+            }
+        }
+        devices.sort(Comparator.comparing(Device::getId, Comparator.nullsLast(Comparator.naturalOrder())));
+        return devices;
+    }
+
+    private List<Device> resolve(Set<String> deviceIds) {
+        if (deviceIds == null || deviceIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Device> devices = new ArrayList<>(deviceIds.size());
+        for (String deviceId : deviceIds) {
+            Device device = devicesByDeviceId.get(deviceId);
+            if (device != null) {
+                devices.add(device);
+            }
+        }
+        return devices;
+    }
+
+    private void index(String deviceId, IndexKeys keys) {
+        indexedKeys.put(deviceId, keys);
+        if (keys.type() != null) {
+            byType.computeIfAbsent(keys.type(), key -> ConcurrentHashMap.newKeySet()).add(deviceId);
+        }
+        if (keys.roomName() != null) {
+            byRoomName.computeIfAbsent(keys.roomName(), key -> ConcurrentHashMap.newKeySet()).add(deviceId);
+        }
+        if (keys.name() != null) {
+            byName.computeIfAbsent(keys.name(), key -> ConcurrentHashMap.newKeySet()).add(deviceId);
+        }
+        for (String gram : keys.nameGrams()) {
+            byNameGram.computeIfAbsent(gram, key -> ConcurrentHashMap.newKeySet()).add(deviceId);
+        }
+    }
+
+    private void unindex(String deviceId) {
+        IndexKeys keys = indexedKeys.remove(deviceId);
+        if (keys == null) {
+            return;
+        }
+        removeFrom(byType, keys.type(), deviceId);
+        removeFrom(byRoomName, keys.roomName(), deviceId);
+        removeFrom(byName, keys.name(), deviceId);
+        for (String gram : keys.nameGrams()) {
+            removeFrom(byNameGram, gram, deviceId);
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, Set<String>> index, K key, String deviceId) {
+        if (key == null) {
+            return;
+        }
+        Set<String> deviceIds = index.get(key);
+        if (deviceIds != null) {
+            deviceIds.remove(deviceId);
+            if (deviceIds.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    public Collection<Device> getAll() {
+        return Collections.unmodifiableCollection(devicesByDeviceId.values());
+    }
+
+    public int size() {
+        return devicesByDeviceId.size();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("devices", devicesByDeviceId.size());
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("knownUnknown", unknownDeviceIds.size());
+        stats.put("rooms", byRoomName.size());
+        stats.put("nameGrams", byNameGram.size());
+        return stats;
+    }
+
+    private record IndexKeys(Device.DeviceType type, String roomName, String name, Set<String> nameGrams) {
+
+        static IndexKeys of(Device device) {
+            String name = device.getName();
+            Set<String> grams = new HashSet<>();
+            if (name != null) {
+                String lower = name.toLowerCase(Locale.ROOT);
+                for (int i = 0; i + NAME_GRAM <= lower.length(); i++) {
+                    grams.add(lower.substring(i, i + NAME_GRAM));
+                }
+            }
+            return new IndexKeys(device.getType(), device.getRoom() != null ? device.getRoom().getName() : null,
+                    name, grams);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Поток-владелец для каждого устройства: все изменения состояния устройства (сущности из реестра)
+ * выполняются потоком шарда, к которому устройство относится по хешу deviceId.
+ * Потоки-владельцы - это потоки шардов IngestPipeline; задачи из других потоков (синхронный прием,
+ * команды автоматизации) ставятся в очередь шарда и выполняются между пачками.
+ * Пока конвейер не запущен, задача выполняется сразу в вызывающем потоке под блокировкой шарда.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceShardExecutor {
+
+    private final IngestConfig ingestConfig;
+
+    private Shard[] shards;
+
+    private final LongAdder queuedTasks = new LongAdder();
+    private final LongAdder inlineTasks = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        int configured = ingestConfig.getAsync().getShards();
+        int count = configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    public int shardOf(String deviceId) {
+        int hash = deviceId.hashCode();
+        hash ^= (hash >>> 16);
+        return Math.floorMod(hash, shards.length);
+    }
+
+    /**
+     * Выполняет задачу на потоке-владельце устройства, не дожидаясь ее завершения.
+     * Ошибка задачи только пишется в лог.
+     */
+    public void execute(String deviceId, Runnable task) {
+        submit(shardOf(deviceId), () -> {
+            task.run();
+            return null;
+        }).exceptionally(e -> {
+            log.error("Device task for {} failed: {}", deviceId, e.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Выполняет задачу на потоке-владельце шарда и ждет результата.
+     * Исключение задачи пробрасывается вызывающему. Из потока другого шарда не вызывать.
+     */
+    public <T> T call(int shard, Supplier<T> task) {
+        try {
+            return submit(shard, task).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(int shardIndex, Supplier<T> task) {
+        Shard shard = shards[shardIndex];
+        Thread owner = shard.owner;
+        if (owner == null || owner == Thread.currentThread()) {
+            return runInline(shard, task);
+        }
+
+        QueuedTask<T> future = new QueuedTask<>();
+        shard.tasks.add(() -> {
+            if (future.start()) {
+                complete(future, task);
+            }
+        });
+        queuedTasks.increment();
+        if (shard.owner == null) {
+            // Владелец отвязался, пока задача ставилась в очередь - выполняем хвост сами
+            drainInline(shard);
+        } else {
+            LockSupport.unpark(owner);
+        }
+        return future;
+    }
+
+    /**
+     * Отменяет задачу из submit, если поток шарда еще не начал ее выполнять. false - задача уже
+     * выполняется или выполнена, и ее результат нужно дождаться.
+     */
+    public boolean cancelIfPending(CompletableFuture<?> future) {
+        return future instanceof QueuedTask<?> queued && queued.cancelIfPending();
+    }
+
+    /**
+     * Делает поток владельцем шарда. Вызывается IngestPipeline до запуска потоков шардов.
+     */
+    void bind(int shardIndex, Thread owner) {
+        shards[shardIndex].owner = owner;
+    }
+
+    /**
+     * Снимает владельца и выполняет оставшиеся в очереди задачи. Вызывается самим потоком-владельцем
+     * на выходе: пока он жив, его задачи не выполняются никем другим.
+     */
+    void unbind(int shardIndex) {
+        Shard shard = shards[shardIndex];
+        if (shard.owner != Thread.currentThread()) {
+            throw new IllegalStateException("Shard " + shardIndex + " can be unbound only by its owner thread");
+        }
+        shard.owner = null;
+        drainInline(shard);
+    }
+
+    boolean hasPending(int shardIndex) {
+        return !shards[shardIndex].tasks.isEmpty();
+    }
+
+    /**
+     * Выполняет накопившиеся задачи шарда. Вызывается только потоком-владельцем.
+     */
+    void runPending(int shardIndex) {
+        Queue<Runnable> tasks = shards[shardIndex].tasks;
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int pending = 0;
+        for (Shard shard : shards) {
+            pending += shard.tasks.size();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("shards", shards.length);
+        stats.put("pendingTasks", pending);
+        stats.put("queuedTasks", queuedTasks.sum());
+        stats.put("inlineTasks", inlineTasks.sum());
+        return stats;
+    }
+
+    private <T> CompletableFuture<T> runInline(Shard shard, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        inlineTasks.increment();
+        if (shard.owner == Thread.currentThread()) {
+            complete(future, task);
+        } else {
+            synchronized (shard.lock) {
+                complete(future, task);
+            }
+        }
+        return future;
+    }
+
+    private void drainInline(Shard shard) {
+        synchronized (shard.lock) {
+            Runnable task;
+            while ((task = shard.tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static <T> void complete(CompletableFuture<T> future, Supplier<T> task) {
+        try {
+            future.complete(task.get());
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    private static final class QueuedTask<T> extends CompletableFuture<T> {
+        private final AtomicBoolean started = new AtomicBoolean();
+
+        boolean start() {
+            return started.compareAndSet(false, true);
+        }
+
+        boolean cancelIfPending() {
+            return started.compareAndSet(false, true) && cancel(false);
+        }
+    }
+
+    private static final class Shard {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final Object lock = new Object();
+        private volatile Thread owner;
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отложенная запись состояния устройств (lastValue / isOnline).
+ * Изменения копятся в памяти, несколько обновлений одного устройства схлопываются в одно,
+ * и раз в flush-interval-ms (или при dirty-threshold грязных устройств) уходят в БД одним батчем UPDATE.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DeviceStateWriteBehind {
+
+    private final DeviceJdbcRepository deviceJdbcRepository;
+    private final IngestConfig ingestConfig;
+
+    private final Map<Long, DeviceState> dirty = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private ScheduledExecutorService flushExecutor;
+
+    private final LongAdder markedUpdates = new LongAdder();
+    private final LongAdder flushedRows = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        long interval = ingestConfig.getWriteBehind().getFlushIntervalMs();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "device-state-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+        log.info("Device state write-behind stopped, {} devices left unflushed", dirty.size());
+    }
+
+    /**
+     * Запоминает текущее состояние устройства для отложенной записи.
+     * Вызывающий код уже изменил поля сущности.
+     */
+    public void markDirty(Device device) {
+        IngestConfig.WriteBehind config = ingestConfig.getWriteBehind();
+        DeviceState state = new DeviceState(device.getId(), device.getLastValue(), device.isOnline());
+        markedUpdates.increment();
+
+        if (!config.isEnabled()) {
+            write(List.of(state));
+            return;
+        }
+
+        dirty.put(state.id, state);
+        if (dirty.size() >= config.getDirtyThreshold() && flushRequested.compareAndSet(false, true)) {
+            flushExecutor.execute(this::flushSafely);
+        }
+    }
+
+    /**
+     * Накладывает еще не записанное состояние на сущность, прочитанную из БД.
+     */
+    public Device applyPending(Device device) {
+        DeviceState state = dirty.get(device.getId());
+        if (state != null) {
+            device.setLastValue(state.lastValue);
+            device.setOnline(state.online);
+        }
+        return device;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("dirtyDevices", dirty.size());
+        stats.put("markedUpdates", markedUpdates.sum());
+        stats.put("flushedRows", flushedRows.sum());
+        stats.put("flushes", flushes.sum());
+        return stats;
+    }
+
+    private void flushSafely() {
+        flushRequested.set(false);
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        List<DeviceState> snapshot = new ArrayList<>(dirty.values());
+        // Удаляем только то, что не успели перезаписать более свежим состоянием
+        for (DeviceState state : snapshot) {
+            dirty.remove(state.id, state);
+        }
+
+        try {
+            write(snapshot);
+            flushes.increment();
+            log.debug("Flushed state of {} devices", snapshot.size());
+        } catch (Exception e) {
+            for (DeviceState state : snapshot) {
+                dirty.putIfAbsent(state.id, state);
+            }
+            log.error("Failed to flush state of {} devices: {}", snapshot.size(), e.getMessage());
+        }
+    }
+
+    private void write(List<DeviceState> states) {
+        int count = states.size();
+        long[] ids = new long[count];
+        Double[] lastValues = new Double[count];
+        boolean[] online = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            DeviceState state = states.get(i);
+            ids[i] = state.id;
+            lastValues[i] = state.lastValue;
+            online[i] = state.online;
+        }
+        deviceJdbcRepository.updateStates(ids, lastValues, online, count);
+        flushedRows.add(count);
+    }
+
+    private static final class DeviceState {
+        private final long id;
+        private final Double lastValue;
+        private final boolean online;
+
+        private DeviceState(long id, Double lastValue, boolean online) {
+            this.id = id;
+            this.lastValue = lastValue;
+            this.online = online;
+        }
+    }
+}
@@ -24,6 +24,7 @@ public class HealthReportService {
     private final DeviceRepository deviceRepository;
     private final RoomRepository roomRepository;
     private final ModeSettingsRepository modeSettingsRepository;
+    private final DeviceStateWriteBehind deviceStateWriteBehind;
     
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("dd.MM.yyyy");
@@ -41,6 +42,7 @@ public class HealthReportService {
      */
     public HealthReportDto generateReportData() {
         List<Device> allDevices = deviceRepository.findAll();
+        allDevices.forEach(deviceStateWriteBehind::applyPending);
         long totalDevices = allDevices.size();
         long onlineDevices = allDevices.stream().filter(Device::isOnline).count();
         
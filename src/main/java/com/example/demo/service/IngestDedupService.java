@@ -0,0 +1,71 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.util.SequenceWindow;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отсев повторно присланных показаний по номеру последовательности устройства.
+ * На каждое устройство хранится компактное окно SequenceWindow, проверка идет без обращения к БД.
+ */
+@Service
+@RequiredArgsConstructor
+public class IngestDedupService {
+
+    private final IngestConfig ingestConfig;
+
+    private final Map<String, SequenceWindow> windows = new ConcurrentHashMap<>();
+
+    private final LongAdder checkedReadings = new LongAdder();
+    private final LongAdder duplicateReadings = new LongAdder();
+    private final LongAdder releasedReadings = new LongAdder();
+
+    /**
+     * Возвращает true, если показание с таким номером уже было принято.
+     * Отрицательный номер означает, что устройство не нумерует показания.
+     */
+    public boolean isDuplicate(String deviceId, long sequence) {
+        if (sequence < 0 || !ingestConfig.getDedup().isEnabled()) {
+            return false;
+        }
+        checkedReadings.increment();
+        if (windows.computeIfAbsent(deviceId, id -> new SequenceWindow()).markIfNew(sequence)) {
+            return false;
+        }
+        duplicateReadings.increment();
+        return true;
+    }
+
+    /**
+     * Снимает отметку с показания, которое не удалось записать, чтобы его повтор не отсеялся.
+     */
+    public void release(String deviceId, long sequence) {
+        if (sequence < 0 || !ingestConfig.getDedup().isEnabled()) {
+            return;
+        }
+        SequenceWindow window = windows.get(deviceId);
+        if (window != null) {
+            window.unmark(sequence);
+            releasedReadings.increment();
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long checked = checkedReadings.sum();
+        long duplicates = duplicateReadings.sum();
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("trackedDevices", windows.size());
+        stats.put("checked", checked);
+        stats.put("duplicates", duplicates);
+        stats.put("released", releasedReadings.sum());
+        stats.put("duplicateRate", checked > 0 ? (double) duplicates / checked : 0.0);
+        return stats;
+    }
+}
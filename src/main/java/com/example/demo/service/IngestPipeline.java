@@ -0,0 +1,496 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.IngestResult;
+import com.example.demo.model.ReadingBatch;
+import com.example.demo.util.IngestRingBuffer;
+import com.example.demo.util.WriteAheadLog;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * Асинхронный конвейер приема показаний, разбитый на шарды по deviceId.
+ * Запрос только ставит показание в ограниченный кольцевой буфер своего шарда. У каждого шарда
+ * один поток, который пишет пачки в БД и затем выполняет автоматизацию: все показания одного
+ * устройства обрабатываются одним потоком строго по порядку, а шарды работают параллельно.
+ * При заполнении буфера производитель ждет offer-timeout-ms и получает отказ.
+ * Временная ошибка БД (соединение, таймаут) повторяется с растущей паузой, шард в это время держит пачку
+ * (буфер заполняется, производители получают отказ, синхронный прием - после sync-wait-ms). С журналом
+ * повторы идут до успеха или остановки, без журнала - не дольше persist-retry-ms, после чего пачка теряется.
+ * Показания, которые БД отвергает (ошибка в данных), не повторяются: они отбрасываются поштучно
+ * и считаются в dropped, остальная пачка записывается.
+ * При остановке приложения буферы дочитываются до конца.
+ * Потоки шардов - владельцы устройств для DeviceShardExecutor: между пачками они выполняют
+ * поставленные им задачи, так что состояние устройства меняет только его поток.
+ * С включенным журналом (wal.enabled) показание сначала дописывается в журнал шарда и подтверждается
+ * после его сброса на диск; после успешной записи пачки в БД журнал получает контрольную точку,
+ * а при старте незаписанный хвост журналов досылается в БД до начала приема. Если конвейер
+ * останавливается, так и не записав пачку, контрольная точка остается перед ней, а остаток буфера
+ * в БД уже не пишется: всё это досылается из журнала при следующем старте без дублей.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IngestPipeline implements SmartLifecycle {
+
+    private static final long OFFER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long RETRY_PAUSE_MS = 100;
+    private static final long MAX_RETRY_PAUSE_MS = 5000;
+
+    /**
+     * Итог постановки показания. ACCEPTED_NOT_DURABLE - показание в буфере и в журнале, но сброса журнала
+     * на диск не дождались за sync-timeout-ms: оно будет записано, но при падении процесса до сброса
+     * может потеряться. Повторять его не нужно - получится дубль.
+     */
+    public enum SubmitResult {
+        ACCEPTED,
+        ACCEPTED_NOT_DURABLE,
+        REJECTED
+    }
+
+    private final SmartHomeService smartHomeService;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final DeviceShardExecutor deviceShardExecutor;
+    private final IngestConfig ingestConfig;
+
+    private Shard[] shards = new Shard[0];
+    private volatile boolean running;
+
+    private final LongAdder acceptedReadings = new LongAdder();
+    private final LongAdder rejectedReadings = new LongAdder();
+    private final LongAdder persistedReadings = new LongAdder();
+    private final LongAdder droppedReadings = new LongAdder();
+    private final LongAdder duplicateReadings = new LongAdder();
+    private final LongAdder filteredReadings = new LongAdder();
+    private final LongAdder failedReadings = new LongAdder();
+    private final LongAdder persistRetries = new LongAdder();
+    private final LongAdder deferredReadings = new LongAdder();
+    private final LongAdder replayedReadings = new LongAdder();
+    private final LongAdder walSyncTimeouts = new LongAdder();
+    private final LongAdder notDurableReadings = new LongAdder();
+
+    @Override
+    public void start() {
+        IngestConfig.Async config = ingestConfig.getAsync();
+        if (!config.isEnabled()) {
+            log.info("Async ingest pipeline is disabled");
+            return;
+        }
+
+        IngestConfig.Wal walConfig = ingestConfig.getWal();
+        if (walConfig.isEnabled()) {
+            replayWal(Paths.get(walConfig.getDirectory()), config.getBatchSize());
+        }
+
+        // Шарды конвейера совпадают с шардами владельцев устройств: их потоки и есть владельцы
+        int shardCount = deviceShardExecutor.shardCount();
+        shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, new IngestRingBuffer(config.getBufferSize()));
+            if (walConfig.isEnabled()) {
+                shards[i].wal = openWal(Paths.get(walConfig.getDirectory()), i);
+            }
+            deviceShardExecutor.bind(i, shards[i].thread);
+        }
+
+        running = true;
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+        log.info("Async ingest pipeline started - shards: {}, buffer per shard: {}, batch: {}",
+                 shardCount, shards[0].buffer.capacity(), config.getBatchSize());
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        long deadline = System.currentTimeMillis() + ingestConfig.getAsync().getDrainTimeoutMs();
+        try {
+            for (Shard shard : shards) {
+                LockSupport.unpark(shard.thread);
+                shard.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Поток шарда сам отвязывается и закрывает журнал при выходе (exitShard); пока он жив,
+        // задачи его устройств остаются в его очереди, а не выполняются параллельно с ним
+        for (Shard shard : shards) {
+            if (shard.thread.isAlive()) {
+                log.warn("Ingest shard {} did not finish within drain timeout, it keeps its devices until it exits",
+                         shard.index);
+            }
+        }
+        log.info("Async ingest pipeline stopped - {} readings left in buffers", bufferDepth());
+    }
+
+    /**
+     * Досылает в БД показания из журналов прошлого запуска (после их контрольных точек) и удаляет журналы.
+     * Автоматизация по старым показаниям не запускается. Ошибка записи останавливает старт,
+     * чтобы журнал не был удален вместе с неотправленными показаниями.
+     */
+    private void replayWal(Path root, int batchSize) {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        List<Path> shardDirectories;
+        try (Stream<Path> list = Files.list(root)) {
+            shardDirectories = list.filter(Files::isDirectory).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read WAL directory " + root, e);
+        }
+
+        ReadingBatch batch = new ReadingBatch(batchSize);
+        List<String> errors = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (Path directory : shardDirectories) {
+            long before = replayedReadings.sum();
+            try {
+                WriteAheadLog.replay(directory, dataTypeDictionary::encode, (deviceId, value, dataType, timestamp, sequence) -> {
+                    // Журналы версий без проверки времени на входе
+                    if (!ReadingBatch.isValidTimestamp(timestamp, now)) {
+                        droppedReadings.increment();
+                        return;
+                    }
+                    batch.add(deviceId, value, dataType, timestamp, sequence);
+                    replayedReadings.increment();
+                    if (batch.size() >= batchSize) {
+                        smartHomeService.persistReadings(batch, errors);
+                        batch.clear();
+                        errors.clear();
+                    }
+                });
+                smartHomeService.persistReadings(batch, errors);
+                batch.clear();
+                errors.clear();
+                deleteRecursively(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to replay WAL " + directory, e);
+            }
+            log.info("Replayed {} readings from WAL {}", replayedReadings.sum() - before, directory);
+        }
+    }
+
+    private WriteAheadLog openWal(Path root, int shardIndex) {
+        IngestConfig.Wal config = ingestConfig.getWal();
+        try {
+            return new WriteAheadLog(root.resolve("shard-" + shardIndex), config.getSegmentSizeMb() * 1024 * 1024,
+                    config.isFsync(), 1, "ingest-wal-" + shardIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open WAL for shard " + shardIndex, e);
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Останавливаемся после веб-сервера, чтобы дочитать все принятые показания
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 4096;
+    }
+
+    /**
+     * Ставит показание в буфер шарда устройства.
+     * REJECTED, если буфер не освободился за offer-timeout-ms.
+     * dataType кодируется здесь, дальше по конвейеру и в журнал идет только его код.
+     */
+    public SubmitResult submit(String deviceId, double value, String dataType, long timestamp, long sequence) {
+        return enqueue(deviceId, value, dataTypeDictionary.encode(dataType), timestamp, sequence,
+                TimeUnit.MILLISECONDS.toNanos(ingestConfig.getAsync().getOfferTimeoutMs()), true);
+    }
+
+    /**
+     * Неблокирующий вариант submit для потоков, которые нельзя останавливать (NIO-селектор).
+     * Сброса журнала на диск не ждет. dataType - уже готовый код словаря: регистрация нового типа ходит в БД.
+     */
+    public boolean trySubmit(String deviceId, double value, short dataType, long timestamp, long sequence) {
+        return enqueue(deviceId, value, dataType, timestamp, sequence, 0, false) != SubmitResult.REJECTED;
+    }
+
+    private SubmitResult enqueue(String deviceId, double value, short dataType, long timestamp, long sequence,
+                                 long timeoutNanos, boolean awaitDurable) {
+        if (!running) {
+            return SubmitResult.REJECTED;
+        }
+
+        Shard shard = shards[deviceShardExecutor.shardOf(deviceId)];
+        WriteAheadLog wal = shard.wal;
+        long lsn = 0;
+        long deadline = 0;
+        while (true) {
+            if (wal == null) {
+                if (shard.buffer.offer(deviceId, value, dataType, timestamp, sequence)) {
+                    break;
+                }
+            } else {
+                // Порядок в буфере совпадает с порядком LSN: потребитель считает контрольную точку по числу
+                // записанных. Под блокировкой только неблокирующая постановка и дозапись в журнал
+                synchronized (shard.appendLock) {
+                    if (shard.buffer.offer(deviceId, value, dataType, timestamp, sequence)) {
+                        try {
+                            lsn = wal.append(deviceId, value, dataType, timestamp, sequence);
+                        } catch (IOException e) {
+                            // Показание уже в буфере и будет записано; журнал шарда дальше не ведем
+                            log.error("WAL append failed, disabling WAL for this shard: {}", e.getMessage());
+                            shard.wal = null;
+                            wal = null;
+                        }
+                        break;
+                    }
+                }
+            }
+            // Буфер полон: ждем места без блокировки, чтобы не задерживать других производителей шарда
+            long now = System.nanoTime();
+            if (deadline == 0) {
+                deadline = now + timeoutNanos;
+            }
+            if (now - deadline >= 0) {
+                rejectedReadings.increment();
+                return SubmitResult.REJECTED;
+            }
+            LockSupport.parkNanos(OFFER_BACKOFF_NANOS);
+        }
+
+        acceptedReadings.increment();
+        if (shard.idle) {
+            LockSupport.unpark(shard.thread);
+        }
+
+        if (awaitDurable && wal != null) {
+            try {
+                if (!wal.awaitDurable(lsn, TimeUnit.MILLISECONDS.toNanos(ingestConfig.getWal().getSyncTimeoutMs()))) {
+                    walSyncTimeouts.increment();
+                    notDurableReadings.increment();
+                    return SubmitResult.ACCEPTED_NOT_DURABLE;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                notDurableReadings.increment();
+                return SubmitResult.ACCEPTED_NOT_DURABLE;
+            }
+        }
+        return SubmitResult.ACCEPTED;
+    }
+
+    public int bufferDepth() {
+        int depth = 0;
+        for (Shard shard : shards) {
+            depth += shard.buffer.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Заполненность самого загруженного шарда, от 0 до 1.
+     * Берется максимум, а не среднее: горячее устройство упирается в свой шард.
+     */
+    public double bufferFill() {
+        double fill = 0;
+        for (Shard shard : shards) {
+            fill = Math.max(fill, (double) shard.buffer.size() / shard.buffer.capacity());
+        }
+        return fill;
+    }
+
+    public Map<String, Object> getStats() {
+        List<Integer> shardDepths = new ArrayList<>(shards.length);
+        int capacity = 0;
+        for (Shard shard : shards) {
+            shardDepths.add(shard.buffer.size());
+            capacity += shard.buffer.capacity();
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("running", running);
+        stats.put("shards", shards.length);
+        stats.put("bufferDepth", bufferDepth());
+        stats.put("bufferCapacity", capacity);
+        stats.put("shardDepths", shardDepths);
+        stats.put("accepted", acceptedReadings.sum());
+        stats.put("rejected", rejectedReadings.sum());
+        stats.put("persisted", persistedReadings.sum());
+        stats.put("dropped", droppedReadings.sum());
+        stats.put("duplicates", duplicateReadings.sum());
+        stats.put("filtered", filteredReadings.sum());
+        stats.put("failed", failedReadings.sum());
+        stats.put("persistRetries", persistRetries.sum());
+        stats.put("deferredToWal", deferredReadings.sum());
+        stats.put("walEnabled", ingestConfig.getWal().isEnabled());
+        stats.put("walReplayed", replayedReadings.sum());
+        stats.put("walSyncTimeouts", walSyncTimeouts.sum());
+        stats.put("notDurable", notDurableReadings.sum());
+        long walSyncs = 0;
+        int walSegments = 0;
+        for (Shard shard : shards) {
+            WriteAheadLog wal = shard.wal;
+            if (wal != null) {
+                walSyncs += wal.getSyncs();
+                walSegments += wal.segmentCount();
+            }
+        }
+        stats.put("walSyncs", walSyncs);
+        stats.put("walSegments", walSegments);
+        return stats;
+    }
+
+    private void runShard(Shard shard) {
+        try {
+            consumeLoop(shard);
+        } finally {
+            exitShard(shard);
+        }
+    }
+
+    /**
+     * Выход потока шарда: только теперь устройства шарда отвязываются от него, а остаток их задач
+     * выполняется под блокировкой шарда - раньше он шел бы параллельно с последней пачкой.
+     */
+    private void exitShard(Shard shard) {
+        deviceShardExecutor.unbind(shard.index);
+        WriteAheadLog wal = shard.wal;
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    private void consumeLoop(Shard shard) {
+        int batchSize = ingestConfig.getAsync().getBatchSize();
+        ReadingBatch batch = new ReadingBatch(batchSize);
+        List<String> errors = new ArrayList<>();
+
+        while (running || !shard.buffer.isEmpty()) {
+            // Задачи владельца (синхронный прием, команды) - между пачками, на этом же потоке
+            deviceShardExecutor.runPending(shard.index);
+            if (shard.buffer.drainTo(batch, batchSize) == 0) {
+                shard.idle = true;
+                if (running && shard.buffer.isEmpty() && !deviceShardExecutor.hasPending(shard.index)) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                shard.idle = false;
+                continue;
+            }
+            int drained = batch.size();
+            if (shard.checkpointFrozen) {
+                // Идет остановка после незаписанной пачки: остаток уже в журнале и дошлется при старте
+                deferredReadings.add(drained);
+                batch.clear();
+                continue;
+            }
+            WriteAheadLog wal = shard.wal;
+            boolean persisted = process(batch, errors, wal != null);
+            batch.clear();
+            errors.clear();
+            if (wal != null) {
+                if (persisted || running) {
+                    // Пока конвейер работает, запись повторяется до успеха; отказ здесь - ошибка не БД,
+                    // а самих показаний, и при досылке она повторилась бы и остановила старт
+                    shard.persistedLsn += drained;
+                    wal.checkpoint(shard.persistedLsn);
+                } else {
+                    shard.checkpointFrozen = true;
+                    log.error("WAL checkpoint of shard {} kept at LSN {}, unpersisted readings will be replayed on restart",
+                              shard.index, shard.persistedLsn);
+                }
+            }
+        }
+    }
+
+    /**
+     * Записывает пачку и запускает автоматизацию. false - пачку записать не удалось.
+     * untilStopped - повторять запись до остановки конвейера (пачка есть в журнале), иначе до persist-retry-ms.
+     */
+    private boolean process(ReadingBatch batch, List<String> errors, boolean untilStopped) {
+        int drained = batch.size();
+        long started = System.nanoTime();
+        IngestResult result;
+        try {
+            result = smartHomeService.persistReadings(batch, errors,
+                    attempt -> awaitRetry(attempt, untilStopped ? Long.MAX_VALUE : started));
+        } catch (Exception e) {
+            failedReadings.add(drained);
+            log.error("Failed to persist {} readings: {}", drained, e.getMessage());
+            return false;
+        }
+
+        persistedReadings.add(batch.size());
+        duplicateReadings.add(result.getDuplicates());
+        filteredReadings.add(result.getFiltered());
+        int dropped = result.getUnknownDevices() + result.getInvalid();
+        if (dropped > 0) {
+            droppedReadings.add(dropped);
+            log.warn("Async ingest dropped {} readings, first error: {}", dropped, errors.get(0));
+        }
+        // Автоматизация на том же потоке шарда сохраняет порядок событий по устройству
+        smartHomeService.runAutomation(result.getTouched());
+        return true;
+    }
+
+    /**
+     * Пауза перед повтором записи пачки (100 мс, удваивается до 5 с). false - пора сдаваться:
+     * конвейер останавливается или ошибки длятся дольше persist-retry-ms (Long.MAX_VALUE - без предела).
+     */
+    private boolean awaitRetry(int attempt, long startedNanos) {
+        if (!running) {
+            return false;
+        }
+        if (startedNanos != Long.MAX_VALUE
+                && System.nanoTime() - startedNanos >= TimeUnit.MILLISECONDS.toNanos(ingestConfig.getAsync().getPersistRetryMs())) {
+            return false;
+        }
+        long pauseMs = Math.min(MAX_RETRY_PAUSE_MS, RETRY_PAUSE_MS << Math.min(attempt - 1, 6));
+        persistRetries.increment();
+        // stop() будит поток шарда, после чего повторов больше нет
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(pauseMs));
+        return running;
+    }
+
+    private final class Shard {
+        private final int index;
+        private final IngestRingBuffer buffer;
+        private final Thread thread;
+        private final Object appendLock = new Object();
+        private volatile boolean idle;
+        private volatile WriteAheadLog wal;
+        private long persistedLsn; // Пишет только поток шарда
+        private boolean checkpointFrozen; // Только поток шарда: журнал хранит незаписанную пачку
+
+        private Shard(int index, IngestRingBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+            this.thread = new Thread(() -> runShard(this), "ingest-shard-" + index);
+        }
+    }
+}
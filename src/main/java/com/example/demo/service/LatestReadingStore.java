@@ -0,0 +1,241 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.repository.DeviceLatestReadingJdbcRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Последние показания устройств по dataType в памяти: чтение - поиск в карте, без запроса к device_data.
+ * Обновляется при записи показаний; измененные значения раз в flush-interval-ms сохраняются
+ * в device_latest_reading и загружаются оттуда при старте. Пустая таблица при первом запуске
+ * заполняется из истории одним запросом. dataType хранится кодом DataTypeDictionary.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LatestReadingStore {
+
+    private final DeviceLatestReadingJdbcRepository latestReadingJdbcRepository;
+    // Словарь стартует раньше: он же переводит device_latest_reading на коды
+    private final DataTypeDictionary dataTypeDictionary;
+    private final IngestConfig ingestConfig;
+
+    private final Map<Long, DeviceLatest> latest = new ConcurrentHashMap<>();
+    private final Set<Long> dirtyDevices = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService flushExecutor;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder flushedRows = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        IngestConfig.Latest config = ingestConfig.getLatest();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        if (config.isSeedFromHistory() && latestReadingJdbcRepository.isEmpty()) {
+            long started = System.nanoTime();
+            int seeded = latestReadingJdbcRepository.seedFromHistory();
+            log.info("Seeded {} latest readings from history in {} ms", seeded,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+        latestReadingJdbcRepository.forEach((devicePk, dataType, value, timestamp) ->
+                latest.computeIfAbsent(devicePk, id -> new DeviceLatest()).update(dataType, value, timestamp, false));
+        log.info("Loaded latest readings of {} devices", latest.size());
+
+        long interval = config.getFlushIntervalMs();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "latest-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushExecutor == null) {
+            return;
+        }
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+    }
+
+    public boolean isEnabled() {
+        return flushExecutor != null;
+    }
+
+    /**
+     * Учитывает записанное показание; более старое, чем уже известное, игнорируется.
+     */
+    public void update(long devicePk, short dataType, double value, long timestamp) {
+        if (flushExecutor == null) {
+            return;
+        }
+        if (latest.computeIfAbsent(devicePk, id -> new DeviceLatest()).update(dataType, value, timestamp, true)) {
+            dirtyDevices.add(devicePk);
+        }
+        updates.increment();
+    }
+
+    /**
+     * Самое свежее показание устройства среди всех его dataType; null, если показаний нет.
+     */
+    public LatestReading getLatest(long devicePk) {
+        DeviceLatest device = latest.get(devicePk);
+        return device != null ? device.newest() : null;
+    }
+
+    public LatestReading getLatest(long devicePk, String dataType) {
+        short code = dataTypeDictionary.find(dataType);
+        DeviceLatest device = code >= 0 ? latest.get(devicePk) : null;
+        return device != null ? device.get(code) : null;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Latest readings flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private void flush() {
+        if (dirtyDevices.isEmpty()) {
+            return;
+        }
+        List<DeviceLatestReadingJdbcRepository.LatestRow> rows = new ArrayList<>();
+        List<Long> drained = new ArrayList<>();
+        for (Iterator<Long> it = dirtyDevices.iterator(); it.hasNext(); ) {
+            Long devicePk = it.next();
+            it.remove();
+            drained.add(devicePk);
+            DeviceLatest device = latest.get(devicePk);
+            if (device != null) {
+                device.drainDirty(devicePk, rows);
+            }
+        }
+
+        try {
+            latestReadingJdbcRepository.upsertBatch(rows);
+        } catch (RuntimeException e) {
+            // Значения остаются в памяти; помечаем их снова, upsert не затрет более новые
+            for (DeviceLatestReadingJdbcRepository.LatestRow row : rows) {
+                latest.get(row.devicePk()).markDirty(row.dataType());
+            }
+            dirtyDevices.addAll(drained);
+            throw e;
+        }
+        flushedRows.add(rows.size());
+        log.debug("Flushed {} latest readings", rows.size());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", isEnabled());
+        stats.put("devices", latest.size());
+        stats.put("updates", updates.sum());
+        stats.put("dirtyDevices", dirtyDevices.size());
+        stats.put("flushedRows", flushedRows.sum());
+        return stats;
+    }
+
+    /**
+     * dataType - код DataTypeDictionary, 0 - без типа.
+     */
+    public record LatestReading(short dataType, double value, long timestamp) {
+    }
+
+    // Обычно у устройства один-два dataType, поэтому параллельные массивы с линейным поиском
+    private static final class DeviceLatest {
+        private short[] dataTypes = new short[1];
+        private double[] values = new double[1];
+        private long[] timestamps = new long[1];
+        private boolean[] dirty = new boolean[1];
+        private int size;
+
+        synchronized boolean update(short dataType, double value, long timestamp, boolean markDirty) {
+            int index = indexOf(dataType);
+            if (index < 0) {
+                if (size == dataTypes.length) {
+                    dataTypes = Arrays.copyOf(dataTypes, size * 2);
+                    values = Arrays.copyOf(values, size * 2);
+                    timestamps = Arrays.copyOf(timestamps, size * 2);
+                    dirty = Arrays.copyOf(dirty, size * 2);
+                }
+                index = size++;
+                dataTypes[index] = dataType;
+            } else if (timestamp < timestamps[index]) {
+                return false;
+            }
+            values[index] = value;
+            timestamps[index] = timestamp;
+            dirty[index] |= markDirty;
+            return markDirty;
+        }
+
+        synchronized LatestReading get(short dataType) {
+            int index = indexOf(dataType);
+            return index >= 0 ? reading(index) : null;
+        }
+
+        synchronized LatestReading newest() {
+            int best = -1;
+            for (int i = 0; i < size; i++) {
+                if (best < 0 || timestamps[i] > timestamps[best]) {
+                    best = i;
+                }
+            }
+            return best >= 0 ? reading(best) : null;
+        }
+
+        synchronized void drainDirty(long devicePk, List<DeviceLatestReadingJdbcRepository.LatestRow> rows) {
+            for (int i = 0; i < size; i++) {
+                if (dirty[i]) {
+                    rows.add(new DeviceLatestReadingJdbcRepository.LatestRow(devicePk, dataTypes[i], values[i], timestamps[i]));
+                    dirty[i] = false;
+                }
+            }
+        }
+
+        synchronized void markDirty(short dataType) {
+            int index = indexOf(dataType);
+            if (index >= 0) {
+                dirty[index] = true;
+            }
+        }
+
+        private LatestReading reading(int index) {
+            return new LatestReading(dataTypes[index], values[index], timestamps[index]);
+        }
+
+        private int indexOf(short dataType) {
+            for (int i = 0; i < size; i++) {
+                if (dataTypes[i] == dataType) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
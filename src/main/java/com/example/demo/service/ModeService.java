@@ -13,6 +13,7 @@ public class ModeService {
     
     private final ModeSettingsRepository modeSettingsRepository;
     private final AutomationService automationService;
+    private final AutomationRuleEngine automationRuleEngine;
     
     public void applyMode(String modeName) {
         ModeSettings settings = modeSettingsRepository.findByModeName(modeName);
@@ -34,6 +35,8 @@ public class ModeService {
             default:
                 applyAutoMode(settings);
         }
+        // Автоматизация читает настройки режима из кэша движка правил
+        automationRuleEngine.reload();
     }
     
     private void applyEcoMode(ModeSettings settings) {
@@ -0,0 +1,182 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.IngestResult;
+import com.example.demo.model.ReadingBatch;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый прием показаний в формате NDJSON (один JSON-объект на строку) из одного долгого запроса.
+ * Показания разбираются потоковым парсером Jackson по мере поступления, без накопления тела запроса,
+ * а в ответ периодически пишутся накопительные подтверждения: {"accepted":N,"rejected":M}.
+ * Пустые строки допустимы и работают как keep-alive.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NdjsonIngestService {
+
+    // Размер пачки для синхронной записи, если асинхронный конвейер выключен
+    private static final int SYNC_BATCH_SIZE = 500;
+
+    private final IngestPipeline ingestPipeline;
+    private final SmartHomeService smartHomeService;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final IngestConfig ingestConfig;
+    private final ObjectMapper objectMapper;
+
+    public void ingest(InputStream in, OutputStream out) throws IOException {
+        IngestConfig.Stream config = ingestConfig.getStream();
+        StreamState state = new StreamState();
+        ReadingBatch batch = ingestPipeline.isRunning() ? null : new ReadingBatch(SYNC_BATCH_SIZE);
+        long nextAckAt = System.currentTimeMillis() + config.getAckIntervalMs();
+        long readingsSinceAck = 0;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new JsonParseException(parser, "Expected a JSON object per line");
+                }
+                readReading(parser, state);
+                if (state.deviceId == null || Double.isNaN(state.value)
+                        || !ReadingBatch.isValidTimestamp(state.timestamp, System.currentTimeMillis())) {
+                    state.rejected++;
+                } else if (batch != null) {
+                    batch.add(state.deviceId, state.value, dataTypeDictionary.encode(state.dataType), state.timestamp,
+                              state.sequence);
+                    if (batch.size() == SYNC_BATCH_SIZE) {
+                        persist(batch, state);
+                    }
+                } else if (ingestPipeline.submit(state.deviceId, state.value, state.dataType, state.timestamp,
+                                                 state.sequence) != IngestPipeline.SubmitResult.REJECTED) {
+                    state.accepted++;
+                } else {
+                    state.rejected++;
+                }
+
+                readingsSinceAck++;
+                long now = System.currentTimeMillis();
+                if (readingsSinceAck >= config.getAckEvery() || now >= nextAckAt) {
+                    writeAck(out, state, null);
+                    readingsSinceAck = 0;
+                    nextAckAt = now + config.getAckIntervalMs();
+                }
+            }
+        } catch (JsonProcessingException e) {
+            log.warn("NDJSON stream aborted: {}", e.getOriginalMessage());
+            if (batch != null) {
+                persist(batch, state);
+            }
+            writeAck(out, state, e.getOriginalMessage());
+            return;
+        }
+
+        if (batch != null) {
+            persist(batch, state);
+        }
+        writeAck(out, state, null);
+        log.info("NDJSON stream finished - accepted: {}, rejected: {}", state.accepted, state.rejected);
+    }
+
+    private void readReading(JsonParser parser, StreamState state) throws IOException {
+        state.deviceId = null;
+        state.value = Double.NaN;
+        state.dataType = null;
+        state.timestamp = System.currentTimeMillis();
+        state.sequence = ReadingBatch.NO_SEQUENCE;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken valueToken = parser.nextToken();
+            if (valueToken.isStructStart()) {
+                parser.skipChildren();
+                continue;
+            }
+            if (valueToken == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "deviceId":
+                    state.deviceId = parser.getValueAsString();
+                    break;
+                case "value":
+                    if (valueToken.isNumeric()) {
+                        state.value = parser.getDoubleValue();
+                    }
+                    break;
+                case "dataType":
+                    state.dataType = parser.getValueAsString();
+                    break;
+                case "timestamp":
+                    if (valueToken.isNumeric()) {
+                        state.timestamp = parser.getLongValue();
+                    }
+                    break;
+                case "sequence":
+                    if (valueToken.isNumeric()) {
+                        state.sequence = parser.getLongValue();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void persist(ReadingBatch batch, StreamState state) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int size = batch.size();
+        List<String> errors = new ArrayList<>();
+        try {
+            IngestResult result = smartHomeService.ingestOnOwners(batch, errors);
+            // Повтор уже был принят раньше, а отфильтрованное показание обработано - для клиента это подтверждение
+            int rejected = result.getUnknownDevices() + result.getInvalid();
+            state.accepted += size - rejected;
+            state.rejected += rejected;
+        } catch (Exception e) {
+            state.rejected += size;
+            log.error("Failed to persist {} streamed readings: {}", size, e.getMessage());
+        }
+        batch.clear();
+    }
+
+    private void writeAck(OutputStream out, StreamState state, String error) throws IOException {
+        StringBuilder ack = new StringBuilder(64)
+                .append("{\"accepted\":").append(state.accepted)
+                .append(",\"rejected\":").append(state.rejected);
+        if (error != null) {
+            ack.append(",\"error\":").append(objectMapper.writeValueAsString(error));
+        }
+        ack.append("}\n");
+        out.write(ack.toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // Изменяемое состояние одного потока: переиспользуется для каждого показания
+    private static final class StreamState {
+        private String deviceId;
+        private double value;
+        private String dataType;
+        private long timestamp;
+        private long sequence;
+        private long accepted;
+        private long rejected;
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceDataJdbcRepository;
+import com.example.demo.util.ColumnarReadingWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Выгрузка инвентаря устройств и истории показаний прямо в поток ответа.
+ * История читается курсором по устройствам (индекс device_id, timestamp), поэтому сортировки всей таблицы нет,
+ * а память не зависит от диапазона. Форматы: CSV (разделитель ';', как у импорта) и колоночный
+ * ColumnarReadingWriter (gzip, словари устройств и dataType, дельты времени).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReadingExportService {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_COLUMNAR = "columnar";
+
+    private static final int WRITE_BUFFER = 64 * 1024;
+
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceDataJdbcRepository deviceDataJdbcRepository;
+    private final DataTypeDictionary dataTypeDictionary;
+
+    /**
+     * Проверяет параметры до начала ответа. deviceId или type сужают выгрузку, без них - все устройства.
+     */
+    public ExportQuery prepare(String deviceId, Device.DeviceType type, LocalDateTime from, LocalDateTime to,
+                               String format) {
+        if (!from.isBefore(to)) {
+            throw new RuntimeException("'from' must be before 'to'");
+        }
+        String exportFormat = format != null ? format.toLowerCase() : FORMAT_CSV;
+        if (!FORMAT_CSV.equals(exportFormat) && !FORMAT_COLUMNAR.equals(exportFormat)) {
+            throw new RuntimeException("Unsupported format: " + format);
+        }
+
+        List<Device> devices = new ArrayList<>();
+        if (deviceId != null) {
+            Device device = deviceRegistry.findByDeviceId(deviceId);
+            if (device == null) {
+                throw new RuntimeException("Device not found: " + deviceId);
+            }
+            devices.add(device);
+        } else {
+            for (Device device : deviceRegistry.getAll()) {
+                if (type == null || device.getType() == type) {
+                    devices.add(device);
+                }
+            }
+            devices.sort(Comparator.comparing(Device::getDeviceId));
+        }
+        return new ExportQuery(devices, Timestamp.valueOf(from), Timestamp.valueOf(to), exportFormat);
+    }
+
+    public void write(ExportQuery query, OutputStream out) throws IOException {
+        if (FORMAT_COLUMNAR.equals(query.format())) {
+            writeColumnar(query, out);
+        } else {
+            writeCsv(query, out);
+        }
+    }
+
+    /**
+     * CSV: deviceId;timestamp;value;dataType, по устройствам и внутри устройства по времени.
+     */
+    public void writeCsv(ExportQuery query, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER);
+        writer.write("deviceId;timestamp;value;dataType\n");
+        long[] rows = new long[1];
+        try {
+            for (Device device : query.devices()) {
+                String deviceField = csvField(device.getDeviceId());
+                deviceDataJdbcRepository.forEachForExport(device.getId(), query.from(), query.to(),
+                        (id, timestamp, value, dataType) -> {
+                            try {
+                                writer.write(deviceField);
+                                writer.write(';');
+                                writer.write(timestamp.toLocalDateTime().toString());
+                                writer.write(';');
+                                if (value != null) {
+                                    writer.write(Double.toString(value));
+                                }
+                                writer.write(';');
+                                String dataTypeName = dataTypeDictionary.decode(dataType);
+                                if (dataTypeName != null) {
+                                    writer.write(csvField(dataTypeName));
+                                }
+                                writer.write('\n');
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            rows[0]++;
+                        });
+            }
+        } catch (UncheckedIOException e) {
+            // Клиент закрыл соединение посреди выгрузки
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Exported {} readings of {} devices as CSV", rows[0], query.devices().size());
+    }
+
+    public void writeColumnar(ExportQuery query, OutputStream out) throws IOException {
+        ColumnarReadingWriter writer = new ColumnarReadingWriter(out);
+        try {
+            for (Device device : query.devices()) {
+                String deviceId = device.getDeviceId();
+                deviceDataJdbcRepository.forEachForExport(device.getId(), query.from(), query.to(),
+                        (id, timestamp, value, dataType) -> {
+                            try {
+                                writer.write(deviceId, timestamp.getTime(), value, dataTypeDictionary.decode(dataType));
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        });
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.finish();
+        log.info("Exported {} readings of {} devices as columnar", writer.getRows(), query.devices().size());
+    }
+
+    /**
+     * Инвентарь в формате шаблона импорта, чтобы выгрузку можно было загрузить обратно.
+     */
+    public void writeDevicesCsv(OutputStream out) throws IOException {
+        List<Device> devices = new ArrayList<>(deviceRegistry.getAll());
+        devices.sort(Comparator.comparing(Device::getDeviceId));
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER);
+        writer.write("Название устройства;Тип устройства;ID устройства;Комната;Тип комнаты;Начальное состояние;Начальное значение\n");
+        for (Device device : devices) {
+            writer.write(csvField(device.getName()));
+            writer.write(';');
+            writer.write(device.getType() != null ? device.getType().name() : "");
+            writer.write(';');
+            writer.write(csvField(device.getDeviceId()));
+            writer.write(';');
+            if (device.getRoom() != null) {
+                writer.write(csvField(device.getRoom().getName()));
+                writer.write(';');
+                writer.write(device.getRoom().getType() != null ? device.getRoom().getType().name() : "");
+            } else {
+                writer.write(';');
+            }
+            writer.write(';');
+            writer.write(device.isOnline() ? "online" : "offline");
+            writer.write(';');
+            if (device.getLastValue() != null) {
+                writer.write(Double.toString(device.getLastValue()));
+            }
+            writer.write('\n');
+        }
+        writer.flush();
+        log.info("Exported {} devices as CSV", devices.size());
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(';') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    public record ExportQuery(List<Device> devices, Timestamp from, Timestamp to, String format) {
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceDataJdbcRepository;
+import com.example.demo.util.LttbDownsampler;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+/**
+ * Сырая история показаний устройства страницами по ключу (timestamp, id).
+ * Строки читаются из БД курсором и сразу пишутся в ответ, поэтому память не зависит от размера диапазона.
+ * Ответ: {"deviceId":..., "readings":[...], "nextCursor":"..."}; nextCursor передается в следующий запрос,
+ * null - страниц больше нет.
+ * С dataType выдаются показания только этого типа.
+ * С maxPoints весь диапазон прореживается LTTB до maxPoints точек за один проход курсора,
+ * и размер ответа не зависит от ширины диапазона. Прореживается один ряд: dataType можно не указывать,
+ * только если за период у устройства есть показания одного типа.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReadingHistoryService {
+
+    public static final int DEFAULT_LIMIT = 1000;
+    public static final int MAX_LIMIT = 10000;
+    public static final int MIN_POINTS = 3;
+
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceDataJdbcRepository deviceDataJdbcRepository;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Проверяет параметры до начала ответа, чтобы ошибки возвращались обычным 400, а не обрывом потока.
+     */
+    public HistoryQuery prepare(String deviceId, LocalDateTime from, LocalDateTime to, String dataType, String cursor,
+                                Integer limit, Integer maxPoints) {
+        Device device = deviceRegistry.findByDeviceId(deviceId);
+        if (device == null) {
+            throw new RuntimeException("Device not found: " + deviceId);
+        }
+        if (!from.isBefore(to)) {
+            throw new RuntimeException("'from' must be before 'to'");
+        }
+
+        Timestamp cursorTimestamp = null;
+        Long cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            int separator = cursor.indexOf('_');
+            try {
+                long micros = Long.parseLong(cursor.substring(0, separator));
+                cursorId = Long.parseLong(cursor.substring(separator + 1));
+                cursorTimestamp = new Timestamp(Math.floorDiv(micros, 1000L));
+                cursorTimestamp.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid cursor: " + cursor);
+            }
+        }
+
+        Timestamp start = Timestamp.valueOf(from);
+        Timestamp end = Timestamp.valueOf(to);
+        Short dataTypeCode = null;
+        if (dataType != null) {
+            dataTypeCode = dataTypeDictionary.find(dataType);
+        } else if (maxPoints != null) {
+            // LTTB по смеси рядов дает бессмысленную кривую: тип должен быть один
+            List<Short> codes = deviceDataJdbcRepository.findDataTypesInRange(device.getId(), start, end);
+            if (codes.size() > 1) {
+                throw new RuntimeException("Device " + deviceId + " reports several data types, specify dataType");
+            }
+            dataTypeCode = codes.isEmpty() ? null : codes.get(0);
+        }
+
+        int pageSize = limit == null ? DEFAULT_LIMIT : Math.max(1, Math.min(limit, MAX_LIMIT));
+        Integer points = maxPoints == null ? null : Math.max(MIN_POINTS, Math.min(maxPoints, MAX_LIMIT));
+        return new HistoryQuery(deviceId, device.getId(), dataTypeCode, start, end, cursorTimestamp, cursorId,
+                pageSize, points);
+    }
+
+    public void write(HistoryQuery query, OutputStream out) throws IOException {
+        if (query.maxPoints() != null) {
+            writeDownsampled(query, out);
+        } else {
+            writeReadings(query, out);
+        }
+    }
+
+    /**
+     * Ответ {"deviceId":..., "dataType":..., "maxPoints":N, "points":[{"timestamp":..., "value":...}]}.
+     */
+    public void writeDownsampled(HistoryQuery query, OutputStream out) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("deviceId", query.deviceId());
+            json.writeStringField("dataType", query.dataType() != null ? dataTypeDictionary.decode(query.dataType()) : null);
+            json.writeNumberField("maxPoints", query.maxPoints());
+            json.writeArrayFieldStart("points");
+
+            ZoneId zone = ZoneId.systemDefault();
+            LttbDownsampler downsampler = new LttbDownsampler(query.from().getTime(), query.to().getTime(),
+                    query.maxPoints(), (timestamp, value) -> {
+                        try {
+                            json.writeStartObject();
+                            json.writeStringField("timestamp",
+                                    LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone).toString());
+                            json.writeNumberField("value", value);
+                            json.writeEndObject();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+            // null - за период нет показаний; -1 - такого типа нет ни у одного устройства
+            if (query.dataType() != null && query.dataType() >= 0) {
+                deviceDataJdbcRepository.forEachValueInRange(query.devicePk(), query.dataType(), query.from(),
+                        query.to(), downsampler::add);
+            }
+            downsampler.finish();
+
+            json.writeEndArray();
+            json.writeEndObject();
+            log.debug("Streamed {} downsampled points of {}", downsampler.getEmitted(), query.deviceId());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public void writeReadings(HistoryQuery query, OutputStream out) throws IOException {
+        try (JsonGenerator json = objectMapper.getFactory().createGenerator(out)) {
+            json.writeStartObject();
+            json.writeStringField("deviceId", query.deviceId());
+            json.writeArrayFieldStart("readings");
+
+            long[] last = new long[3]; // строк, время последней (мкс), id последней
+            deviceDataJdbcRepository.forEachInRange(query.devicePk(), query.dataType(), query.from(), query.to(),
+                    query.cursorTimestamp(), query.cursorId(), query.limit(), (id, timestamp, value, dataType) -> {
+                        try {
+                            json.writeStartObject();
+                            json.writeNumberField("id", id);
+                            json.writeStringField("timestamp", timestamp.toLocalDateTime().toString());
+                            if (value != null) {
+                                json.writeNumberField("value", value);
+                            } else {
+                                json.writeNullField("value");
+                            }
+                            json.writeStringField("dataType", dataTypeDictionary.decode(dataType));
+                            json.writeEndObject();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        last[0]++;
+                        last[1] = Math.floorDiv(timestamp.getTime(), 1000L) * 1_000_000L + timestamp.getNanos() / 1000;
+                        last[2] = id;
+                    });
+
+            json.writeEndArray();
+            // Неполная страница - последняя
+            if (last[0] == query.limit()) {
+                json.writeStringField("nextCursor", last[1] + "_" + last[2]);
+            } else {
+                json.writeNullField("nextCursor");
+            }
+            json.writeEndObject();
+            log.debug("Streamed {} readings of {}", last[0], query.deviceId());
+        } catch (UncheckedIOException e) {
+            // Клиент закрыл соединение посреди ответа
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * dataType - код DataTypeDictionary; null - все типы (без maxPoints) или нет показаний (с maxPoints).
+     */
+    public record HistoryQuery(String deviceId, long devicePk, Short dataType, Timestamp from, Timestamp to,
+                               Timestamp cursorTimestamp, Long cursorId, int limit, Integer maxPoints) {
+    }
+}
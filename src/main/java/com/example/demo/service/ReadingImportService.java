@@ -0,0 +1,362 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.ReadingImportResponse;
+import com.example.demo.model.Device;
+import com.example.demo.model.DeviceDataRollup;
+import com.example.demo.model.ReadingBatch;
+import com.example.demo.model.RollupTier;
+import com.example.demo.repository.DeviceDataCopyRepository;
+import com.example.demo.repository.DeviceDataRollupJdbcRepository;
+import com.example.demo.util.ColumnarReadingReader;
+import com.opencsv.CSVParserBuilder;
+import com.opencsv.CSVReader;
+import com.opencsv.CSVReaderBuilder;
+import com.opencsv.exceptions.CsvValidationException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Загрузка исторических показаний (бэкфилл со шлюзов) мимо конвейера приема: файл разбирается потоком
+ * и уходит в device_data через COPY. Устройства ищутся в карте, собранной из реестра один раз на файл.
+ * Автоматизация, фильтры и дедупликация не применяются - это история, а не текущее состояние;
+ * lastValue устройств не меняется. Агрегаты 1m / 1h / 1d дописываются по ходу загрузки,
+ * последние показания обновляются после фиксации, если файл новее уже известных, а ряды с показаниями
+ * внутри окна недавней истории отмечаются в RecentHistoryStore как отсутствующие в памяти.
+ * При секционированной device_data недостающие секции периодов файла создаются в той же транзакции
+ * до того, как строки периода уйдут в COPY.
+ * Форматы: CSV выгрузки (deviceId;timestamp;value;dataType) и колоночный ColumnarReadingWriter.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReadingImportService {
+
+    public static final String FORMAT_CSV = ReadingExportService.FORMAT_CSV;
+    public static final String FORMAT_COLUMNAR = ReadingExportService.FORMAT_COLUMNAR;
+
+    private static final int MAX_REPORTED_UNKNOWN = 20;
+
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceDataCopyRepository copyRepository;
+    private final DeviceDataRollupJdbcRepository rollupJdbcRepository;
+    private final LatestReadingStore latestReadingStore;
+    private final RecentHistoryStore recentHistoryStore;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final DeviceDataPartitionManager partitionManager;
+    private final IngestConfig ingestConfig;
+
+    private final LongAdder importedReadings = new LongAdder();
+    private final LongAdder skippedReadings = new LongAdder();
+    private final LongAdder imports = new LongAdder();
+
+    /**
+     * Загружает файл целиком или ничего. format - csv или columnar; null - по первым байтам (gzip - columnar).
+     */
+    public ReadingImportResponse importReadings(InputStream input, String format) throws IOException {
+        InputStream in = new BufferedInputStream(input, 64 * 1024);
+        String importFormat = format != null ? format.toLowerCase() : detectFormat(in);
+        if (!FORMAT_CSV.equals(importFormat) && !FORMAT_COLUMNAR.equals(importFormat)) {
+            throw new RuntimeException("Unsupported format: " + format);
+        }
+
+        Map<String, Long> devicePks = new HashMap<>();
+        for (Device device : deviceRegistry.getAll()) {
+            devicePks.put(device.getDeviceId(), device.getId());
+        }
+
+        long started = System.nanoTime();
+        long[] skipped = new long[1];
+        List<String> unknownDevices = new ArrayList<>();
+        RollupAccumulator rollups = ingestConfig.getRollup().isEnabled() ? new RollupAccumulator() : null;
+        // Самые новые показания файла по (устройство, dataType); в LatestReadingStore - только после фиксации
+        Map<SeriesKey, LatestReadingStore.LatestReading> newest = new HashMap<>();
+        // Диапазон времени показаний файла по ряду: [min, max]
+        Map<SeriesKey, long[]> ranges = new HashMap<>();
+        PartitionCoverage coverage = partitionManager.isPartitioned() ? new PartitionCoverage() : null;
+        long now = System.currentTimeMillis();
+
+        DeviceDataCopyRepository.ReadingSource source = sink -> {
+            RowHandler handler = (deviceId, timestamp, value, dataTypeName) -> {
+                Long devicePk = devicePks.get(deviceId);
+                if (devicePk == null) {
+                    skipped[0]++;
+                    if (unknownDevices.size() < MAX_REPORTED_UNKNOWN && !unknownDevices.contains(deviceId)) {
+                        unknownDevices.add(deviceId);
+                    }
+                    return;
+                }
+                if (!ReadingBatch.isValidTimestamp(timestamp, now)) {
+                    throw new RuntimeException("Timestamp is out of range for device " + deviceId + ": " + timestamp);
+                }
+                short dataType = dataTypeDictionary.encode(dataTypeName);
+                if (coverage != null && !coverage.covers(timestamp)) {
+                    // DDL в той же транзакции: текущий COPY закрывается, следующая строка откроет новый
+                    sink.pause();
+                    coverage.ensure(timestamp);
+                }
+                sink.accept(devicePk, timestamp, value, dataType);
+                if (value != null) {
+                    if (rollups != null) {
+                        rollups.add(devicePk, dataType, value, timestamp);
+                    }
+                    SeriesKey key = new SeriesKey(devicePk, dataType);
+                    newest.merge(key, new LatestReadingStore.LatestReading(dataType, value, timestamp),
+                            (current, candidate) -> candidate.timestamp() >= current.timestamp() ? candidate : current);
+                    long[] range = ranges.computeIfAbsent(key, series -> new long[] {timestamp, timestamp});
+                    range[0] = Math.min(range[0], timestamp);
+                    range[1] = Math.max(range[1], timestamp);
+                }
+            };
+            if (FORMAT_COLUMNAR.equals(importFormat)) {
+                new ColumnarReadingReader(in).forEach(handler::accept);
+            } else {
+                readCsv(in, handler);
+            }
+        };
+        DeviceDataCopyRepository.ChunkListener listener = (rows, last) -> {
+            if (rollups != null) {
+                rollups.flush(last);
+            }
+            log.debug("Imported {} readings so far", rows);
+        };
+
+        long imported = copyRepository.copyReadings(source, listener);
+        newest.forEach((key, reading) ->
+                latestReadingStore.update(key.devicePk(), reading.dataType(), reading.value(), reading.timestamp()));
+        ranges.forEach((key, range) -> recentHistoryStore.markUncovered(key.devicePk(), key.dataType(), range[0], range[1]));
+
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        importedReadings.add(imported);
+        skippedReadings.add(skipped[0]);
+        imports.increment();
+        log.info("Imported {} historical readings ({}) in {} ms, skipped {} of unknown devices",
+                imported, importFormat, elapsedMs, skipped[0]);
+
+        return ReadingImportResponse.builder()
+                .format(importFormat)
+                .importedCount(imported)
+                .skippedCount(skipped[0])
+                .unknownDevices(unknownDevices)
+                .elapsedMs(elapsedMs)
+                .rowsPerSecond(imported * 1000 / elapsedMs)
+                .build();
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("imports", imports.sum());
+        stats.put("imported", importedReadings.sum());
+        stats.put("skipped", skippedReadings.sum());
+        return stats;
+    }
+
+    private static String detectFormat(InputStream in) throws IOException {
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == 0x1f && second == 0x8b ? FORMAT_COLUMNAR : FORMAT_CSV;
+    }
+
+    /**
+     * CSV с заголовком; обязательны колонки deviceId и timestamp (ISO или миллисекунды), value и dataType - нет.
+     */
+    private void readCsv(InputStream in, RowHandler handler) throws IOException {
+        ZoneId zone = ZoneId.systemDefault();
+        try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(in, StandardCharsets.UTF_8))
+                .withCSVParser(new CSVParserBuilder().withSeparator(';').build())
+                .build()) {
+            String[] header = reader.readNext();
+            if (header == null) {
+                throw new RuntimeException("CSV file is empty");
+            }
+            int deviceColumn = column(header, "deviceId", true);
+            int timestampColumn = column(header, "timestamp", true);
+            int valueColumn = column(header, "value", false);
+            int dataTypeColumn = column(header, "dataType", false);
+
+            String[] row;
+            long line = 1;
+            while ((row = reader.readNext()) != null) {
+                line++;
+                if (row.length == 1 && row[0].isEmpty()) {
+                    continue;
+                }
+                try {
+                    String deviceId = field(row, deviceColumn);
+                    if (deviceId == null) {
+                        throw new NullPointerException("deviceId is empty");
+                    }
+                    String value = field(row, valueColumn);
+                    String dataType = field(row, dataTypeColumn);
+                    handler.accept(deviceId, parseTimestamp(field(row, timestampColumn), zone),
+                            value == null ? null : Double.valueOf(value), dataType);
+                } catch (NumberFormatException | DateTimeParseException | NullPointerException e) {
+                    throw new RuntimeException("Line " + line + ": " + e.getMessage());
+                }
+            }
+        } catch (CsvValidationException e) {
+            throw new RuntimeException("Invalid CSV: " + e.getMessage());
+        }
+    }
+
+    private static int column(String[] header, String name, boolean required) {
+        for (int i = 0; i < header.length; i++) {
+            // BOM в начале файла из Excel
+            if (header[i].replace("\uFEFF", "").trim().equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        if (required) {
+            throw new RuntimeException("CSV column is missing: " + name);
+        }
+        return -1;
+    }
+
+    private static String field(String[] row, int column) {
+        if (column < 0 || column >= row.length || row[column].isEmpty()) {
+            return null;
+        }
+        return row[column];
+    }
+
+    private static long parseTimestamp(String value, ZoneId zone) {
+        if (value == null) {
+            throw new NullPointerException("timestamp is empty");
+        }
+        if (Character.isDigit(value.charAt(0)) && value.indexOf('-') < 0) {
+            return Long.parseLong(value);
+        }
+        return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    private record SeriesKey(long devicePk, short dataType) {
+    }
+
+    // Диапазоны времени, для которых секция уже есть; файл обычно укладывается в несколько периодов
+    private final class PartitionCoverage {
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        boolean covers(long timestamp) {
+            Map.Entry<Long, Long> range = ranges.floorEntry(timestamp);
+            return range != null && timestamp < range.getValue();
+        }
+
+        void ensure(long timestamp) {
+            DeviceDataPartitionManager.Coverage covered =
+                    partitionManager.ensurePartition(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone));
+            long from = covered.from() != null ? covered.from().atZone(zone).toInstant().toEpochMilli() : Long.MIN_VALUE;
+            ranges.put(from, covered.to().atZone(zone).toInstant().toEpochMilli());
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowHandler {
+        void accept(String deviceId, long timestamp, Double value, String dataType) throws IOException;
+    }
+
+    // Открытые ведра каждого уровня по устройству и dataType. Закрытые ведра выдаются как частичные агрегаты
+    // и складываются с сохраненными через ON CONFLICT, поэтому порядок строк в файле не важен,
+    // а при упорядоченном по устройству и времени файле на устройство приходится одна строка на ведро
+    private final class RollupAccumulator {
+        private final Map<SeriesKey, OpenBucket[]> open = new HashMap<>();
+        private final List<DeviceDataRollup> closed = new ArrayList<>();
+        private final ZoneId zone = ZoneId.systemDefault();
+
+        void add(long devicePk, short dataType, double value, long timestamp) {
+            SeriesKey series = new SeriesKey(devicePk, dataType);
+            OpenBucket[] buckets = open.computeIfAbsent(series, key -> new OpenBucket[RollupTier.values().length]);
+            for (RollupTier tier : RollupTier.values()) {
+                long bucketStart = tier.bucketStart(timestamp);
+                OpenBucket bucket = buckets[tier.ordinal()];
+                if (bucket != null && bucket.start != bucketStart) {
+                    closed.add(bucket.toEntity(series, tier, zone));
+                    bucket = null;
+                }
+                if (bucket == null) {
+                    bucket = new OpenBucket(bucketStart);
+                    buckets[tier.ordinal()] = bucket;
+                }
+                bucket.add(value, timestamp);
+            }
+        }
+
+        void flush(boolean all) {
+            if (all) {
+                open.forEach((series, buckets) -> {
+                    for (RollupTier tier : RollupTier.values()) {
+                        if (buckets[tier.ordinal()] != null) {
+                            closed.add(buckets[tier.ordinal()].toEntity(series, tier, zone));
+                        }
+                    }
+                });
+                open.clear();
+            }
+            if (!closed.isEmpty()) {
+                rollupJdbcRepository.upsertBatch(closed);
+                closed.clear();
+            }
+        }
+    }
+
+    private static final class OpenBucket {
+        private final long start;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private double sum;
+        private long count;
+        private double last;
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        OpenBucket(long start) {
+            this.start = start;
+        }
+
+        void add(double value, long timestamp) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            count++;
+            if (timestamp >= lastTimestamp) {
+                last = value;
+                lastTimestamp = timestamp;
+            }
+        }
+
+        DeviceDataRollup toEntity(SeriesKey series, RollupTier tier, ZoneId zone) {
+            DeviceDataRollup rollup = new DeviceDataRollup();
+            rollup.setDeviceId(series.devicePk());
+            rollup.setDataTypeCode(series.dataType());
+            rollup.setTier(tier);
+            rollup.setBucketStart(LocalDateTime.ofInstant(Instant.ofEpochMilli(start), zone));
+            rollup.setMinValue(min);
+            rollup.setMaxValue(max);
+            rollup.setSumValue(sum);
+            rollup.setSampleCount(count);
+            rollup.setLastValue(last);
+            rollup.setLastTimestamp(LocalDateTime.ofInstant(Instant.ofEpochMilli(lastTimestamp), zone));
+            return rollup;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.ReadingPoint;
+import com.example.demo.dto.RecentReadingsResponse;
+import com.example.demo.model.Device;
+import com.example.demo.model.DeviceData;
+import com.example.demo.repository.DeviceDataJdbcRepository;
+import com.example.demo.repository.DeviceDataRepository;
+import com.example.demo.util.GorillaChunk;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Недавняя история показаний в памяти, сжатая блоками Gorilla (около 2-3 байт на точку).
+ * Каждый ряд (устройство, dataType) - очередь блоков по chunk-minutes; блоки старше window-hours выбрасываются.
+ * Ряды разных типов одного устройства не смешиваются: иначе XOR-сжатие соседних значений теряет смысл,
+ * а в ответ попадали бы вперемешку, например, температура и влажность.
+ * Источник истины - device_data: при старте окно заполняется из БД, дальше сюда попадают
+ * записанные в БД показания. Запросы внутри окна не обращаются к БД, кроме диапазонов,
+ * записанных в device_data мимо памяти (импорт, markUncovered): такие запросы идут в БД,
+ * пока диапазон не выйдет из окна.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RecentHistoryStore {
+
+    private final DeviceDataJdbcRepository deviceDataJdbcRepository;
+    private final DeviceDataRepository deviceDataRepository;
+    private final DeviceRegistry deviceRegistry;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final IngestConfig ingestConfig;
+
+    // devicePk -> (код dataType -> ряд)
+    private final Map<Long, Map<Short, Series>> series = new ConcurrentHashMap<>();
+    // devicePk -> (код dataType -> [min, max] времени показаний, которых нет в памяти)
+    private final Map<Long, Map<Short, long[]>> uncovered = new ConcurrentHashMap<>();
+    private ScheduledExecutorService evictionExecutor;
+
+    // С какого момента окно в памяти полное (раньше - только если данные загружены из БД)
+    private volatile long coveredSince;
+
+    private final LongAdder appendedPoints = new LongAdder();
+    private final LongAdder memoryQueries = new LongAdder();
+    private final LongAdder databaseQueries = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        IngestConfig.Recent config = ingestConfig.getRecent();
+        long now = System.currentTimeMillis();
+        coveredSince = now;
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        // Загружаем окно до старта веб-сервера и конвейера, чтобы живые показания шли строго после истории
+        if (config.isWarmup()) {
+            long from = now - windowMillis();
+            long[] loaded = new long[1];
+            deviceDataJdbcRepository.forEachSince(from, (devicePk, dataType, timestamp, value) -> {
+                append(devicePk, dataType, timestamp, value);
+                loaded[0]++;
+            });
+            coveredSince = from;
+            log.info("Recent history warmed up - {} points for {} devices in {} ms, {} bytes",
+                     loaded[0], series.size(), System.currentTimeMillis() - now, memoryBytes());
+        }
+
+        evictionExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "recent-history-evict"));
+        evictionExecutor.scheduleWithFixedDelay(this::evictSafely, 1, 1, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (evictionExecutor != null) {
+            evictionExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Добавляет записанное в БД показание. devicePk - первичный ключ устройства, dataType - код DataTypeDictionary.
+     */
+    public void append(long devicePk, short dataType, long timestamp, double value) {
+        if (!ingestConfig.getRecent().isEnabled()) {
+            return;
+        }
+        long chunkMillis = TimeUnit.MINUTES.toMillis(ingestConfig.getRecent().getChunkMinutes());
+        series.computeIfAbsent(devicePk, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(dataType, code -> new Series())
+                .append(timestamp, value, chunkMillis);
+        appendedPoints.increment();
+    }
+
+    /**
+     * Отмечает, что показания ряда за [from, to] записаны в device_data без append (импорт истории).
+     * Вызывается после фиксации записи.
+     */
+    public void markUncovered(long devicePk, short dataType, long from, long to) {
+        if (!ingestConfig.getRecent().isEnabled() || to < System.currentTimeMillis() - windowMillis()) {
+            return;
+        }
+        uncovered.computeIfAbsent(devicePk, id -> new ConcurrentHashMap<>())
+                .merge(dataType, new long[] {from, to},
+                        (current, added) -> new long[] {Math.min(current[0], added[0]), Math.max(current[1], added[1])});
+    }
+
+    /**
+     * Показания устройства одного dataType за [from, to] по возрастанию времени. dataType можно не указывать,
+     * если у устройства показания только одного типа. Если окно в памяти не покрывает from, запрос уходит в БД.
+     */
+    public RecentReadingsResponse getRecent(String deviceId, String dataType, LocalDateTime from, LocalDateTime to) {
+        Device device = deviceRegistry.findByDeviceId(deviceId);
+        if (device == null) {
+            throw new RuntimeException("Device not found: " + deviceId);
+        }
+
+        long fromMillis = toMillis(from);
+        long toMillis = toMillis(to);
+        long windowStart = Math.max(coveredSince, System.currentTimeMillis() - windowMillis());
+
+        List<ReadingPoint> points = new ArrayList<>();
+        String source;
+        if (ingestConfig.getRecent().isEnabled() && fromMillis >= windowStart
+                && !isUncovered(device.getId(), dataType, fromMillis, toMillis)) {
+            Map<Short, Series> deviceSeries = series.getOrDefault(device.getId(), Map.of());
+            Series selected;
+            if (dataType != null) {
+                selected = deviceSeries.get(dataTypeDictionary.find(dataType));
+            } else if (deviceSeries.size() > 1) {
+                throw new RuntimeException("Device " + deviceId + " reports several data types, specify dataType");
+            } else {
+                Map.Entry<Short, Series> only = deviceSeries.entrySet().stream().findFirst().orElse(null);
+                selected = only != null ? only.getValue() : null;
+                dataType = only != null ? dataTypeDictionary.decode(only.getKey()) : null;
+            }
+            if (selected != null) {
+                selected.collect(fromMillis, toMillis, points);
+            }
+            // Показания могут приходить не по порядку, поэтому сортируем
+            points.sort(Comparator.comparing(ReadingPoint::getTimestamp));
+            memoryQueries.increment();
+            source = "memory";
+        } else {
+            List<DeviceData> rows = findRows(device.getId(), dataType, from, to);
+            if (dataType == null) {
+                if (rows.stream().map(DeviceData::getDataTypeCode).distinct().count() > 1) {
+                    throw new RuntimeException("Device " + deviceId + " reports several data types, specify dataType");
+                }
+                Short code = rows.isEmpty() ? null : rows.get(0).getDataTypeCode();
+                dataType = code != null ? dataTypeDictionary.decode(code) : null;
+            }
+            for (int i = rows.size() - 1; i >= 0; i--) {
+                DeviceData row = rows.get(i);
+                if (row.getValue() != null) {
+                    points.add(new ReadingPoint(row.getTimestamp(), row.getValue()));
+                }
+            }
+            databaseQueries.increment();
+            source = "database";
+        }
+
+        return RecentReadingsResponse.builder()
+                .deviceId(deviceId)
+                .dataType(dataType)
+                .from(from)
+                .to(to)
+                .source(source)
+                .points(points)
+                .build();
+    }
+
+    private List<DeviceData> findRows(long devicePk, String dataType, LocalDateTime from, LocalDateTime to) {
+        if (dataType == null) {
+            return deviceDataRepository.findByDeviceIdAndTimestampBetweenOrderByTimestampDesc(devicePk, from, to);
+        }
+        short code = dataTypeDictionary.find(dataType);
+        if (code < 0) {
+            return List.of();
+        }
+        // Показания без dataType хранятся с NULL в data_type_code
+        return code == DataTypeDictionary.NONE
+                ? deviceDataRepository.findByDeviceIdAndDataTypeCodeIsNullAndTimestampBetweenOrderByTimestampDesc(
+                        devicePk, from, to)
+                : deviceDataRepository.findByDeviceIdAndDataTypeCodeAndTimestampBetweenOrderByTimestampDesc(
+                        devicePk, code, from, to);
+    }
+
+    // Без dataType учитываются все ряды устройства: смешение типов проверяет запрос к БД
+    private boolean isUncovered(long devicePk, String dataType, long from, long to) {
+        Map<Short, long[]> ranges = uncovered.get(devicePk);
+        if (ranges == null) {
+            return false;
+        }
+        for (Map.Entry<Short, long[]> range : ranges.entrySet()) {
+            if ((dataType == null || range.getKey() == dataTypeDictionary.find(dataType))
+                    && range.getValue()[0] <= to && range.getValue()[1] >= from) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void evictSafely() {
+        try {
+            long horizon = System.currentTimeMillis() - windowMillis();
+            uncovered.values().forEach(ranges -> ranges.values().removeIf(range -> range[1] < horizon));
+            uncovered.values().removeIf(Map::isEmpty);
+            int evicted = 0;
+            for (Map<Short, Series> deviceSeries : series.values()) {
+                for (Series typeSeries : deviceSeries.values()) {
+                    evicted += typeSeries.evictBefore(horizon);
+                }
+            }
+            if (evicted > 0) {
+                log.debug("Evicted {} recent history chunks", evicted);
+            }
+        } catch (Exception e) {
+            log.error("Recent history eviction failed: {}", e.getMessage(), e);
+        }
+    }
+
+    private long windowMillis() {
+        return TimeUnit.HOURS.toMillis(ingestConfig.getRecent().getWindowHours());
+    }
+
+    private long memoryBytes() {
+        long bytes = 0;
+        for (Map<Short, Series> deviceSeries : series.values()) {
+            for (Series typeSeries : deviceSeries.values()) {
+                bytes += typeSeries.sizeInBytes();
+            }
+        }
+        return bytes;
+    }
+
+    public Map<String, Object> getStats() {
+        long points = 0;
+        long bytes = 0;
+        int seriesCount = 0;
+        for (Map<Short, Series> deviceSeries : series.values()) {
+            for (Series typeSeries : deviceSeries.values()) {
+                points += typeSeries.points();
+                bytes += typeSeries.sizeInBytes();
+                seriesCount++;
+            }
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getRecent().isEnabled());
+        stats.put("devices", series.size());
+        stats.put("series", seriesCount);
+        stats.put("points", points);
+        stats.put("bytes", bytes);
+        stats.put("bytesPerPoint", points > 0 ? (double) bytes / points : 0);
+        stats.put("appended", appendedPoints.sum());
+        stats.put("memoryQueries", memoryQueries.sum());
+        stats.put("databaseQueries", databaseQueries.sum());
+        return stats;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    // Блоки одного ряда; пишут потоки приема, читают запросы - всё под монитором ряда
+    private static final class Series {
+        private final ArrayDeque<GorillaChunk> chunks = new ArrayDeque<>();
+
+        synchronized void append(long timestamp, double value, long chunkMillis) {
+            GorillaChunk current = chunks.peekLast();
+            if (current == null || timestamp >= current.getStartTime() + chunkMillis) {
+                if (current != null) {
+                    current.seal();
+                }
+                current = new GorillaChunk(Math.floorDiv(timestamp, chunkMillis) * chunkMillis);
+                chunks.addLast(current);
+            }
+            // Опоздавшее показание дописывается в текущий блок: границы блока по min/max времени
+            current.append(timestamp, value);
+        }
+
+        synchronized void collect(long from, long to, List<ReadingPoint> points) {
+            for (GorillaChunk chunk : chunks) {
+                if (chunk.getMaxTimestamp() < from || chunk.getMinTimestamp() > to) {
+                    continue;
+                }
+                chunk.forEach((timestamp, value) -> {
+                    if (timestamp >= from && timestamp <= to) {
+                        points.add(new ReadingPoint(toLocalDateTime(timestamp), value));
+                    }
+                });
+            }
+        }
+
+        synchronized int evictBefore(long horizon) {
+            int evicted = 0;
+            while (!chunks.isEmpty() && chunks.peekFirst().getMaxTimestamp() < horizon) {
+                chunks.pollFirst();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        synchronized long points() {
+            long points = 0;
+            for (GorillaChunk chunk : chunks) {
+                points += chunk.size();
+            }
+            return points;
+        }
+
+        synchronized long sizeInBytes() {
+            long bytes = 0;
+            for (GorillaChunk chunk : chunks) {
+                bytes += chunk.sizeInBytes();
+            }
+            return bytes;
+        }
+    }
+}
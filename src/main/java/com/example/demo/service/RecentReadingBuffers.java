@@ -0,0 +1,68 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.Device;
+import com.example.demo.util.ReadingRingBuffer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Последние показания датчиков в кольцевых буферах на примитивных массивах - источник для оконных запросов
+ * автоматизации ("было ли движение за последние 5 минут") без обращения к БД и без упаковки значений.
+ * Буфер заводится на устройство при первом показании, если его тип входит в buffers.types.
+ */
+@Service
+@RequiredArgsConstructor
+public class RecentReadingBuffers {
+
+    private final IngestConfig ingestConfig;
+
+    private final Map<Long, ReadingRingBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final LongAdder appended = new LongAdder();
+
+    public void append(Device device, long timestamp, double value) {
+        IngestConfig.Buffers config = ingestConfig.getBuffers();
+        if (!config.isEnabled() || !config.getTypes().contains(device.getType())) {
+            return;
+        }
+        ReadingRingBuffer buffer = buffers.get(device.getId());
+        if (buffer == null) {
+            buffer = buffers.computeIfAbsent(device.getId(), id -> new ReadingRingBuffer(config.getCapacity()));
+        }
+        buffer.append(timestamp, value);
+        appended.increment();
+    }
+
+    /**
+     * Буфер устройства; null, если показаний не было или тип не отслеживается.
+     */
+    public ReadingRingBuffer get(long devicePk) {
+        return buffers.get(devicePk);
+    }
+
+    /**
+     * Было ли за последние windowMillis показание не меньше minValue; null, если показаний устройства нет в памяти.
+     */
+    public Boolean anySince(long devicePk, long windowMillis, double minValue) {
+        ReadingRingBuffer buffer = buffers.get(devicePk);
+        if (buffer == null) {
+            return null;
+        }
+        return buffer.countSince(System.currentTimeMillis() - windowMillis, minValue) > 0;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getBuffers().isEnabled());
+        stats.put("devices", buffers.size());
+        stats.put("capacity", ingestConfig.getBuffers().getCapacity());
+        stats.put("appended", appended.sum());
+        return stats;
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.PercentileGroup;
+import com.example.demo.dto.PercentileResponse;
+import com.example.demo.model.Device;
+import com.example.demo.model.RollupTier;
+import com.example.demo.repository.DeviceDataSketchJdbcRepository;
+import com.example.demo.util.QuantileSketch;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Перцентили показаний по произвольным окнам без чтения сырых данных.
+ * При приеме записанное показание добавляется в сливаемые скетчи (QuantileSketch) своего ряда
+ * (устройство, dataType) по минутам и часам. Запрос сливает скетчи нужных ведер одного dataType
+ * по всем устройствам группы (комната, тип или устройство):
+ * это сотни-тысячи сложений небольших массивов, а не сортировка миллионов строк.
+ * Минутные скетчи живут только в памяти, часовые периодически сохраняются в device_data_sketch
+ * и загружаются при старте.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class SensorQuantileService {
+
+    public static final String GROUP_BY_ROOM = "room";
+    public static final String GROUP_BY_TYPE = "type";
+    public static final String GROUP_BY_DEVICE = "device";
+
+    private static final String NO_ROOM = "unassigned";
+
+    private final DeviceDataSketchJdbcRepository sketchJdbcRepository;
+    private final DeviceRegistry deviceRegistry;
+    private final IngestConfig ingestConfig;
+    private final DataTypeDictionary dataTypeDictionary;
+
+    // devicePk -> (код dataType -> скетчи ряда)
+    private final Map<Long, Map<Short, SeriesSketches>> sketches = new ConcurrentHashMap<>();
+    private ScheduledExecutorService flushExecutor;
+    // Минутные скетчи не сохраняются: полные минуты есть только с первой целой минуты после старта
+    private volatile long minuteCoveredSince = Long.MAX_VALUE;
+
+    private final LongAdder recordedReadings = new LongAdder();
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder flushedSketches = new LongAdder();
+    private final LongAdder failedFlushes = new LongAdder();
+
+    @PostConstruct
+    public void start() {
+        IngestConfig.Quantiles config = ingestConfig.getQuantiles();
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        if (sketchJdbcRepository.hasLegacyKey()) {
+            sketchJdbcRepository.switchToDataTypeKey();
+            log.warn("Dropped hourly quantile sketches that mixed data types; they are collected again from new readings");
+        }
+
+        long from = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(config.getHourRetentionDays());
+        long[] loaded = new long[1];
+        sketchJdbcRepository.forEachSince(RollupTier.HOUR, from, (devicePk, dataType, bucketStart, data) -> {
+            series(devicePk, dataType).load(RollupTier.HOUR, bucketStart, QuantileSketch.fromBytes(data));
+            loaded[0]++;
+        });
+        log.info("Loaded {} hourly quantile sketches for {} devices", loaded[0], sketches.size());
+        long now = System.currentTimeMillis();
+        minuteCoveredSince = RollupTier.MINUTE.bucketStart(now) + RollupTier.MINUTE.getBucketMillis();
+
+        long interval = config.getFlushIntervalMs();
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "quantile-flush"));
+        flushExecutor.scheduleWithFixedDelay(this::flushSafely, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (flushExecutor == null) {
+            return;
+        }
+        flushExecutor.shutdown();
+        try {
+            flushExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushSafely();
+    }
+
+    /**
+     * Учитывает записанное показание, если тип устройства входит в quantiles.types.
+     * dataType - код DataTypeDictionary. Вызывается только после успешной записи в device_data.
+     */
+    public void record(Device device, short dataType, double value, long timestamp) {
+        IngestConfig.Quantiles config = ingestConfig.getQuantiles();
+        if (!config.isEnabled() || !config.getTypes().contains(device.getType())) {
+            return;
+        }
+        series(device.getId(), dataType).add(timestamp, value);
+        recordedReadings.increment();
+    }
+
+    private SeriesSketches series(long devicePk, short dataType) {
+        return sketches.computeIfAbsent(devicePk, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(dataType, code -> new SeriesSketches());
+    }
+
+    /**
+     * Перцентили по группам за [from, to). type - тип устройств (null - все отслеживаемые типы),
+     * groupBy - room, type или device. Минутные ведра используются, пока окно укладывается в их срок хранения
+     * и начинается после старта приложения (раньше минутных скетчей нет), иначе часовые (крайние часы берутся целиком).
+     * Сливаются показания одного dataType; его можно не указывать, если за окно у каждого устройства
+     * есть показания только одного типа.
+     */
+    public PercentileResponse query(Device.DeviceType type, String dataType, String groupBy, LocalDateTime from,
+                                    LocalDateTime to, double[] quantiles) {
+        if (!from.isBefore(to)) {
+            throw new RuntimeException("'from' must be before 'to'");
+        }
+        String grouping = groupBy != null ? groupBy : GROUP_BY_ROOM;
+        if (!GROUP_BY_ROOM.equals(grouping) && !GROUP_BY_TYPE.equals(grouping) && !GROUP_BY_DEVICE.equals(grouping)) {
+            throw new RuntimeException("Unsupported groupBy: " + groupBy);
+        }
+        for (double q : quantiles) {
+            if (!(q >= 0 && q <= 1)) {
+                throw new RuntimeException("Quantile must be within [0, 1]: " + q);
+            }
+        }
+
+        IngestConfig.Quantiles config = ingestConfig.getQuantiles();
+        ZoneId zone = ZoneId.systemDefault();
+        long fromMillis = from.atZone(zone).toInstant().toEpochMilli();
+        long toMillis = to.atZone(zone).toInstant().toEpochMilli();
+        long minuteHorizon = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(config.getMinuteRetentionHours());
+        long minuteFrom = Math.max(minuteHorizon, minuteCoveredSince);
+        RollupTier tier = fromMillis >= minuteFrom ? RollupTier.MINUTE : RollupTier.HOUR;
+        long bucketFrom = tier.bucketStart(fromMillis);
+        short dataTypeCode = dataType != null ? dataTypeDictionary.find(dataType) : -1;
+
+        Map<String, GroupAccumulator> groups = new TreeMap<>();
+        for (Device device : deviceRegistry.getAll()) {
+            if (type != null ? device.getType() != type : !config.getTypes().contains(device.getType())) {
+                continue;
+            }
+            Map<Short, SeriesSketches> deviceSeries = sketches.get(device.getId());
+            if (deviceSeries == null) {
+                continue;
+            }
+            SeriesSketches selected = null;
+            if (dataType != null) {
+                selected = deviceSeries.get(dataTypeCode);
+            } else {
+                for (SeriesSketches candidate : deviceSeries.values()) {
+                    if (!candidate.hasData(tier, bucketFrom, toMillis)) {
+                        continue;
+                    }
+                    if (selected != null) {
+                        throw new RuntimeException("Device " + device.getDeviceId()
+                                + " reports several data types, specify dataType");
+                    }
+                    selected = candidate;
+                }
+            }
+            if (selected == null) {
+                continue;
+            }
+            GroupAccumulator accumulator = groups.computeIfAbsent(groupKey(device, grouping), key -> new GroupAccumulator());
+            if (selected.mergeInto(accumulator.sketch, tier, bucketFrom, toMillis)) {
+                accumulator.devices++;
+            }
+        }
+
+        List<PercentileGroup> result = new ArrayList<>(groups.size());
+        groups.forEach((key, accumulator) -> {
+            QuantileSketch sketch = accumulator.sketch;
+            if (sketch.getCount() == 0) {
+                return;
+            }
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            for (double q : quantiles) {
+                percentiles.put(percentileName(q), sketch.quantile(q));
+            }
+            result.add(PercentileGroup.builder()
+                    .group(key)
+                    .devices(accumulator.devices)
+                    .count(sketch.getCount())
+                    .min(sketch.getMin())
+                    .max(sketch.getMax())
+                    .avg(sketch.getSum() / sketch.getCount())
+                    .percentiles(percentiles)
+                    .build());
+        });
+        queries.increment();
+
+        return PercentileResponse.builder()
+                .type(type)
+                .dataType(dataType)
+                .groupBy(grouping)
+                .tier(tier)
+                .from(from)
+                .to(to)
+                .groups(result)
+                .build();
+    }
+
+    private static String groupKey(Device device, String groupBy) {
+        return switch (groupBy) {
+            case GROUP_BY_TYPE -> device.getType().name();
+            case GROUP_BY_DEVICE -> device.getDeviceId();
+            default -> device.getRoom() != null ? device.getRoom().getName() : NO_ROOM;
+        };
+    }
+
+    private static String percentileName(double q) {
+        double percent = q * 100;
+        return percent == Math.rint(percent) ? "p" + (long) percent : "p" + percent;
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("Quantile sketch flush failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Сохраняет измененные часовые скетчи и выбрасывает ведра старше срока хранения.
+     * Если запись не удалась, отметки об изменении возвращаются, и скетчи сохранятся следующим сбросом.
+     */
+    private void flush() {
+        IngestConfig.Quantiles config = ingestConfig.getQuantiles();
+        long now = System.currentTimeMillis();
+        long minuteHorizon = now - TimeUnit.HOURS.toMillis(config.getMinuteRetentionHours());
+        long hourHorizon = now - TimeUnit.DAYS.toMillis(config.getHourRetentionDays());
+
+        List<DeviceDataSketchJdbcRepository.SketchRow> rows = new ArrayList<>();
+        List<SeriesSketches> owners = new ArrayList<>();
+        sketches.forEach((devicePk, deviceSeries) -> deviceSeries.forEach((dataType, series) -> {
+            series.collectDirtyHours(devicePk, dataType, rows, owners);
+            series.evict(minuteHorizon, hourHorizon);
+        }));
+
+        if (!rows.isEmpty()) {
+            try {
+                sketchJdbcRepository.upsertBatch(rows);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < rows.size(); i++) {
+                    owners.get(i).markDirty(rows.get(i).bucketStart());
+                }
+                failedFlushes.increment();
+                throw e;
+            }
+            flushedSketches.add(rows.size());
+        }
+        sketchJdbcRepository.deleteBefore(RollupTier.HOUR, hourHorizon);
+        log.debug("Flushed {} hourly quantile sketches", rows.size());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getQuantiles().isEnabled());
+        stats.put("devices", sketches.size());
+        stats.put("recorded", recordedReadings.sum());
+        stats.put("queries", queries.sum());
+        stats.put("flushedSketches", flushedSketches.sum());
+        stats.put("failedFlushes", failedFlushes.sum());
+        return stats;
+    }
+
+    private static final class GroupAccumulator {
+        private final QuantileSketch sketch = new QuantileSketch();
+        private int devices;
+    }
+
+    // Скетчи одного ряда по ведрам; пишут потоки приема, читают запросы и сброс - под монитором
+    private static final class SeriesSketches {
+        private final TreeMap<Long, QuantileSketch> minutes = new TreeMap<>();
+        private final TreeMap<Long, QuantileSketch> hours = new TreeMap<>();
+        private final Map<Long, Boolean> dirtyHours = new LinkedHashMap<>();
+
+        synchronized void add(long timestamp, double value) {
+            minutes.computeIfAbsent(RollupTier.MINUTE.bucketStart(timestamp), start -> new QuantileSketch()).add(value);
+            long hour = RollupTier.HOUR.bucketStart(timestamp);
+            hours.computeIfAbsent(hour, start -> new QuantileSketch()).add(value);
+            dirtyHours.put(hour, Boolean.TRUE);
+        }
+
+        synchronized void load(RollupTier tier, long bucketStart, QuantileSketch sketch) {
+            (tier == RollupTier.MINUTE ? minutes : hours).put(bucketStart, sketch);
+        }
+
+        synchronized boolean hasData(RollupTier tier, long from, long to) {
+            return !(tier == RollupTier.MINUTE ? minutes : hours).subMap(from, to).isEmpty();
+        }
+
+        synchronized boolean mergeInto(QuantileSketch target, RollupTier tier, long from, long to) {
+            boolean merged = false;
+            for (QuantileSketch sketch : (tier == RollupTier.MINUTE ? minutes : hours).subMap(from, to).values()) {
+                target.merge(sketch);
+                merged = true;
+            }
+            return merged;
+        }
+
+        synchronized void collectDirtyHours(long devicePk, short dataType, List<DeviceDataSketchJdbcRepository.SketchRow> rows,
+                                            List<SeriesSketches> owners) {
+            for (Long hour : dirtyHours.keySet()) {
+                QuantileSketch sketch = hours.get(hour);
+                if (sketch != null) {
+                    rows.add(new DeviceDataSketchJdbcRepository.SketchRow(devicePk, dataType, RollupTier.HOUR, hour,
+                            sketch.toBytes()));
+                    owners.add(this);
+                }
+            }
+            dirtyHours.clear();
+        }
+
+        synchronized void markDirty(long hour) {
+            dirtyHours.put(hour, Boolean.TRUE);
+        }
+
+        synchronized void evict(long minuteHorizon, long hourHorizon) {
+            minutes.headMap(minuteHorizon).clear();
+            hours.headMap(hourHorizon).clear();
+        }
+    }
+}
@@ -1,12 +1,26 @@
 package com.example.demo.service;
 
+import com.example.demo.config.IngestConfig;
+import com.example.demo.dto.BatchIngestResponse;
+import com.example.demo.dto.DeviceDataRequest;
 import com.example.demo.model.*;
 import com.example.demo.repository.*;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionException;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -14,11 +28,28 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class SmartHomeService {
     
+    // Сколько сообщений об ошибках возвращать клиенту в ответе на пакетную загрузку
+    private static final int MAX_BATCH_ERRORS = 100;
+    
     private final RoomRepository roomRepository;
     private final DeviceRepository deviceRepository;
     private final DeviceDataRepository deviceDataRepository;
+    private final DeviceDataJdbcRepository deviceDataJdbcRepository;
     private final ModeSettingsRepository modeSettingsRepository;
     private final AutomationService automationService;
+    private final DeviceStateWriteBehind deviceStateWriteBehind;
+    private final DeviceRegistry deviceRegistry;
+    private final IngestDedupService ingestDedupService;
+    private final TelemetryFilterService telemetryFilterService;
+    private final IngestConfig ingestConfig;
+    private final DeviceDataRollupService deviceDataRollupService;
+    private final SensorQuantileService sensorQuantileService;
+    private final RecentHistoryStore recentHistoryStore;
+    private final LatestReadingStore latestReadingStore;
+    private final DataTypeDictionary dataTypeDictionary;
+    private final RecentReadingBuffers recentReadingBuffers;
+    private final AutomationRuleEngine automationRuleEngine;
+    private final DeviceShardExecutor deviceShardExecutor;
     
     public RoomStatus getRoomStatus(Long roomId) {
         log.debug("Getting room status for roomId: {}", roomId);
@@ -36,12 +67,21 @@ public class SmartHomeService {
         List<Device> devices = deviceRepository.findByRoomId(roomId);
         log.debug("Found {} devices for room: {}", devices.size(), room.getName());
         
+        long occupancyWindow = ingestConfig.getBuffers().getOccupancyWindowMs();
+        Boolean motionDetected = null;
         for (Device device : devices) {
+            deviceStateWriteBehind.applyPending(device);
+            if (device.getType() == Device.DeviceType.MOTION_SENSOR) {
+                Boolean motion = recentReadingBuffers.anySince(device.getId(), occupancyWindow, 1.0);
+                if (motion != null) {
+                    motionDetected = Boolean.TRUE.equals(motionDetected) || motion;
+                }
+            }
             if (device.getType().name().contains("SENSOR")) {
-                DeviceData latestData = deviceDataRepository.findTopByDeviceIdOrderByTimestampDesc(device.getId());
-                if (latestData != null) {
-                    status.getSensorData().put(device.getType().name(), latestData.getValue());
-                    log.trace("Sensor data for {}: {}", device.getName(), latestData.getValue());
+                Double latestValue = findLatestValue(device.getId());
+                if (latestValue != null) {
+                    status.getSensorData().put(device.getType().name(), latestValue);
+                    log.trace("Sensor data for {}: {}", device.getName(), latestValue);
                 }
             }
             
@@ -53,7 +93,7 @@ public class SmartHomeService {
             status.getDeviceStatus().put(device.getName(), deviceStatus);
         }
         
-        status.setOccupied(detectRoomOccupancy(status));
+        status.setOccupied(detectRoomOccupancy(status, motionDetected));
         status.setCurrentMode(getCurrentMode().getModeName());
         
         log.info("Room status retrieved for {}: {} devices, occupied: {}", 
@@ -61,33 +101,426 @@ public class SmartHomeService {
         return status;
     }
     
+    /**
+     * Последнее значение датчика из LatestReadingStore; в БД - только если в памяти его нет.
+     */
+    private Double findLatestValue(Long deviceId) {
+        LatestReadingStore.LatestReading latest = latestReadingStore.getLatest(deviceId);
+        if (latest != null) {
+            return latest.value();
+        }
+        DeviceData latestData = findLatestData(deviceId);
+        return latestData != null ? latestData.getValue() : null;
+    }
+    
+    /**
+     * Последнее показание устройства: сначала в окне latest-lookback-days (при секционировании
+     * это несколько последних секций), и только если там пусто - по всей истории.
+     */
+    private DeviceData findLatestData(Long deviceId) {
+        int lookbackDays = ingestConfig.getPartitioning().getLatestLookbackDays();
+        if (lookbackDays > 0) {
+            DeviceData latest = deviceDataRepository.findTopByDeviceIdAndTimestampGreaterThanEqualOrderByTimestampDesc(
+                    deviceId, LocalDateTime.now().minusDays(lookbackDays));
+            if (latest != null) {
+                return latest;
+            }
+        }
+        return deviceDataRepository.findTopByDeviceIdOrderByTimestampDesc(deviceId);
+    }
+    
     public void processDeviceData(String deviceId, Double value, String dataType) {
+        processDeviceData(deviceId, value, dataType, null);
+    }
+    
+    /**
+     * Прием одного показания. sequence - необязательный номер показания для отсева повторов.
+     * Идет тем же путем, что и пакетный прием, только пачка из одного показания.
+     * Запись и автоматизация выполняются на потоке-владельце устройства, запрос ждет их завершения.
+     */
+    public void processDeviceData(String deviceId, Double value, String dataType, Long sequence) {
         log.info("Processing device data - Device: {}, Value: {}, Type: {}", deviceId, value, dataType);
         
-        Device device = deviceRepository.findByDeviceId(deviceId);
+        Device device = deviceRegistry.findByDeviceId(deviceId);
         if (device == null) {
             log.error("Device not found: {}", deviceId);
             throw new RuntimeException("Device not found: " + deviceId);
         }
         
-        DeviceData deviceData = new DeviceData();
-        deviceData.setDevice(device);
-        deviceData.setValue(value);
-        deviceData.setDataType(dataType);
-        deviceData.setTimestamp(LocalDateTime.now());
-        deviceDataRepository.save(deviceData);
-        
-        device.setLastValue(value);
-        device.setOnline(true);
-        deviceRepository.save(device);
+        ReadingBatch batch = new ReadingBatch(1);
+        batch.add(deviceId, value, dataTypeDictionary.encode(dataType), System.currentTimeMillis(),
+                  sequence != null ? sequence : ReadingBatch.NO_SEQUENCE);
+        IngestResult result = ingestOnOwners(batch, new ArrayList<>());
+        if (result.getInvalid() > 0) {
+            throw new RuntimeException("Reading rejected by the database");
+        }
+        if (result.getDuplicates() > 0) {
+            log.debug("Duplicate reading {} from {} ignored", sequence, deviceId);
+            return;
+        }
         
         log.debug("Device data saved and automation triggered for: {}", device.getName());
-        automationService.processAutomation(device, value);
     }
     
+    /**
+     * Пакетный прием показаний: одна выборка устройств, один JDBC-батч вставок,
+     * автоматизация запускается один раз на устройство по последнему показанию.
+     * Пачка делится по шардам, каждая часть пишется потоком-владельцем своих устройств.
+     */
+    public BatchIngestResponse processDeviceDataBatch(List<DeviceDataRequest> requests) {
+        log.info("Processing device data batch of {} readings", requests.size());
+        
+        List<String> errors = new ArrayList<>();
+        ReadingBatch batch = new ReadingBatch(requests.size());
+        long now = System.currentTimeMillis();
+        int invalid = 0;
+        
+        for (int i = 0; i < requests.size(); i++) {
+            DeviceDataRequest request = requests.get(i);
+            if (request.getDeviceId() == null || request.getValue() == null) {
+                invalid++;
+                addBatchError(errors, "Reading " + i + ": deviceId and value are required");
+                continue;
+            }
+            long timestamp = request.getTimestamp() != null ? request.getTimestamp() : now;
+            if (!ReadingBatch.isValidTimestamp(timestamp, now)) {
+                invalid++;
+                addBatchError(errors, "Reading " + i + ": timestamp is out of range");
+                continue;
+            }
+            long sequence = request.getSequence() != null ? request.getSequence() : ReadingBatch.NO_SEQUENCE;
+            batch.add(request.getDeviceId(), request.getValue(), dataTypeDictionary.encode(request.getDataType()),
+                      timestamp, sequence);
+        }
+        
+        int submitted = batch.size();
+        IngestResult result = ingestOnOwners(batch, errors);
+        int stored = submitted - result.getUnknownDevices() - result.getDuplicates() - result.getFiltered()
+                - result.getInvalid();
+        
+        invalid += result.getInvalid();
+        int rejected = invalid + result.getUnknownDevices();
+        log.info("Device data batch processed - stored: {}, filtered: {}, duplicates: {}, rejected: {} ({} invalid)",
+                 stored, result.getFiltered(), result.getDuplicates(), rejected, invalid);
+        
+        return BatchIngestResponse.builder()
+                .acceptedCount(stored + result.getFiltered())
+                .filteredCount(result.getFiltered())
+                .duplicateCount(result.getDuplicates())
+                .rejectedCount(rejected)
+                .devicesAffected(result.getTouched().size())
+                .errors(errors)
+                .build();
+    }
+    
+    /**
+     * Записывает пачку из потока запроса: показания раскладываются по шардам устройств,
+     * каждая часть сохраняется (persistReadings) и проходит автоматизацию на потоке-владельце шарда.
+     * Ждет все части и возвращает общий итог; первая ошибка записи пробрасывается после ожидания остальных.
+     * Переданная пачка после вызова не используется.
+     */
+    public IngestResult ingestOnOwners(ReadingBatch batch, List<String> errors) {
+        if (batch.isEmpty()) {
+            return IngestResult.EMPTY;
+        }
+        
+        ReadingBatch[] parts = new ReadingBatch[deviceShardExecutor.shardCount()];
+        for (int i = 0; i < batch.size(); i++) {
+            int shard = deviceShardExecutor.shardOf(batch.getDeviceId(i));
+            if (parts[shard] == null) {
+                parts[shard] = new ReadingBatch(batch.size());
+            }
+            parts[shard].add(batch.getDeviceId(i), batch.getValue(i), batch.getDataType(i),
+                             batch.getTimestamp(i), batch.getSequence(i));
+        }
+        
+        List<CompletableFuture<IngestResult>> futures = new ArrayList<>();
+        List<List<String>> partErrors = new ArrayList<>();
+        for (int shard = 0; shard < parts.length; shard++) {
+            ReadingBatch part = parts[shard];
+            if (part == null) {
+                continue;
+            }
+            List<String> shardErrors = new ArrayList<>();
+            partErrors.add(shardErrors);
+            futures.add(deviceShardExecutor.submit(shard, () -> {
+                IngestResult result = persistReadings(part, shardErrors);
+                runAutomation(result.getTouched());
+                return result;
+            }));
+        }
+        
+        Map<String, Device> touched = new LinkedHashMap<>();
+        int[] counters = new int[4]; // неизвестные устройства, повторы, отфильтровано, не приняты БД
+        RuntimeException failure = null;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ingestConfig.getAsync().getSyncWaitMs());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                IngestResult result = awaitPart(futures.get(i), deadline);
+                touched.putAll(result.getTouched());
+                counters[0] += result.getUnknownDevices();
+                counters[1] += result.getDuplicates();
+                counters[2] += result.getFiltered();
+                counters[3] += result.getInvalid();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            partErrors.get(i).forEach(error -> addBatchError(errors, error));
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return new IngestResult(touched, counters[0], counters[1], counters[2], counters[3]);
+    }
+    
+    /**
+     * Ждет часть пачки до deadline. Если поток шарда за это время так и не взялся за нее (например,
+     * повторяет запись в недоступную БД), часть снимается с очереди и запрос получает отказ;
+     * начатая часть дожидается до конца, чтобы ответ совпадал с тем, что записано.
+     */
+    private IngestResult awaitPart(CompletableFuture<IngestResult> future, long deadline) {
+        try {
+            try {
+                return future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (deviceShardExecutor.cancelIfPending(future)) {
+                    throw new RuntimeException("Ingest shard is busy, retry later");
+                }
+                return future.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (deviceShardExecutor.cancelIfPending(future)) {
+                    throw new RuntimeException("Interrupted while waiting for ingest");
+                }
+                return future.join();
+            }
+        } catch (ExecutionException | CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+    
+    /**
+     * Сохраняет пачку показаний и обновляет состояние устройств.
+     * Показания неизвестных устройств, повторы (по номеру последовательности) и показания,
+     * отсеянные фильтром, удаляются из пачки; по показаниям внутри мертвой зоны состояние устройства
+     * все равно обновляется, а слишком частые отбрасываются целиком. Состояние устройств, фильтра
+     * и агрегаты истории меняются только после успешной записи пачки: при ошибке все решения
+     * откатываются, и повтор запроса обрабатывается как в первый раз.
+     * Возвращаются устройства, для которых нужно запустить автоматизацию, в порядке первого появления.
+     * Меняет сущности устройств из реестра, поэтому вызывается только на потоке-владельце шарда
+     * (поток IngestPipeline или ingestOnOwners) либо до начала приема (досылка журнала).
+     */
+    public IngestResult persistReadings(ReadingBatch batch, List<String> errors) {
+        return persistReadings(batch, errors, attempt -> false);
+    }
+    
+    /**
+     * То же, но при временной ошибке БД (соединение, таймаут, блокировка) повторяется только сама вставка,
+     * пока retry разрешает (retry получает номер неудачной попытки и может подождать перед ответом).
+     * Если БД отвергла данные (нарушение ограничения, значение вне диапазона), виновные показания
+     * находятся пробными вставками и отбрасываются (IngestResult.invalid), остальные записываются.
+     * Прочие ошибки не повторяются.
+     */
+    public IngestResult persistReadings(ReadingBatch batch, List<String> errors, IntPredicate retry) {
+        if (batch.isEmpty()) {
+            return IngestResult.EMPTY;
+        }
+        
+        // Решения по исходным индексам пачки; devices[i] == null - показание отброшено до фильтра
+        int size = batch.size();
+        Device[] devices = new Device[size];
+        int[] decisions = new int[size];
+        long[] primaryKeys = new long[size];
+        int[] rows = new int[size];
+        int persistCount = 0;
+        int unknownDevices = 0;
+        int duplicates = 0;
+        int filtered = 0;
+        int invalid = 0;
+        for (int i = 0; i < size; i++) {
+            Device device = deviceRegistry.findByDeviceId(batch.getDeviceId(i));
+            if (device == null) {
+                unknownDevices++;
+                addBatchError(errors, "Device not found: " + batch.getDeviceId(i));
+                continue;
+            }
+            if (ingestDedupService.isDuplicate(batch.getDeviceId(i), batch.getSequence(i))) {
+                duplicates++;
+                continue;
+            }
+            
+            // Фильтр решает до побочных эффектов: слишком частое показание не меняет и состояние устройства
+            int decision = telemetryFilterService.evaluate(device, batch.getDataType(i), batch.getValue(i),
+                                                           batch.getTimestamp(i));
+            devices[i] = device;
+            decisions[i] = decision;
+            if ((decision & TelemetryFilterService.PERSIST) == 0) {
+                filtered++;
+                continue;
+            }
+            primaryKeys[i] = device.getId();
+            rows[persistCount++] = i;
+        }
+        
+        for (int attempt = 1; persistCount > 0; ) {
+            try {
+                deviceDataJdbcRepository.insertBatch(batch, primaryKeys, rows, persistCount);
+                break;
+            } catch (RuntimeException e) {
+                RuntimeException failure = e;
+                if (e instanceof DataIntegrityViolationException) {
+                    // Ошибка в данных: пачка целиком не запишется ни с какой попытки, отбрасываем виновные показания
+                    try {
+                        int rejected = rejectRows(batch, primaryKeys, rows, 0, persistCount, decisions, errors);
+                        if (rejected > 0) {
+                            invalid += rejected;
+                            persistCount = retainPersisted(rows, persistCount, decisions);
+                            continue;
+                        }
+                    } catch (RuntimeException probeFailure) {
+                        failure = probeFailure;
+                    }
+                }
+                if (isTransient(failure) && retry.test(attempt)) {
+                    log.warn("Insert of {} readings failed (attempt {}), retrying: {}",
+                             persistCount, attempt, failure.getMessage());
+                    attempt++;
+                    continue;
+                }
+                // Пачка не записана: номера последовательности освобождаем, чтобы ретрай не отсеялся
+                // как повтор, а фильтр возвращаем, чтобы он не счел ретрай слишком частым
+                for (int i = 0; i < size; i++) {
+                    if (devices[i] != null) {
+                        ingestDedupService.release(batch.getDeviceId(i), batch.getSequence(i));
+                        telemetryFilterService.rollback(devices[i], batch.getDataType(i));
+                    }
+                }
+                throw failure;
+            }
+        }
+        
+        Map<String, Device> updated = new LinkedHashMap<>();
+        Map<String, Device> touched = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            Device device = devices[i];
+            if (device == null) {
+                continue;
+            }
+            telemetryFilterService.commit(device, batch.getDataType(i));
+            int decision = decisions[i];
+            if ((decision & TelemetryFilterService.TRACK) == 0) {
+                continue;
+            }
+            device.setLastValue(batch.getValue(i));
+            device.setOnline(true);
+            updated.put(device.getDeviceId(), device);
+            recentReadingBuffers.append(device, batch.getTimestamp(i), batch.getValue(i));
+            if ((decision & TelemetryFilterService.PERSIST) == 0) {
+                continue;
+            }
+            // Агрегаты истории - только по записанным показаниям, иначе они разойдутся с device_data
+            deviceDataRollupService.record(primaryKeys[i], batch.getDataType(i), batch.getValue(i),
+                                           batch.getTimestamp(i));
+            sensorQuantileService.record(device, batch.getDataType(i), batch.getValue(i), batch.getTimestamp(i));
+            recentHistoryStore.append(primaryKeys[i], batch.getDataType(i), batch.getTimestamp(i), batch.getValue(i));
+            latestReadingStore.update(primaryKeys[i], batch.getDataType(i), batch.getValue(i), batch.getTimestamp(i));
+            if ((decision & TelemetryFilterService.AUTOMATE) != 0) {
+                touched.put(device.getDeviceId(), device);
+            }
+        }
+        updated.values().forEach(deviceStateWriteBehind::markDirty);
+        // В пачке остаются только записанные показания
+        batch.retain(i -> devices[i] != null && (decisions[i] & TelemetryFilterService.PERSIST) != 0);
+        
+        log.debug("Persisted {} readings for {} devices, {} filtered", persistCount, updated.size(), filtered);
+        return new IngestResult(touched, unknownDevices, duplicates, filtered, invalid);
+    }
+    
+    /**
+     * Ищет среди rows[from..to) (их вставка отвергнута) показания, которые БД не принимает,
+     * пробными вставками половин с откатом. С найденных снимается решение: показание не пишется
+     * и не меняет состояние устройства. Возвращает число найденных; временная ошибка пробрасывается.
+     */
+    private int rejectRows(ReadingBatch batch, long[] primaryKeys, int[] rows, int from, int to,
+                           int[] decisions, List<String> errors) {
+        if (to - from == 1) {
+            int row = rows[from];
+            decisions[row] = 0;
+            log.warn("Reading of device {} at {} rejected by the database", batch.getDeviceId(row), batch.getTimestamp(row));
+            addBatchError(errors, "Reading rejected by the database: " + batch.getDeviceId(row));
+            return 1;
+        }
+        int middle = (from + to) >>> 1;
+        return probeRows(batch, primaryKeys, rows, from, middle, decisions, errors)
+                + probeRows(batch, primaryKeys, rows, middle, to, decisions, errors);
+    }
+    
+    private int probeRows(ReadingBatch batch, long[] primaryKeys, int[] rows, int from, int to,
+                          int[] decisions, List<String> errors) {
+        try {
+            deviceDataJdbcRepository.probeBatch(batch, primaryKeys, rows, from, to);
+            return 0;
+        } catch (DataIntegrityViolationException e) {
+            return rejectRows(batch, primaryKeys, rows, from, to, decisions, errors);
+        }
+    }
+    
+    /**
+     * Оставляет в rows[0..count) только показания, которые по-прежнему нужно записать; возвращает их число.
+     */
+    private static int retainPersisted(int[] rows, int count, int[] decisions) {
+        int kept = 0;
+        for (int k = 0; k < count; k++) {
+            if ((decisions[rows[k]] & TelemetryFilterService.PERSIST) != 0) {
+                rows[kept++] = rows[k];
+            }
+        }
+        return kept;
+    }
+    
+    /**
+     * Ошибка, которая может пройти сама: нет соединения, таймаут, взаимная блокировка, сбой транзакции.
+     */
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransactionException;
+    }
+    
+    /**
+     * Запускает автоматизацию по одному разу на каждое устройство (по последнему значению).
+     */
+    public void runAutomation(Map<String, Device> touched) {
+        for (Device device : touched.values()) {
+            try {
+                automationService.processAutomation(device, device.getLastValue());
+            } catch (Exception e) {
+                log.error("Automation failed for device {}: {}", device.getDeviceId(), e.getMessage());
+            }
+        }
+    }
+    
+    private void addBatchError(List<String> errors, String message) {
+        if (errors.size() < MAX_BATCH_ERRORS) {
+            errors.add(message);
+        }
+    }
+    
+    /**
+     * Сохраняет настройки режима; правила автоматизации в schedule проверяются до сохранения
+     * и перекомпилируются после него.
+     */
     public ModeSettings updateModeSettings(ModeSettings settings) {
         log.info("Updating mode settings to: {}", settings.getModeName());
+        automationRuleEngine.validate(settings.getSchedule());
         ModeSettings updated = modeSettingsRepository.save(settings);
+        automationRuleEngine.reload();
         log.debug("Mode settings updated: {}", updated);
         return updated;
     }
@@ -113,10 +546,20 @@ public class SmartHomeService {
         defaultMode.setTargetLightLevel(300);
         
         log.info("Created default mode: auto");
-        return modeSettingsRepository.save(defaultMode);
+        ModeSettings saved = modeSettingsRepository.save(defaultMode);
+        automationRuleEngine.reload();
+        return saved;
     }
     
-    private boolean detectRoomOccupancy(RoomStatus status) {
+    /**
+     * Занятость комнаты: по датчикам движения за окно occupancy-window-ms, если их показания есть в памяти,
+     * иначе по освещенности.
+     */
+    private boolean detectRoomOccupancy(RoomStatus status, Boolean motionDetected) {
+        if (motionDetected != null) {
+            log.trace("Room occupancy detection - motion in window: {}", motionDetected);
+            return motionDetected;
+        }
         Double lightLevel = status.getSensorData().get("LIGHT_SENSOR");
         boolean occupied = lightLevel != null && lightLevel < 50;
         log.trace("Room occupancy detection - lightLevel: {}, occupied: {}", lightLevel, occupied);
@@ -128,8 +571,11 @@ public class SmartHomeService {
         
         Map<String, Object> stats = new HashMap<>();
         
-        long totalDevices = deviceRepository.count();
-        long onlineDevices = deviceRepository.findAll().stream()
+        List<Device> allDevices = deviceRepository.findAll();
+        allDevices.forEach(deviceStateWriteBehind::applyPending);
+        
+        long totalDevices = allDevices.size();
+        long onlineDevices = allDevices.stream()
                 .filter(Device::isOnline)
                 .count();
         
@@ -137,7 +583,7 @@ public class SmartHomeService {
         stats.put("onlineDevices", onlineDevices);
         stats.put("onlinePercentage", (onlineDevices * 100) / totalDevices);
         
-        List<Device> activeDevices = deviceRepository.findAll().stream()
+        List<Device> activeDevices = allDevices.stream()
                 .filter(d -> d.getLastValue() != null && d.getLastValue() > 0)
                 .collect(Collectors.toList());
         
@@ -0,0 +1,177 @@
+package com.example.demo.service;
+
+import com.example.demo.config.IngestConfig;
+import com.example.demo.model.Device;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Фильтр показаний перед записью, правила задаются по типу устройства:
+ * - мертвая зона (абсолютная или в процентах): показание, почти равное последнему записанному, не пишется;
+ * - heartbeat: если устройство молчит дольше max-silence-ms, показание пишется даже внутри мертвой зоны
+ *   (но автоматизацию не запускает);
+ * - min-interval-ms: показания чаще этого интервала отбрасываются целиком.
+ * Состояние фильтра ведется отдельно для каждой пары (устройство, dataType). Решения evaluate
+ * закрепляются commit() после успешной записи пачки; если записать ее не удалось, rollback() возвращает
+ * состояние, и повтор того же показания получит то же решение, а не отсеется как слишком частое.
+ * Состояние пары меняет только поток-владелец устройства.
+ */
+@Service
+@RequiredArgsConstructor
+public class TelemetryFilterService {
+
+    public static final int PERSIST = 1;
+    public static final int AUTOMATE = 2;
+    public static final int TRACK = 4;  // Показание обновляет состояние устройства в памяти
+    public static final int PASS = PERSIST | AUTOMATE | TRACK;
+    public static final int SUPPRESS = 0;
+
+    private final IngestConfig ingestConfig;
+
+    private final Map<StateKey, FilterState> states = new ConcurrentHashMap<>();
+
+    private final LongAdder passedReadings = new LongAdder();
+    private final LongAdder heartbeatReadings = new LongAdder();
+    private final LongAdder deadbandSuppressed = new LongAdder();
+    private final LongAdder throttleSuppressed = new LongAdder();
+
+    /**
+     * Решает судьбу показания: набор флагов PERSIST / AUTOMATE / TRACK.
+     * Показание внутри мертвой зоны только обновляет состояние (TRACK), слишком частое не дает ни одного флага.
+     */
+    public int evaluate(Device device, short dataType, double value, long timestamp) {
+        IngestConfig.Filter config = ingestConfig.getFilter();
+        IngestConfig.FilterRule rule = config.isEnabled() ? config.getRules().get(device.getType()) : null;
+        if (rule == null) {
+            return PASS;
+        }
+
+        FilterState state = states.computeIfAbsent(new StateKey(device.getId(), dataType), key -> new FilterState());
+        synchronized (state) {
+            if (!state.initialized) {
+                state.accept(value, timestamp);
+                passedReadings.increment();
+                return PASS;
+            }
+
+            if (rule.getMinIntervalMs() > 0 && timestamp - state.lastAcceptedAt < rule.getMinIntervalMs()) {
+                throttleSuppressed.increment();
+                return SUPPRESS;
+            }
+
+            if (exceedsDeadband(rule, state.lastPersistedValue, value)) {
+                state.accept(value, timestamp);
+                passedReadings.increment();
+                return PASS;
+            }
+
+            if (rule.getMaxSilenceMs() > 0 && timestamp - state.lastPersistedAt >= rule.getMaxSilenceMs()) {
+                state.accept(value, timestamp);
+                heartbeatReadings.increment();
+                return PERSIST | TRACK;
+            }
+
+            deadbandSuppressed.increment();
+            return TRACK;
+        }
+    }
+
+    /**
+     * Закрепляет решения по показаниям пары после того, как их пачка записана.
+     */
+    public void commit(Device device, short dataType) {
+        FilterState state = stateOf(device, dataType);
+        if (state != null) {
+            synchronized (state) {
+                state.commit();
+            }
+        }
+    }
+
+    /**
+     * Возвращает состояние пары к последней записанной пачке: ее показания не сохранены.
+     */
+    public void rollback(Device device, short dataType) {
+        FilterState state = stateOf(device, dataType);
+        if (state != null) {
+            synchronized (state) {
+                state.rollback();
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", ingestConfig.getFilter().isEnabled());
+        stats.put("passed", passedReadings.sum());
+        stats.put("heartbeats", heartbeatReadings.sum());
+        stats.put("suppressedDeadband", deadbandSuppressed.sum());
+        stats.put("suppressedThrottle", throttleSuppressed.sum());
+        return stats;
+    }
+
+    private FilterState stateOf(Device device, short dataType) {
+        return states.isEmpty() ? null : states.get(new StateKey(device.getId(), dataType));
+    }
+
+    private boolean exceedsDeadband(IngestConfig.FilterRule rule, double last, double value) {
+        double change = Math.abs(value - last);
+        boolean hasDeadband = false;
+        if (rule.getAbsoluteDeadband() != null) {
+            hasDeadband = true;
+            if (change > rule.getAbsoluteDeadband()) {
+                return true;
+            }
+        }
+        if (rule.getPercentDeadband() != null) {
+            hasDeadband = true;
+            double base = Math.abs(last);
+            if (base == 0 ? change > 0 : change * 100.0 / base > rule.getPercentDeadband()) {
+                return true;
+            }
+        }
+        return !hasDeadband;
+    }
+
+    private record StateKey(long devicePk, short dataType) {
+    }
+
+    private static final class FilterState {
+        private boolean initialized;
+        private double lastPersistedValue;
+        private long lastPersistedAt;
+        private long lastAcceptedAt;
+
+        // Состояние после последней записанной пачки
+        private boolean committedInitialized;
+        private double committedValue;
+        private long committedPersistedAt;
+        private long committedAcceptedAt;
+
+        private void accept(double value, long timestamp) {
+            initialized = true;
+            lastPersistedValue = value;
+            lastPersistedAt = timestamp;
+            lastAcceptedAt = timestamp;
+        }
+
+        private void commit() {
+            committedInitialized = initialized;
+            committedValue = lastPersistedValue;
+            committedPersistedAt = lastPersistedAt;
+            committedAcceptedAt = lastAcceptedAt;
+        }
+
+        private void rollback() {
+            initialized = committedInitialized;
+            lastPersistedValue = committedValue;
+            lastPersistedAt = committedPersistedAt;
+            lastAcceptedAt = committedAcceptedAt;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.demo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Декодер компактного бинарного протокола телеметрии (big-endian).
+ *
+ * Кадр:
+ *   u16  длина кадра (без этого поля)
+ *   u8   версия протокола (1)
+ *   u8   длина deviceId, затем байты deviceId (UTF-8)
+ *   i64  базовое время (epoch millis)
+ *   u8   число показаний
+ *   далее для каждого показания:
+ *     u8      код типа данных
+ *     varint  приращение времени в мс относительно предыдущего показания (первое - относительно базы)
+ *     f64     значение
+ *
+ * Декодер работает прямо по буферу и не создает объектов на показание; строка deviceId
+ * переиспользуется, пока соединение шлет данные одного устройства. Тип данных отдается кодом протокола
+ * (индекс в DATA_TYPES): перевод в коды словаря получатель готовит заранее. Экземпляр не потокобезопасен:
+ * по одному на соединение.
+ */
+public class BinaryFrameDecoder {
+
+    public static final int VERSION = 1;
+    public static final int MAX_FRAME_LENGTH = 8192;
+
+    // Коды типов данных протокола - индексы в этом списке
+    public static final List<String> DATA_TYPES = List.of("temperature", "humidity", "light", "motion", "state");
+
+    private static final int MAX_VARINT_BYTES = 9;
+
+    /**
+     * Получатель декодированных показаний. Возвращает false, если показание не принято.
+     */
+    public interface ReadingSink {
+        boolean accept(String deviceId, double value, int dataType, long timestamp);
+    }
+
+    private final byte[] idScratch = new byte[255];
+    private byte[] cachedIdBytes = new byte[0];
+    private String cachedId;
+
+    /**
+     * Декодирует все полные кадры из буфера в режиме чтения; неполный хвост остается в буфере.
+     * Возвращает число показаний или -1, если встретился битый кадр (позиция буфера при этом не определена).
+     */
+    public int decode(ByteBuffer buffer, ReadingSink sink) {
+        int readings = 0;
+        while (buffer.remaining() >= 2) {
+            int start = buffer.position();
+            int length = buffer.getShort(start) & 0xFFFF;
+            if (length == 0 || length > MAX_FRAME_LENGTH) {
+                return -1;
+            }
+            if (buffer.remaining() < 2 + length) {
+                break;
+            }
+
+            int end = start + 2 + length;
+            // Сначала проверяем структуру кадра целиком, чтобы не отдать половину битого кадра
+            if (!validate(buffer, start + 2, end)) {
+                return -1;
+            }
+            readings += emit(buffer, start + 2, sink);
+            buffer.position(end);
+        }
+        return readings;
+    }
+
+    private boolean validate(ByteBuffer buffer, int position, int end) {
+        if (end - position < 2 || (buffer.get(position) & 0xFF) != VERSION) {
+            return false;
+        }
+        int idLength = buffer.get(position + 1) & 0xFF;
+        position += 2 + idLength;
+        if (idLength == 0 || end - position < 9) {
+            return false;
+        }
+        position += 8;
+        int count = buffer.get(position++) & 0xFF;
+
+        for (int i = 0; i < count; i++) {
+            if (end - position < 1 || (buffer.get(position) & 0xFF) >= DATA_TYPES.size()) {
+                return false;
+            }
+            position++;
+            int varintBytes = 0;
+            while (true) {
+                if (position >= end || varintBytes == MAX_VARINT_BYTES) {
+                    return false;
+                }
+                varintBytes++;
+                if ((buffer.get(position++) & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (end - position < 8) {
+                return false;
+            }
+            position += 8;
+        }
+        return position == end;
+    }
+
+    private int emit(ByteBuffer buffer, int position, ReadingSink sink) {
+        int idLength = buffer.get(position + 1) & 0xFF;
+        String deviceId = readDeviceId(buffer, position + 2, idLength);
+        position += 2 + idLength;
+
+        long timestamp = buffer.getLong(position);
+        position += 8;
+        int count = buffer.get(position++) & 0xFF;
+
+        for (int i = 0; i < count; i++) {
+            int dataType = buffer.get(position++) & 0xFF;
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            timestamp += delta;
+            double value = buffer.getDouble(position);
+            position += 8;
+            sink.accept(deviceId, value, dataType, timestamp);
+        }
+        return count;
+    }
+
+    private String readDeviceId(ByteBuffer buffer, int position, int length) {
+        buffer.get(position, idScratch, 0, length);
+        if (cachedId != null && cachedIdBytes.length == length) {
+            boolean same = true;
+            for (int i = 0; i < length; i++) {
+                if (cachedIdBytes[i] != idScratch[i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return cachedId;
+            }
+        }
+        cachedIdBytes = Arrays.copyOf(idScratch, length);
+        cachedId = new String(idScratch, 0, length, StandardCharsets.UTF_8);
+        return cachedId;
+    }
+}
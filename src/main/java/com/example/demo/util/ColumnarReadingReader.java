@@ -0,0 +1,169 @@
+package com.example.demo.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Чтение формата ColumnarReadingWriter блок за блоком; в памяти только текущий блок.
+ * Понимает и версию 1, где значения шли varint от Long.reverse(XOR с предыдущим значением потока).
+ */
+public class ColumnarReadingReader {
+
+    private final DataInputStream in;
+
+    private String[] deviceDictionary = new String[16];
+    private int deviceDictionarySize;
+    // Код 0 зарезервирован под null
+    private String[] typeDictionary = new String[16];
+    private int typeDictionarySize = 1;
+
+    private final int[] devices = new int[ColumnarReadingWriter.BLOCK_ROWS];
+    private final long[] timestamps = new long[ColumnarReadingWriter.BLOCK_ROWS];
+    private final double[] values = new double[ColumnarReadingWriter.BLOCK_ROWS];
+    private final boolean[] present = new boolean[ColumnarReadingWriter.BLOCK_ROWS];
+    private final int[] types = new int[ColumnarReadingWriter.BLOCK_ROWS];
+
+    private final byte version;
+    private long previousTimestamp;
+    private long previousValueBits;
+    private long[] deviceValueBits = new long[16];
+
+    public ColumnarReadingReader(InputStream source) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(source, 64 * 1024), 64 * 1024));
+        byte[] magic = new byte[ColumnarReadingWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnarReadingWriter.MAGIC)) {
+            throw new IOException("Not a columnar readings stream");
+        }
+        version = in.readByte();
+        if (version != 1 && version != ColumnarReadingWriter.FORMAT_VERSION) {
+            throw new IOException("Unsupported columnar format version " + version);
+        }
+    }
+
+    /**
+     * Передает все строки потока в consumer по порядку; возвращает число строк.
+     */
+    public long forEach(RowConsumer consumer) throws IOException {
+        long rows = 0;
+        int size;
+        while ((size = (int) readVarint()) != 0) {
+            if (size > ColumnarReadingWriter.BLOCK_ROWS) {
+                throw new IOException("Corrupted block of " + size + " rows");
+            }
+            readBlock(size);
+            for (int i = 0; i < size; i++) {
+                consumer.accept(deviceDictionary[devices[i]], timestamps[i],
+                        present[i] ? Double.valueOf(values[i]) : null, typeDictionary[types[i]]);
+            }
+            rows += size;
+        }
+        return rows;
+    }
+
+    private void readBlock(int size) throws IOException {
+        int newDevices = (int) readVarint();
+        for (int i = 0; i < newDevices; i++) {
+            deviceDictionary = append(deviceDictionary, deviceDictionarySize++, in.readUTF());
+        }
+        int newTypes = (int) readVarint();
+        for (int i = 0; i < newTypes; i++) {
+            typeDictionary = append(typeDictionary, typeDictionarySize++, in.readUTF());
+        }
+
+        for (int i = 0; i < size; i++) {
+            devices[i] = code(readVarint(), deviceDictionarySize);
+        }
+        for (int i = 0; i < size; i++) {
+            long zigzag = readVarint();
+            previousTimestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+            timestamps[i] = previousTimestamp;
+        }
+        for (int i = 0; i < size; i += 8) {
+            int mask = in.readUnsignedByte();
+            for (int bit = 0; bit < 8 && i + bit < size; bit++) {
+                present[i + bit] = (mask & (1 << bit)) != 0;
+            }
+        }
+        if (version == 1) {
+            for (int i = 0; i < size; i++) {
+                if (present[i]) {
+                    previousValueBits ^= Long.reverse(readVarint());
+                    values[i] = Double.longBitsToDouble(previousValueBits);
+                }
+            }
+        } else {
+            if (deviceValueBits.length < deviceDictionarySize) {
+                deviceValueBits = Arrays.copyOf(deviceValueBits,
+                    Math.max(deviceDictionarySize, deviceValueBits.length * 2));
+            }
+            for (int i = 0; i < size; i++) {
+                if (present[i]) {
+                    long bits = deviceValueBits[devices[i]] ^ readXor();
+                    deviceValueBits[devices[i]] = bits;
+                    values[i] = Double.longBitsToDouble(bits);
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            types[i] = code(readVarint(), typeDictionarySize);
+        }
+    }
+
+    private long readXor() throws IOException {
+        int header = in.readUnsignedByte();
+        if (header == ColumnarReadingWriter.SAME_VALUE) {
+            return 0;
+        }
+        int leading = header >>> 4;
+        int trailing = header & 0x0F;
+        if (leading + trailing > 7) {
+            throw new IOException("Malformed value header " + header);
+        }
+        long xor = 0;
+        for (int i = leading + trailing; i < 8; i++) {
+            xor = (xor << 8) | in.readUnsignedByte();
+        }
+        return xor << (trailing << 3);
+    }
+
+    private static int code(long value, int dictionarySize) throws IOException {
+        if (value < 0 || value >= dictionarySize) {
+            throw new IOException("Dictionary code out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated columnar stream");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    private static String[] append(String[] array, int index, String value) {
+        if (index == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[index] = value;
+        return array;
+    }
+
+    @FunctionalInterface
+    public interface RowConsumer {
+        void accept(String deviceId, long timestamp, Double value, String dataType) throws IOException;
+    }
+}
@@ -0,0 +1,195 @@
+package com.example.demo.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Компактный колоночный формат показаний для выгрузки, поверх gzip.
+ * Строки копятся блоками по BLOCK_ROWS и пишутся по колонкам, поэтому память постоянна при любом объеме.
+ * <pre>
+ * заголовок: "SHRC", версия (1 байт)
+ * блок:      rows (varint, 0 - конец потока)
+ *            новые записи словаря устройств: n (varint), n x UTF
+ *            новые записи словаря dataType:  n (varint), n x UTF
+ *            устройства:  rows x varint кода словаря
+ *            время:       rows x zigzag varint разности с предыдущим временем (мс, через границы блоков)
+ *            наличие:     ceil(rows / 8) байт битовой маски непустых значений
+ *            значения:    для непустых - XOR с предыдущим значением того же устройства (через границы блоков):
+ *                         0xFF при совпадении, иначе байт (ведущие нулевые байты << 4 | хвостовые нулевые байты)
+ *                         и средние байты XOR от старшего к младшему
+ *            dataType:    rows x varint кода словаря (0 - null)
+ * </pre>
+ * Коды словарей назначаются по порядку появления, начиная с 0 для устройств и с 1 для dataType.
+ * Повтор значения занимает 1 байт, медленно меняющееся - обычно 3-5, худший случай - 9 байт.
+ * Поток выровнен по байтам, чтобы повторы оставались видны gzip. Не потокобезопасен.
+ */
+public class ColumnarReadingWriter implements AutoCloseable {
+
+    public static final byte[] MAGIC = {'S', 'H', 'R', 'C'};
+    public static final byte FORMAT_VERSION = 2;
+    public static final int BLOCK_ROWS = 4096;
+    static final int SAME_VALUE = 0xFF;
+
+    private final GZIPOutputStream gzip;
+    private final DataOutputStream out;
+
+    private final Map<String, Integer> deviceCodes = new HashMap<>();
+    private final Map<String, Integer> typeCodes = new HashMap<>();
+    private String[] newDevices = new String[16];
+    private int newDeviceCount;
+    private String[] newTypes = new String[16];
+    private int newTypeCount;
+
+    private final int[] devices = new int[BLOCK_ROWS];
+    private final long[] timestamps = new long[BLOCK_ROWS];
+    private final double[] values = new double[BLOCK_ROWS];
+    private final boolean[] present = new boolean[BLOCK_ROWS];
+    private final int[] types = new int[BLOCK_ROWS];
+    private int size;
+
+    private long previousTimestamp;
+    // Предыдущее значение по коду устройства
+    private long[] previousValueBits = new long[16];
+    private long rows;
+    private boolean finished;
+
+    public ColumnarReadingWriter(OutputStream target) throws IOException {
+        this.gzip = new GZIPOutputStream(target, 64 * 1024);
+        this.out = new DataOutputStream(new BufferedOutputStream(gzip, 64 * 1024));
+        out.write(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+    }
+
+    public void write(String deviceId, long timestamp, Double value, String dataType) throws IOException {
+        devices[size] = deviceCodes.computeIfAbsent(deviceId, key -> {
+            newDevices = append(newDevices, newDeviceCount++, key);
+            return deviceCodes.size();
+        });
+        types[size] = dataType == null ? 0 : typeCodes.computeIfAbsent(dataType, key -> {
+            newTypes = append(newTypes, newTypeCount++, key);
+            return typeCodes.size() + 1;
+        });
+        timestamps[size] = timestamp;
+        present[size] = value != null;
+        values[size] = value != null ? value : 0;
+        size++;
+        rows++;
+        if (size == BLOCK_ROWS) {
+            writeBlock();
+        }
+    }
+
+    /**
+     * Дописывает последний блок и маркер конца; поток-приемник остается открытым.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        writeBlock();
+        writeVarint(0);
+        out.flush();
+        gzip.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    private void writeBlock() throws IOException {
+        if (size == 0) {
+            return;
+        }
+        writeVarint(size);
+
+        writeVarint(newDeviceCount);
+        for (int i = 0; i < newDeviceCount; i++) {
+            out.writeUTF(newDevices[i]);
+            newDevices[i] = null;
+        }
+        newDeviceCount = 0;
+        writeVarint(newTypeCount);
+        for (int i = 0; i < newTypeCount; i++) {
+            out.writeUTF(newTypes[i]);
+            newTypes[i] = null;
+        }
+        newTypeCount = 0;
+
+        for (int i = 0; i < size; i++) {
+            writeVarint(devices[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            long delta = timestamps[i] - previousTimestamp;
+            writeVarint((delta << 1) ^ (delta >> 63));
+            previousTimestamp = timestamps[i];
+        }
+        for (int i = 0; i < size; i += 8) {
+            int mask = 0;
+            for (int bit = 0; bit < 8 && i + bit < size; bit++) {
+                if (present[i + bit]) {
+                    mask |= 1 << bit;
+                }
+            }
+            out.writeByte(mask);
+        }
+        if (previousValueBits.length < deviceCodes.size()) {
+            previousValueBits = Arrays.copyOf(previousValueBits,
+                    Math.max(deviceCodes.size(), previousValueBits.length * 2));
+        }
+        for (int i = 0; i < size; i++) {
+            if (present[i]) {
+                long bits = Double.doubleToLongBits(values[i]);
+                writeXor(bits ^ previousValueBits[devices[i]]);
+                previousValueBits[devices[i]] = bits;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            writeVarint(types[i]);
+        }
+        size = 0;
+    }
+
+    // XOR близких значений обнуляет старшие байты (знак, порядок), а у округленных - и младшие
+    private void writeXor(long xor) throws IOException {
+        if (xor == 0) {
+            out.writeByte(SAME_VALUE);
+            return;
+        }
+        int leading = Long.numberOfLeadingZeros(xor) >>> 3;
+        int trailing = Long.numberOfTrailingZeros(xor) >>> 3;
+        out.writeByte(leading << 4 | trailing);
+        for (int shift = (7 - leading) << 3; shift >= trailing << 3; shift -= 8) {
+            out.writeByte((int) (xor >>> shift));
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static String[] append(String[] array, int index, String value) {
+        if (index == array.length) {
+            String[] grown = new String[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            array = grown;
+        }
+        array[index] = value;
+        return array;
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.demo.util;
+
+import java.util.Arrays;
+
+/**
+ * Блок временного ряда в сжатии Gorilla: время - delta-of-delta, значения - XOR с предыдущим.
+ * Биты пишутся подряд в long[]; при регулярных показаниях точка занимает 1-3 байта вместо
+ * ~100 байт у сущности DeviceData. Блок только дописывается; синхронизацию обеспечивает вызывающий.
+ */
+public class GorillaChunk {
+
+    private static final int INITIAL_WORDS = 16;
+
+    private final long startTime;
+    private long[] words = new long[INITIAL_WORDS];
+    private long bitCount;
+    private int size;
+
+    private long lastTimestamp;
+    private long lastDelta;
+    private long lastValueBits;
+    private int lastLeading = Integer.MAX_VALUE;
+    private int lastTrailing;
+
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    public GorillaChunk(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (size == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+        } else {
+            appendTimestamp(timestamp);
+            appendValue(valueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValueBits = valueBits;
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        size++;
+    }
+
+    private void appendTimestamp(long timestamp) {
+        long delta = timestamp - lastTimestamp;
+        long deltaOfDelta = delta - lastDelta;
+        lastDelta = delta;
+
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 12);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void appendValue(long valueBits) {
+        long xor = valueBits ^ lastValueBits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        writeBits(1, 1);
+
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (leading >= lastLeading && trailing >= lastTrailing) {
+            // Значимые биты помещаются в окно предыдущего значения
+            writeBits(0, 1);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+        } else {
+            int significant = 64 - leading - trailing;
+            writeBits(1, 1);
+            writeBits(leading, 5);
+            writeBits(significant - 1, 6);
+            writeBits(xor >>> trailing, significant);
+            lastLeading = leading;
+            lastTrailing = trailing;
+        }
+    }
+
+    private void writeBits(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        int word = (int) (bitCount >>> 6);
+        int offset = (int) (bitCount & 63);
+        if (word + 1 >= words.length) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        long masked = bits == 64 ? value : value & ((1L << bits) - 1);
+        int free = 64 - offset;
+        if (bits <= free) {
+            words[word] |= masked << (free - bits);
+        } else {
+            words[word] |= masked >>> (bits - free);
+            words[word + 1] |= masked << (64 - (bits - free));
+        }
+        bitCount += bits;
+    }
+
+    /**
+     * Обрезает массив до фактического размера; вызывается, когда в блок больше не пишут.
+     */
+    public void seal() {
+        words = Arrays.copyOf(words, (int) ((bitCount + 63) >>> 6) + 1);
+    }
+
+    /**
+     * Перебирает точки блока по порядку записи.
+     */
+    public void forEach(PointConsumer consumer) {
+        BitReader reader = new BitReader(words, bitCount);
+        long timestamp = 0;
+        long delta = 0;
+        long valueBits = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0) {
+                timestamp = reader.read(64);
+                valueBits = reader.read(64);
+            } else {
+                delta += readDeltaOfDelta(reader);
+                timestamp += delta;
+                if (reader.read(1) == 1) {
+                    if (reader.read(1) == 1) {
+                        leading = (int) reader.read(5);
+                        int significant = (int) reader.read(6) + 1;
+                        trailing = 64 - leading - significant;
+                    }
+                    valueBits ^= reader.read(64 - leading - trailing) << trailing;
+                }
+            }
+            consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader reader) {
+        if (reader.read(1) == 0) {
+            return 0;
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(7);
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(9);
+        }
+        if (reader.read(1) == 0) {
+            return reader.readSigned(12);
+        }
+        return reader.read(64);
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    public long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    private static final class BitReader {
+        private final long[] words;
+        private final long limit;
+        private long position;
+
+        BitReader(long[] words, long limit) {
+            this.words = words;
+            this.limit = limit;
+        }
+
+        long read(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            if (position + bits > limit) {
+                throw new IllegalStateException("Read past the end of the chunk");
+            }
+            int word = (int) (position >>> 6);
+            int offset = (int) (position & 63);
+            int free = 64 - offset;
+            long result;
+            if (bits <= free) {
+                result = words[word] >>> (free - bits);
+            } else {
+                result = (words[word] << (bits - free)) | (words[word + 1] >>> (64 - (bits - free)));
+            }
+            position += bits;
+            return bits == 64 ? result : result & ((1L << bits) - 1);
+        }
+
+        long readSigned(int bits) {
+            long value = read(bits);
+            // Дополнительный код в bits битах; верхнюю границу (+2^(bits-1)) кодируем как отрицательную
+            long sign = 1L << (bits - 1);
+            long decoded = (value ^ sign) - sign;
+            return decoded == -sign ? sign : decoded;
+        }
+    }
+}
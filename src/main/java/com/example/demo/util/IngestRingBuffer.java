@@ -0,0 +1,108 @@
+package com.example.demo.util;
+
+import com.example.demo.model.ReadingBatch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограниченный lock-free кольцевой буфер показаний: много производителей, один потребитель.
+ * Поля показаний лежат в параллельных массивах, поэтому постановка в очередь ничего не аллоцирует.
+ * Каждая ячейка имеет свой номер последовательности: производитель занимает ячейку CAS-ом по tail,
+ * записывает поля и публикует ячейку, потребитель читает только опубликованные ячейки.
+ */
+public class IngestRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final String[] deviceIds;
+    private final double[] values;
+    private final short[] dataTypes;
+    private final long[] timestamps;
+    private final long[] readingSequences;
+
+    private final AtomicLong tail = new AtomicLong();
+    // Пишется только потоком-потребителем, volatile нужен для size() из других потоков
+    private volatile long head;
+
+    public IngestRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2) {
+            throw new IllegalArgumentException("Capacity must be at least 2");
+        }
+        this.capacity = Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.sequences = new AtomicLongArray(capacity);
+        this.deviceIds = new String[capacity];
+        this.values = new double[capacity];
+        this.dataTypes = new short[capacity];
+        this.timestamps = new long[capacity];
+        this.readingSequences = new long[capacity];
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Пытается поставить показание в буфер. Возвращает false, если буфер заполнен.
+     */
+    public boolean offer(String deviceId, double value, short dataType, long timestamp, long sequence) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        deviceIds[index] = deviceId;
+        values[index] = value;
+        dataTypes[index] = dataType;
+        timestamps[index] = timestamp;
+        readingSequences[index] = sequence;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Переносит до max опубликованных показаний в пачку. Вызывается только потоком-потребителем.
+     */
+    public int drainTo(ReadingBatch batch, int max) {
+        long position = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            batch.add(deviceIds[index], values[index], dataTypes[index], timestamps[index], readingSequences[index]);
+            deviceIds[index] = null;
+            sequences.lazySet(index, position + capacity);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+
+    public int size() {
+        long size = tail.get() - head;
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,229 @@
+package com.example.demo.util;
+
+/**
+ * Прореживание ряда Largest-Triangle-Three-Buckets за один проход, без загрузки ряда целиком.
+ * Диапазон [from, to) делится на maxPoints - 2 равных по времени корзины; из каждой непустой корзины
+ * берется точка, образующая наибольший треугольник с предыдущей выбранной точкой и средним следующей корзины.
+ * Первая и последняя точки ряда сохраняются всегда. В памяти только две корзины, и от каждой - лишь
+ * выпуклая оболочка ее точек ограниченного размера, сколько бы точек ни попало в корзину.
+ * Точки должны подаваться по возрастанию времени.
+ */
+public class LttbDownsampler {
+
+    private final long from;
+    private final long span;
+    private final int bucketCount;
+    private final PointConsumer output;
+
+    private Bucket current = new Bucket();
+    private Bucket next = new Bucket();
+
+    private boolean started;
+    private double selectedTime;
+    private double selectedValue;
+
+    // Последняя точка придерживается: если ряд на ней закончится, она попадет в ответ как есть
+    private boolean hasLast;
+    private long lastTimestamp;
+    private double lastValue;
+
+    private int emitted;
+
+    public LttbDownsampler(long from, long to, int maxPoints, PointConsumer output) {
+        if (maxPoints < 3) {
+            throw new IllegalArgumentException("maxPoints must be at least 3");
+        }
+        this.from = from;
+        this.span = Math.max(1, to - from);
+        this.bucketCount = maxPoints - 2;
+        this.output = output;
+    }
+
+    public void add(long timestamp, double value) {
+        if (!started) {
+            started = true;
+            emit(timestamp, value);
+            return;
+        }
+        if (hasLast) {
+            push(lastTimestamp, lastValue);
+        }
+        hasLast = true;
+        lastTimestamp = timestamp;
+        lastValue = value;
+    }
+
+    /**
+     * Выдает оставшиеся точки; вызывается после последней add.
+     */
+    public void finish() {
+        if (!hasLast) {
+            return;
+        }
+        if (!current.isEmpty()) {
+            if (next.isEmpty()) {
+                select(current, lastTimestamp - from, lastValue);
+            } else {
+                select(current, next.averageTime(), next.averageValue());
+            }
+        }
+        if (!next.isEmpty()) {
+            select(next, lastTimestamp - from, lastValue);
+        }
+        emit(lastTimestamp, lastValue);
+        hasLast = false;
+    }
+
+    public int getEmitted() {
+        return emitted;
+    }
+
+    private void push(long timestamp, double value) {
+        int index = (int) Math.min(bucketCount - 1, Math.max(0, (timestamp - from) * bucketCount / span));
+        if (next.isEmpty() || index == next.index) {
+            if (next.isEmpty()) {
+                next.index = index;
+            }
+            next.add(timestamp - from, value);
+            return;
+        }
+        // Корзина next закрыта: теперь известно ее среднее, и можно выбрать точку из current
+        if (!current.isEmpty()) {
+            select(current, next.averageTime(), next.averageValue());
+        }
+        Bucket drained = current;
+        current = next;
+        next = drained;
+        next.clear();
+        next.index = index;
+        next.add(timestamp - from, value);
+    }
+
+    private void select(Bucket bucket, double nextTime, double nextValue) {
+        // Площадь линейна по точке, поэтому максимум всегда на выпуклой оболочке - ее и храним
+        bucket.lower.best(selectedTime, selectedValue, nextTime, nextValue);
+        bucket.upper.best(selectedTime, selectedValue, nextTime, nextValue);
+        Chain lower = bucket.lower;
+        Chain upper = bucket.upper;
+        // При равной площади - более ранняя точка, как при переборе всех точек корзины
+        Chain chain = upper.bestArea > lower.bestArea
+                || upper.bestArea == lower.bestArea && upper.times[upper.best] < lower.times[lower.best] ? upper : lower;
+        emit(from + (long) chain.times[chain.best], chain.values[chain.best]);
+        bucket.clear();
+    }
+
+    private void emit(long timestamp, double value) {
+        selectedTime = timestamp - from;
+        selectedValue = value;
+        emitted++;
+        output.accept(timestamp, value);
+    }
+
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    // Время хранится относительно from: точность double не теряется на больших epoch-значениях.
+    // Вместо всех точек корзины - нижняя и верхняя цепочки выпуклой оболочки (точки идут по времени)
+    private static final class Bucket {
+        private final Chain lower = new Chain(1);
+        private final Chain upper = new Chain(-1);
+        private int size;
+        private int index;
+        private double timeSum;
+        private double valueSum;
+
+        void add(double time, double value) {
+            lower.add(time, value);
+            upper.add(time, value);
+            size++;
+            timeSum += time;
+            valueSum += value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        double averageTime() {
+            return timeSum / size;
+        }
+
+        double averageValue() {
+            return valueSum / size;
+        }
+
+        void clear() {
+            lower.size = 0;
+            upper.size = 0;
+            size = 0;
+            timeSum = 0;
+            valueSum = 0;
+        }
+    }
+
+    /**
+     * Цепочка оболочки (монотонная цепочка Эндрю). На гладкой выпуклой кривой на оболочке оказываются
+     * все точки, поэтому при MAX_CHAIN вершинах цепочка прореживается через одну - память ограничена,
+     * а выбор становится приближенным только на таких длинных выпуклых участках.
+     */
+    private static final class Chain {
+        private static final int MAX_CHAIN = 256;
+
+        private final double[] times = new double[MAX_CHAIN];
+        private final double[] values = new double[MAX_CHAIN];
+        private final int orientation;
+        private int size;
+        private int best;
+        private double bestArea;
+
+        Chain(int orientation) {
+            this.orientation = orientation;
+        }
+
+        void add(double time, double value) {
+            // Из точек с одним временем на цепочке остается только крайняя
+            if (size > 0 && times[size - 1] == time) {
+                if (orientation * (value - values[size - 1]) >= 0) {
+                    return;
+                }
+                size--;
+            }
+            while (size >= 2 && orientation * cross(size - 2, size - 1, time, value) <= 0) {
+                size--;
+            }
+            if (size == MAX_CHAIN) {
+                int kept = 1;
+                for (int i = 2; i < size - 1; i += 2) {
+                    times[kept] = times[i];
+                    values[kept] = values[i];
+                    kept++;
+                }
+                times[kept] = times[size - 1];
+                values[kept] = values[size - 1];
+                size = kept + 1;
+            }
+            times[size] = time;
+            values[size] = value;
+            size++;
+        }
+
+        void best(double selectedTime, double selectedValue, double nextTime, double nextValue) {
+            best = 0;
+            bestArea = -1;
+            for (int i = 0; i < size; i++) {
+                double area = Math.abs((selectedTime - nextTime) * (values[i] - selectedValue)
+                        - (selectedTime - times[i]) * (nextValue - selectedValue));
+                if (area > bestArea) {
+                    bestArea = area;
+                    best = i;
+                }
+            }
+        }
+
+        private double cross(int a, int b, double time, double value) {
+            return (times[b] - times[a]) * (value - values[a]) - (values[b] - values[a]) * (time - times[a]);
+        }
+    }
+}
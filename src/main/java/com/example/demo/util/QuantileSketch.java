@@ -0,0 +1,227 @@
+package com.example.demo.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Сливаемый скетч квантилей с логарифмическими корзинами (по схеме DDSketch).
+ * Значение v попадает в корзину ceil(log_gamma |v|), поэтому любой квантиль возвращается
+ * с относительной ошибкой не больше RELATIVE_ACCURACY. Слияние - сложение счетчиков корзин,
+ * результат не зависит от порядка слияния. Отрицательные значения и ноль хранятся отдельно.
+ * Не потокобезопасен.
+ */
+public class QuantileSketch {
+
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    private static final byte FORMAT_VERSION = 1;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_INDEXABLE = 1e-9;
+
+    private final Store positive = new Store();
+    private final Store negative = new Store();
+    private long zeroCount;
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value > MIN_INDEXABLE) {
+            positive.add(index(value), 1);
+        } else if (value < -MIN_INDEXABLE) {
+            negative.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public void merge(QuantileSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Квантиль q из [0, 1]; NaN для пустого скетча.
+     */
+    public double quantile(double q) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        double rank = q * (count - 1);
+        long seen = 0;
+
+        // От самых отрицательных к положительным: отрицательные корзины - по убыванию модуля
+        for (int i = negative.counts.length - 1; i >= 0; i--) {
+            seen += negative.counts[i];
+            if (seen > rank) {
+                return clamp(-value(negative.offset + i));
+            }
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return 0;
+        }
+        for (int i = 0; i < positive.counts.length; i++) {
+            seen += positive.counts[i];
+            if (seen > rank) {
+                return clamp(value(positive.offset + i));
+            }
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + 8 * (positive.counts.length + negative.counts.length));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(FORMAT_VERSION);
+            out.writeLong(count);
+            out.writeLong(zeroCount);
+            out.writeDouble(sum);
+            out.writeDouble(min);
+            out.writeDouble(max);
+            positive.write(out);
+            negative.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static QuantileSketch fromBytes(byte[] data) {
+        QuantileSketch sketch = new QuantileSketch();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            byte version = in.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalArgumentException("Unsupported sketch format version " + version);
+            }
+            sketch.count = in.readLong();
+            sketch.zeroCount = in.readLong();
+            sketch.sum = in.readDouble();
+            sketch.min = in.readDouble();
+            sketch.max = in.readDouble();
+            sketch.positive.read(in);
+            sketch.negative.read(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return sketch;
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static int index(double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+    }
+
+    // Середина корзины в смысле относительной ошибки
+    private static double value(int index) {
+        return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+
+    // Плотный массив счетчиков для диапазона индексов [offset, offset + counts.length)
+    private static final class Store {
+        private long[] counts = new long[0];
+        private int offset;
+
+        boolean isEmpty() {
+            return counts.length == 0;
+        }
+
+        void add(int index, long increment) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                offset = index - 4;
+            } else if (index < offset || index >= offset + counts.length) {
+                int newLow = Math.min(offset, index);
+                int newHigh = Math.max(offset + counts.length - 1, index);
+                // Растем с запасом, чтобы соседние значения не вызывали копирование каждый раз
+                int slack = Math.max(4, (newHigh - newLow + 1) / 4);
+                int low = index < offset ? newLow - slack : newLow;
+                int high = index >= offset + counts.length ? newHigh + slack : newHigh;
+                long[] grown = new long[high - low + 1];
+                System.arraycopy(counts, 0, grown, offset - low, counts.length);
+                counts = grown;
+                offset = low;
+            }
+            counts[index - offset] += increment;
+        }
+
+        void merge(Store other) {
+            if (other.isEmpty()) {
+                return;
+            }
+            // Сначала расширяем диапазон под обе границы, потом складываем без копирований
+            add(other.offset, 0);
+            add(other.offset + other.counts.length - 1, 0);
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] != 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            int low = 0;
+            int high = counts.length - 1;
+            while (low <= high && counts[low] == 0) {
+                low++;
+            }
+            while (high >= low && counts[high] == 0) {
+                high--;
+            }
+            out.writeInt(offset + low);
+            out.writeInt(high - low + 1);
+            for (int i = low; i <= high; i++) {
+                out.writeLong(counts[i]);
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            offset = in.readInt();
+            int length = in.readInt();
+            counts = new long[length];
+            for (int i = 0; i < length; i++) {
+                counts[i] = in.readLong();
+            }
+        }
+    }
+}
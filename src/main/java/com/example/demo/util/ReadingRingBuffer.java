@@ -0,0 +1,151 @@
+package com.example.demo.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Кольцевой буфер последних показаний одного устройства на примитивных массивах: запись O(1) без аллокаций,
+ * самые старые показания затираются. Писатели сериализуются монитором (обычно пишет один поток шарда,
+ * и монитор не оспаривается). Читатели не блокируются: копируют нужные ячейки и затем проверяют по счетчику
+ * записей, что писатель не успел их затереть; при гонке чтение повторяется, после нескольких неудач
+ * выполняется под монитором. Читателям доступны последние capacity() - 1 показаний: самую старую ячейку
+ * писатель может как раз перезаписывать.
+ */
+public class ReadingRingBuffer {
+
+    private static final VarHandle HEAD;
+    private static final int MAX_OPTIMISTIC_ATTEMPTS = 4;
+
+    static {
+        try {
+            HEAD = MethodHandles.lookup().findVarHandle(ReadingRingBuffer.class, "head", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long[] timestamps;
+    private final double[] values;
+    private final int mask;
+
+    // Число записанных показаний; ячейка показания i - i & mask
+    private volatile long head;
+
+    public ReadingRingBuffer(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.timestamps = new long[size];
+        this.values = new double[size];
+        this.mask = size - 1;
+    }
+
+    public int capacity() {
+        return timestamps.length;
+    }
+
+    public synchronized void append(long timestamp, double value) {
+        long index = (long) HEAD.getOpaque(this);
+        // Запись ячейки не должна стать видна раньше предыдущей публикации head: по ней читатель распознает затирание
+        VarHandle.storeStoreFence();
+        int slot = (int) (index & mask);
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        HEAD.setRelease(this, index + 1);
+    }
+
+    /**
+     * Время последнего показания; Long.MIN_VALUE, если показаний не было.
+     */
+    public long lastTimestamp() {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            long end = (long) HEAD.getAcquire(this);
+            if (end == 0) {
+                return Long.MIN_VALUE;
+            }
+            long timestamp = timestamps[(int) ((end - 1) & mask)];
+            if (isIntact(end - 1)) {
+                return timestamp;
+            }
+        }
+        synchronized (this) {
+            long end = head;
+            return end == 0 ? Long.MIN_VALUE : timestamps[(int) ((end - 1) & mask)];
+        }
+    }
+
+    /**
+     * Сколько показаний не старше fromTimestamp имеют значение не меньше minValue
+     * (например, срабатываний датчика движения за последние 5 минут).
+     */
+    public int countSince(long fromTimestamp, double minValue) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            long end = (long) HEAD.getAcquire(this);
+            long start = oldestReadable(end);
+            int count = count(start, end, fromTimestamp, minValue);
+            if (isIntact(start)) {
+                return count;
+            }
+        }
+        synchronized (this) {
+            long end = head;
+            return count(oldestReadable(end), end, fromTimestamp, minValue);
+        }
+    }
+
+    /**
+     * Копирует показания не старше fromTimestamp в порядке поступления в переданные массивы
+     * (длины не меньше capacity()); возвращает их число.
+     */
+    public int copySince(long fromTimestamp, long[] timestampsOut, double[] valuesOut) {
+        for (int attempt = 0; attempt < MAX_OPTIMISTIC_ATTEMPTS; attempt++) {
+            long end = (long) HEAD.getAcquire(this);
+            long start = oldestReadable(end);
+            int count = copy(start, end, fromTimestamp, timestampsOut, valuesOut);
+            if (isIntact(start)) {
+                return count;
+            }
+        }
+        synchronized (this) {
+            long end = head;
+            return copy(oldestReadable(end), end, fromTimestamp, timestampsOut, valuesOut);
+        }
+    }
+
+    // Показание end - capacity делит ячейку с показанием end, которое писатель может уже записывать;
+    // под монитором окно то же, чтобы ответ не зависел от того, каким путем шло чтение
+    private long oldestReadable(long end) {
+        return Math.max(0, end - timestamps.length + 1);
+    }
+
+    private int copy(long start, long end, long fromTimestamp, long[] timestampsOut, double[] valuesOut) {
+        int count = 0;
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & mask);
+            long timestamp = timestamps[slot];
+            if (timestamp >= fromTimestamp) {
+                timestampsOut[count] = timestamp;
+                valuesOut[count] = values[slot];
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int count(long start, long end, long fromTimestamp, double minValue) {
+        int count = 0;
+        for (long i = start; i < end; i++) {
+            int slot = (int) (i & mask);
+            if (timestamps[slot] >= fromTimestamp && values[slot] >= minValue) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Прочитанные ячейки начиная с oldest целы, если писатель с тех пор не дошел до их перезаписи.
+    // Писатель, опубликовавший head = h, может уже писать показание h в ячейку показания h - capacity
+    private boolean isIntact(long oldest) {
+        VarHandle.loadLoadFence();
+        long current = (long) HEAD.getAcquire(this);
+        return oldest > current - timestamps.length;
+    }
+}
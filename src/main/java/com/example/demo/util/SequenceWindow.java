@@ -0,0 +1,96 @@
+package com.example.demo.util;
+
+import java.util.Arrays;
+
+/**
+ * Скользящее окно номеров последовательности одного устройства для отсева повторов за O(1).
+ * Хранит наибольший увиденный номер и битовую карту последних WINDOW_SIZE номеров.
+ * Номер старше окна считается повтором: это запоздавший ретрай, и принять его - значит откатить
+ * максимум и пропустить повторно уже увиденные номера. Только если номер отстает от максимума больше
+ * чем на RESET_GAP, считаем, что шлюз перезапустился и начал нумерацию заново, и сбрасываем окно.
+ */
+public class SequenceWindow {
+
+    public static final int WINDOW_SIZE = 1024;
+    private static final int WORD_MASK = WINDOW_SIZE / 64 - 1;
+    private static final long RESET_GAP = WINDOW_SIZE * 64L;
+
+    private final long[] bits = new long[WINDOW_SIZE / 64];
+    private long highest = -1;
+
+    /**
+     * Отмечает номер как увиденный. Возвращает false, если это повтор.
+     */
+    public synchronized boolean markIfNew(long sequence) {
+        if (highest < 0 || highest - sequence > RESET_GAP) {
+            reset(sequence);
+            return true;
+        }
+
+        if (sequence > highest) {
+            long gap = sequence - highest;
+            if (gap >= WINDOW_SIZE) {
+                Arrays.fill(bits, 0L);
+            } else {
+                clearRange(highest + 1, sequence);
+            }
+            highest = sequence;
+            set(sequence);
+            return true;
+        }
+
+        if (highest - sequence >= WINDOW_SIZE || isSet(sequence)) {
+            return false;
+        }
+        set(sequence);
+        return true;
+    }
+
+    /**
+     * Снимает отметку с номера, если он еще в окне: показание не удалось записать,
+     * и его повтор должен быть принят.
+     */
+    public synchronized void unmark(long sequence) {
+        if (highest >= 0 && sequence <= highest && highest - sequence < WINDOW_SIZE) {
+            clear(sequence);
+        }
+    }
+
+    private void reset(long sequence) {
+        Arrays.fill(bits, 0L);
+        highest = sequence;
+        set(sequence);
+    }
+
+    private boolean isSet(long sequence) {
+        return (bits[word(sequence)] & bit(sequence)) != 0;
+    }
+
+    private void set(long sequence) {
+        bits[word(sequence)] |= bit(sequence);
+    }
+
+    private void clear(long sequence) {
+        bits[word(sequence)] &= ~bit(sequence);
+    }
+
+    // Очищает номера [from, to) пословно: не больше WINDOW_SIZE / 64 + 1 слов при любом разрыве
+    private void clearRange(long from, long to) {
+        long sequence = from;
+        while (sequence < to) {
+            int offset = (int) (sequence & 63);
+            long count = Math.min(64 - offset, to - sequence);
+            long mask = count == 64 ? -1L : ((1L << count) - 1) << offset;
+            bits[word(sequence)] &= ~mask;
+            sequence += count;
+        }
+    }
+
+    private static int word(long sequence) {
+        return (int) (sequence >>> 6) & WORD_MASK;
+    }
+
+    private static long bit(long sequence) {
+        return 1L << (sequence & 63);
+    }
+}
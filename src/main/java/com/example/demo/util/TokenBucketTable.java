@@ -0,0 +1,70 @@
+package com.example.demo.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Таблица token bucket без блокировок: фиксированное число ячеек (степень двойки), ключ попадает в ячейку по хешу.
+ * Ячейка хранит одно число - "теоретическое время прибытия" следующего запроса (GCRA), это эквивалент
+ * корзины с rate токенов в секунду и емкостью burst, но обновляется одним CAS.
+ * Память не растет с числом ключей; ключи с одинаковым хешем делят корзину,
+ * поэтому ячеек должно быть заметно больше, чем активных ключей.
+ */
+public class TokenBucketTable {
+
+    private final AtomicLongArray arrivals;
+    private final int mask;
+    private final long intervalNanos;   // Стоимость одного токена
+    private final long toleranceNanos;  // Насколько можно опередить равномерный поток (burst - 1 токен)
+    private final int burst;
+
+    public TokenBucketTable(int slots, double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.arrivals = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / ratePerSecond));
+        this.toleranceNanos = intervalNanos * (burst - 1);
+        this.burst = burst;
+    }
+
+    /**
+     * Пытается взять permits токенов для ключа. Возвращает 0, если токены выданы,
+     * иначе - через сколько наносекунд их можно будет получить.
+     * Запрос стоит ровно permits токенов; больше burst он не пройдет никогда,
+     * такие запросы вызывающий отклоняет заранее (см. getBurst).
+     */
+    public long tryAcquire(String key, int permits, long nowNanos) {
+        if (permits > burst) {
+            throw new IllegalArgumentException("Request of " + permits + " permits exceeds burst " + burst);
+        }
+        int slot = slotOf(key);
+        long cost = intervalNanos * Math.max(1, permits);
+        while (true) {
+            long arrival = arrivals.get(slot);
+            // Пустая ячейка или давно молчавший ключ: корзина полная
+            long base = arrival == 0 || arrival - nowNanos < 0 ? nowNanos : arrival;
+            long next = base + cost;
+            long wait = next - nowNanos - intervalNanos - toleranceNanos;
+            if (wait > 0) {
+                return wait;
+            }
+            if (arrivals.compareAndSet(slot, arrival, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    private int slotOf(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h & mask;
+    }
+}
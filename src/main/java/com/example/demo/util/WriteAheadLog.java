@@ -0,0 +1,403 @@
+package com.example.demo.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал предзаписи показаний: сегменты фиксированного размера, отображенные в память (MappedByteBuffer).
+ * Запись - копирование в отображение; отдельный поток сбрасывает на диск все накопившееся одним force
+ * (group commit), писатели ждут только этого сброса. Записи нумеруются LSN по порядку; после записи
+ * пачки в БД вызывается checkpoint(lsn), и сегменты, целиком покрытые контрольной точкой, удаляются.
+ *
+ * Формат сегмента: заголовок (magic, версия, первый LSN), затем записи
+ * [длина][crc32][lsn, timestamp, sequence, value, deviceId, код dataType]. Нулевая длина - конец данных,
+ * запись с неверной контрольной суммой - оборванный хвост после сбоя. Сегменты версии 1 хранили
+ * dataType строкой; при восстановлении они перекодируются переданным словарем.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final int MAGIC = 0x57414C31; // "WAL1"
+    public static final int VERSION = 2;
+    private static final int VERSION_STRING_DATA_TYPE = 1;
+
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int FIXED_PAYLOAD_BYTES = 8 * 4 + 2 + 2;
+    private static final int CHECKPOINT_BYTES = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final boolean fsync;
+
+    // Под монитором this: запись, смена сегмента, удаление сегментов
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final CRC32 crc = new CRC32();
+    private byte[] scratch = new byte[256];
+    private long nextLsn;
+
+    private final FileChannel checkpointChannel;
+    private final MappedByteBuffer checkpointBuffer;
+    private volatile long checkpointLsn;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition pendingWrites = syncLock.newCondition();
+    private final Condition durableWrites = syncLock.newCondition();
+    private long writtenLsn;
+    private long syncedLsn;
+    private long syncs;
+
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    /**
+     * Открывает новый журнал в пустом каталоге; нумерация начинается с firstLsn.
+     */
+    public WriteAheadLog(Path directory, int segmentBytes, boolean fsync, long firstLsn, String threadName)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.nextLsn = firstLsn;
+        this.writtenLsn = firstLsn - 1;
+        this.syncedLsn = firstLsn - 1;
+        this.checkpointLsn = firstLsn - 1;
+
+        checkpointChannel = FileChannel.open(directory.resolve(CHECKPOINT_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        checkpointBuffer = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, CHECKPOINT_BYTES);
+        checkpointBuffer.putInt(0, MAGIC);
+        checkpointBuffer.putInt(4, VERSION);
+        checkpointBuffer.putLong(8, checkpointLsn);
+        segments.addLast(Segment.create(directory, firstLsn, segmentBytes));
+
+        flusher = new Thread(this::flushLoop, threadName);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Дописывает показание и возвращает его LSN. Запись станет устойчивой после awaitDurable(lsn).
+     */
+    public synchronized long append(String deviceId, double value, short dataType, long timestamp, long sequence)
+            throws IOException {
+        byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+        int payloadLength = FIXED_PAYLOAD_BYTES + id.length;
+        if (payloadLength > scratch.length) {
+            scratch = new byte[Math.max(payloadLength, scratch.length * 2)];
+        }
+
+        long lsn = nextLsn;
+        ByteBuffer payload = ByteBuffer.wrap(scratch, 0, payloadLength);
+        payload.putLong(lsn).putLong(timestamp).putLong(sequence).putDouble(value);
+        payload.putShort((short) id.length).put(id);
+        payload.putShort(dataType);
+        crc.reset();
+        crc.update(scratch, 0, payloadLength);
+
+        Segment segment = segments.peekLast();
+        if (segment.writePosition + RECORD_HEADER_BYTES + payloadLength > segmentBytes) {
+            segment.lastLsn = lsn - 1;
+            segment = Segment.create(directory, lsn, Math.max(segmentBytes, HEADER_BYTES + RECORD_HEADER_BYTES + payloadLength));
+            segments.addLast(segment);
+        }
+        int position = segment.writePosition;
+        // Данные пишутся раньше длины: читатель, увидевший длину, увидит и запись целиком
+        segment.buffer.putInt(position + 4, (int) crc.getValue());
+        segment.buffer.put(position + RECORD_HEADER_BYTES, scratch, 0, payloadLength);
+        segment.buffer.putInt(position, payloadLength);
+        segment.writePosition = position + RECORD_HEADER_BYTES + payloadLength;
+        nextLsn = lsn + 1;
+
+        syncLock.lock();
+        try {
+            writtenLsn = lsn;
+            pendingWrites.signal();
+        } finally {
+            syncLock.unlock();
+        }
+        return lsn;
+    }
+
+    /**
+     * Ждет, пока запись с данным LSN окажется на диске. false - не дождались за timeoutNanos.
+     */
+    public boolean awaitDurable(long lsn, long timeoutNanos) throws InterruptedException {
+        syncLock.lock();
+        try {
+            long remaining = timeoutNanos;
+            while (syncedLsn < lsn) {
+                if (remaining <= 0 || closed) {
+                    return false;
+                }
+                remaining = durableWrites.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Все записи до lsn включительно сохранены в БД.
+     */
+    public void checkpoint(long lsn) {
+        if (lsn > checkpointLsn) {
+            checkpointLsn = lsn;
+            checkpointBuffer.putLong(8, lsn);
+        }
+    }
+
+    private void flushLoop() {
+        while (!closed) {
+            long target;
+            syncLock.lock();
+            try {
+                // Без новых записей просыпаемся раз в секунду, чтобы сбросить контрольную точку и удалить сегменты
+                if (writtenLsn == syncedLsn && !closed) {
+                    pendingWrites.awaitNanos(TimeUnit.SECONDS.toNanos(1));
+                }
+                target = writtenLsn;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                syncLock.unlock();
+            }
+
+            if (fsync) {
+                force();
+            }
+
+            syncLock.lock();
+            try {
+                if (target > syncedLsn) {
+                    syncedLsn = target;
+                    syncs++;
+                    durableWrites.signalAll();
+                }
+            } finally {
+                syncLock.unlock();
+            }
+            deleteCheckpointedSegments();
+        }
+    }
+
+    private void force() {
+        List<Segment> dirty = new ArrayList<>();
+        List<Integer> positions = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments) {
+                if (segment.forcedPosition < segment.writePosition) {
+                    dirty.add(segment);
+                    positions.add(segment.writePosition);
+                }
+            }
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            Segment segment = dirty.get(i);
+            int position = positions.get(i);
+            segment.buffer.force(segment.forcedPosition, position - segment.forcedPosition);
+            segment.forcedPosition = position;
+        }
+        checkpointBuffer.force();
+    }
+
+    private synchronized void deleteCheckpointedSegments() {
+        while (segments.size() > 1 && segments.peekFirst().lastLsn <= checkpointLsn) {
+            Segment segment = segments.pollFirst();
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ignored) {
+                // Удалим при следующем старте
+            }
+        }
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    public long getCheckpointLsn() {
+        return checkpointLsn;
+    }
+
+    public long getSyncs() {
+        syncLock.lock();
+        try {
+            return syncs;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        syncLock.lock();
+        try {
+            pendingWrites.signalAll();
+            durableWrites.signalAll();
+        } finally {
+            syncLock.unlock();
+        }
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (fsync) {
+            force();
+        }
+        synchronized (this) {
+            segments.forEach(Segment::close);
+        }
+        try {
+            checkpointChannel.close();
+        } catch (IOException ignored) {
+            // Файл контрольной точки уже сброшен
+        }
+    }
+
+    /**
+     * Читает записи журнала в каталоге после контрольной точки, по порядку LSN.
+     * Возвращает LSN последней прочитанной записи (или контрольной точки, если читать нечего).
+     * legacyDataTypes кодирует dataType из сегментов версии 1.
+     */
+    public static long replay(Path directory, ToIntFunction<String> legacyDataTypes, RecordConsumer consumer)
+            throws IOException {
+        long checkpoint = readCheckpoint(directory.resolve(CHECKPOINT_FILE));
+        long lastLsn = checkpoint;
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().toList();
+        }
+
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Not a WAL segment: " + file);
+                }
+                int version = buffer.getInt(4);
+                if (version != VERSION && version != VERSION_STRING_DATA_TYPE) {
+                    throw new IOException("Unsupported WAL segment version " + version + ": " + file);
+                }
+
+                CRC32 checksum = new CRC32();
+                int position = HEADER_BYTES;
+                while (position + RECORD_HEADER_BYTES <= buffer.limit()) {
+                    int length = buffer.getInt(position);
+                    if (length < FIXED_PAYLOAD_BYTES || position + RECORD_HEADER_BYTES + length > buffer.limit()) {
+                        break;
+                    }
+                    ByteBuffer payload = buffer.slice(position + RECORD_HEADER_BYTES, length);
+                    checksum.reset();
+                    checksum.update(payload.duplicate());
+                    if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                        break; // оборванная запись - дальше в сегменте ничего нет
+                    }
+                    position += RECORD_HEADER_BYTES + length;
+
+                    long lsn = payload.getLong();
+                    if (lsn <= checkpoint) {
+                        continue;
+                    }
+                    long timestamp = payload.getLong();
+                    long sequence = payload.getLong();
+                    double value = payload.getDouble();
+                    String deviceId = readString(payload, payload.getShort());
+                    short dataType = version == VERSION
+                            ? payload.getShort()
+                            : (short) legacyDataTypes.applyAsInt(readString(payload, payload.getShort()));
+                    consumer.accept(deviceId, value, dataType, timestamp, sequence);
+                    lastLsn = Math.max(lastLsn, lsn);
+                }
+            }
+        }
+        return lastLsn;
+    }
+
+    private static long readCheckpoint(Path file) throws IOException {
+        if (!Files.exists(file) || Files.size(file) < CHECKPOINT_BYTES) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        int version = buffer.getInt(4);
+        if (buffer.getInt(0) != MAGIC || (version != VERSION && version != VERSION_STRING_DATA_TYPE)) {
+            throw new IOException("Unsupported WAL checkpoint format: " + file);
+        }
+        return buffer.getLong(8);
+    }
+
+    private static String readString(ByteBuffer buffer, short length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(String deviceId, double value, short dataType, long timestamp, long sequence);
+    }
+
+    private static final class Segment {
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int writePosition = HEADER_BYTES;
+        private volatile int forcedPosition;
+        private long lastLsn = Long.MAX_VALUE; // известен, когда сегмент закрыт для записи
+
+        private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long firstLsn, int size) throws IOException {
+            Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, firstLsn);
+            return new Segment(path, channel, buffer);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // Отображение остается валидным до сборки мусора
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.demo.service;
+
+import com.example.demo.model.AutomationRule;
+import com.example.demo.model.Device;
+import com.example.demo.model.ModeSettings;
+import com.example.demo.repository.ModeSettingsRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AutomationRuleEngineTests {
+
+	private static final LocalTime NOON = LocalTime.of(12, 0);
+
+	private ModeSettingsRepository modeSettingsRepository;
+	private AutomationRuleEngine engine;
+
+	@BeforeEach
+	void setUp() {
+		modeSettingsRepository = mock(ModeSettingsRepository.class);
+		engine = new AutomationRuleEngine(modeSettingsRepository, new ObjectMapper());
+	}
+
+	@Test
+	void thresholdsAreExclusive() {
+		load("auto", """
+				{"rules": [
+				  {"name": "hot", "trigger": {"type": "TEMPERATURE_SENSOR"}, "above": 25,
+				   "actions": [{"type": "AIR_CONDITIONER", "command": "COOL"}]},
+				  {"name": "cold", "trigger": {"type": "TEMPERATURE_SENSOR"}, "below": 18,
+				   "actions": [{"type": "HEATER", "command": "HEAT"}]},
+				  {"name": "comfort", "trigger": {"type": "TEMPERATURE_SENSOR"}, "above": 18, "below": 25,
+				   "actions": [{"type": "HEATER", "command": "OFF"}]}
+				]}""");
+		Device sensor = device("t1", Device.DeviceType.TEMPERATURE_SENSOR);
+
+		assertThat(commands(sensor, 26.0, NOON)).containsExactly("COOL");
+		assertThat(commands(sensor, 25.0, NOON)).isEmpty();
+		assertThat(commands(sensor, 21.0, NOON)).containsExactly("OFF");
+		assertThat(commands(sensor, 18.0, NOON)).isEmpty();
+		assertThat(commands(sensor, 17.5, NOON)).containsExactly("HEAT");
+		assertThat(commands(sensor, null, NOON)).isEmpty();
+	}
+
+	@Test
+	void overlappingIntervalsFireInDeclarationOrder() {
+		load("auto", """
+				{"rules": [
+				  {"trigger": {"deviceId": "h1"}, "above": 40, "below": 80, "actions": [{"deviceId": "d", "command": "A"}]},
+				  {"trigger": {"deviceId": "h1"}, "above": 10, "below": 50, "actions": [{"deviceId": "d", "command": "B"}]},
+				  {"trigger": {"deviceId": "h1"}, "above": 45, "below": 46, "actions": [{"deviceId": "d", "command": "C"}]},
+				  {"trigger": {"deviceId": "h1"}, "above": 60, "below": 90, "actions": [{"deviceId": "d", "command": "D"}]}
+				]}""");
+		Device sensor = device("h1", Device.DeviceType.HUMIDITY_SENSOR);
+
+		assertThat(commands(sensor, 45.5, NOON)).containsExactly("A", "B", "C");
+		assertThat(commands(sensor, 50.0, NOON)).containsExactly("A");
+		assertThat(commands(sensor, 70.0, NOON)).containsExactly("A", "D");
+		assertThat(commands(sensor, 80.0, NOON)).containsExactly("D");
+		assertThat(commands(sensor, 10.0, NOON)).isEmpty();
+	}
+
+	@Test
+	void windowCrossesMidnight() {
+		load("auto", """
+				{"rules": [
+				  {"trigger": {"type": "MOTION_SENSOR"}, "from": "22:00", "to": "06:00",
+				   "actions": [{"type": "LIGHT", "command": "ON"}]}
+				]}""");
+		Device sensor = device("m1", Device.DeviceType.MOTION_SENSOR);
+
+		assertThat(commands(sensor, 1.0, LocalTime.of(23, 30))).containsExactly("ON");
+		assertThat(commands(sensor, 1.0, LocalTime.of(22, 0))).containsExactly("ON");
+		assertThat(commands(sensor, 1.0, LocalTime.of(2, 0))).containsExactly("ON");
+		assertThat(commands(sensor, 1.0, LocalTime.of(6, 0))).isEmpty();
+		assertThat(commands(sensor, 1.0, NOON)).isEmpty();
+	}
+
+	@Test
+	void modesWithoutRulesUseBuiltInAutomation() {
+		load("eco", """
+				{"rules": [
+				  {"trigger": {"type": "LIGHT_SENSOR"}, "below": 50, "modes": ["auto"],
+				   "actions": [{"type": "LIGHT", "command": "ON"}]}
+				]}""");
+
+		assertThat(engine.currentMode().getModeName()).isEqualTo("eco");
+		assertThat(engine.hasRules("auto")).isTrue();
+		assertThat(engine.hasRules("eco")).isFalse();
+		assertThat(engine.evaluate(device("l1", Device.DeviceType.LIGHT_SENSOR), 10.0, "eco", NOON)).isEmpty();
+	}
+
+	@Test
+	void invalidRulesAreRejected() {
+		assertThatThrownBy(() -> engine.validate("""
+				{"rules": [{"trigger": {"type": "LIGHT_SENSOR"}, "above": 50, "below": 10,
+				            "actions": [{"type": "LIGHT", "command": "ON"}]}]}"""))
+				.hasMessageContaining("'above' must be less than 'below'");
+	}
+
+	private void load(String modeName, String schedule) {
+		ModeSettings mode = new ModeSettings(modeName, 22.0, true);
+		mode.setSchedule(schedule);
+		when(modeSettingsRepository.findById(1L)).thenReturn(Optional.of(mode));
+		engine.reload();
+	}
+
+	private List<String> commands(Device device, Double value, LocalTime now) {
+		return engine.evaluate(device, value, "auto", now).stream()
+				.map(AutomationRule.Action::getCommand)
+				.toList();
+	}
+
+	private static Device device(String deviceId, Device.DeviceType type) {
+		Device device = new Device();
+		device.setDeviceId(deviceId);
+		device.setType(type);
+		return device;
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Device;
+import com.example.demo.repository.DeviceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeviceRegistryTests {
+
+	private DeviceRepository deviceRepository;
+	private DeviceRegistry registry;
+
+	@BeforeEach
+	void setUp() {
+		deviceRepository = mock(DeviceRepository.class);
+		registry = new DeviceRegistry(deviceRepository);
+	}
+
+	@Test
+	void findsNamesContainingQueryInsideWords() {
+		load(device(1, "d1", "Осушитель воздуха"),
+				device(2, "d2", "Воздухоувлажнитель"),
+				device(3, "d3", "Увлажнительосушитель"),
+				device(4, "d4", "Мини-осушитель"),
+				device(5, "d5", "Лампа"));
+
+		assertThat(deviceIds(registry.findByNameContaining("осушитель"))).containsExactly("d1", "d3", "d4");
+		assertThat(deviceIds(registry.findByNameContaining("увлажнитель"))).containsExactly("d2", "d3");
+		assertThat(deviceIds(registry.findByNameContaining("ХА УВ"))).isEmpty();
+		assertThat(deviceIds(registry.findByNameContaining("тель в"))).containsExactly("d1");
+		assertThat(deviceIds(registry.findByNameContaining("холодильник"))).isEmpty();
+	}
+
+	@Test
+	void shortQueriesScanAllNames() {
+		load(device(1, "d1", "Лампа"), device(2, "d2", "Торшер"), device(3, "d3", null));
+
+		assertThat(deviceIds(registry.findByNameContaining("ам"))).containsExactly("d1");
+		assertThat(deviceIds(registry.findByNameContaining("Р"))).containsExactly("d2");
+		assertThat(registry.findByNameContaining("")).isEmpty();
+	}
+
+	@Test
+	void renamedDeviceIsReindexed() {
+		Device device = device(1, "d1", "Увлажнитель");
+		load(device);
+
+		Device renamed = device(1, "d1", "Обогреватель");
+		registry.register(renamed);
+
+		assertThat(registry.findByNameContaining("увлажнитель")).isEmpty();
+		assertThat(deviceIds(registry.findByNameContaining("греват"))).containsExactly("d1");
+
+		registry.remove(renamed);
+		assertThat(registry.findByNameContaining("греват")).isEmpty();
+	}
+
+	private void load(Device... devices) {
+		when(deviceRepository.findAll()).thenReturn(List.of(devices));
+		registry.load();
+	}
+
+	private static List<String> deviceIds(List<Device> devices) {
+		return devices.stream().map(Device::getDeviceId).toList();
+	}
+
+	private static Device device(long id, String deviceId, String name) {
+		Device device = new Device();
+		device.setId(id);
+		device.setDeviceId(deviceId);
+		device.setName(name);
+		device.setType(Device.DeviceType.HUMIDIFIER);
+		return device;
+	}
+
+}
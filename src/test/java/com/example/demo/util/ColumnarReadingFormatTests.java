@@ -0,0 +1,159 @@
+package com.example.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColumnarReadingFormatTests {
+
+	@Test
+	void preservesNullsAndSpecialValuesBitExact() throws IOException {
+		List<String> rows = List.of(
+				row("t1", 1000, 21.5, "temperature"),
+				row("t1", 1000, null, "temperature"),
+				row("t1", 999, -0.0, null),
+				row("t1", 2000, 0.0, null),
+				row("h1", 2000, Double.NaN, "humidity"),
+				row("h1", 1500, Double.POSITIVE_INFINITY, "humidity"),
+				row("h1", 1500, Double.NEGATIVE_INFINITY, ""),
+				row("t1", 1500, Double.MIN_VALUE, "temperature"),
+				row("t1", -5, Double.MAX_VALUE, "temperature"),
+				row("t1", Long.MAX_VALUE, Double.MAX_VALUE, "temperature"),
+				row("h1", Long.MIN_VALUE, null, null));
+
+		assertThat(roundTrip(rows)).isEqualTo(rows);
+	}
+
+	@Test
+	void roundTripsAcrossBlocksAndGrowingDictionaries() throws IOException {
+		Random random = new Random(42);
+		List<String> rows = new ArrayList<>();
+		long timestamp = 1_700_000_000_000L;
+		double[] values = new double[300];
+		for (int i = 0; i < ColumnarReadingWriter.BLOCK_ROWS * 2 + 17; i++) {
+			int device = random.nextInt(values.length);
+			timestamp += random.nextInt(2000) - 500;
+			values[device] = random.nextInt(4) == 0 ? values[device] : Math.round(random.nextGaussian() * 1000) / 10.0;
+			Double value = random.nextInt(20) == 0 ? null : values[device];
+			rows.add(row("device-" + device, timestamp, value, "type-" + random.nextInt(40)));
+		}
+
+		assertThat(roundTrip(rows)).isEqualTo(rows);
+	}
+
+	@Test
+	void emptyStreamHasNoRows() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (ColumnarReadingWriter writer = new ColumnarReadingWriter(buffer)) {
+			assertThat(writer.getRows()).isEqualTo(0L);
+		}
+
+		long count = new ColumnarReadingReader(new ByteArrayInputStream(buffer.toByteArray()))
+				.forEach((deviceId, timestamp, value, dataType) -> {
+					throw new AssertionError("unexpected row");
+				});
+		assertThat(count).isEqualTo(0L);
+	}
+
+	@Test
+	void readsVersionOneStreams() throws IOException {
+		// Версия 1: значения - varint от Long.reverse(XOR с предыдущим значением потока, а не устройства)
+		double[] values = {21.5, 21.5, 40.0, -0.0};
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(buffer))) {
+			out.write(ColumnarReadingWriter.MAGIC);
+			out.writeByte(1);
+			writeVarint(out, 5);
+			writeVarint(out, 2);
+			out.writeUTF("t1");
+			out.writeUTF("h1");
+			writeVarint(out, 1);
+			out.writeUTF("temperature");
+			for (int device : new int[] {0, 0, 1, 0, 1}) {
+				writeVarint(out, device);
+			}
+			for (long delta : new long[] {1000, 10, -5, 0, 20}) {
+				writeVarint(out, (delta << 1) ^ (delta >> 63));
+			}
+			out.writeByte(0b11011);
+			long previous = 0;
+			for (double value : values) {
+				long bits = Double.doubleToLongBits(value);
+				writeVarint(out, Long.reverse(bits ^ previous));
+				previous = bits;
+			}
+			for (int type : new int[] {1, 1, 0, 1, 0}) {
+				writeVarint(out, type);
+			}
+			writeVarint(out, 0);
+		}
+
+		List<String> rows = new ArrayList<>();
+		long count = new ColumnarReadingReader(new ByteArrayInputStream(buffer.toByteArray()))
+				.forEach((deviceId, timestamp, value, dataType) -> rows.add(row(deviceId, timestamp, value, dataType)));
+
+		assertThat(count).isEqualTo(5L);
+		assertThat(rows).containsExactly(
+				row("t1", 1000, 21.5, "temperature"),
+				row("t1", 1010, 21.5, "temperature"),
+				row("h1", 1005, null, null),
+				row("t1", 1005, 40.0, "temperature"),
+				row("h1", 1025, -0.0, null));
+	}
+
+	@Test
+	void rejectsUnknownVersion() throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(buffer))) {
+			out.write(ColumnarReadingWriter.MAGIC);
+			out.writeByte(ColumnarReadingWriter.FORMAT_VERSION + 1);
+		}
+
+		assertThatThrownBy(() -> new ColumnarReadingReader(new ByteArrayInputStream(buffer.toByteArray())))
+				.hasMessageContaining("Unsupported columnar format version");
+	}
+
+	private static List<String> roundTrip(List<String> rows) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (ColumnarReadingWriter writer = new ColumnarReadingWriter(buffer)) {
+			for (String row : rows) {
+				String[] fields = row.split("\\|", -1);
+				writer.write(fields[0], Long.parseLong(fields[1]),
+						fields[2].equals("null") ? null : Double.longBitsToDouble(Long.parseUnsignedLong(fields[2], 16)),
+						fields[3].equals("null") ? null : fields[3]);
+			}
+			assertThat(writer.getRows()).isEqualTo((long) rows.size());
+		}
+
+		List<String> read = new ArrayList<>();
+		long count = new ColumnarReadingReader(new ByteArrayInputStream(buffer.toByteArray()))
+				.forEach((deviceId, timestamp, value, dataType) -> read.add(row(deviceId, timestamp, value, dataType)));
+		assertThat(count).isEqualTo((long) rows.size());
+		return read;
+	}
+
+	// Значение - биты в hex, чтобы -0.0 и NaN сравнивались точно
+	private static String row(String deviceId, long timestamp, Double value, String dataType) {
+		String bits = value == null ? "null" : Long.toHexString(Double.doubleToLongBits(value));
+		return deviceId + "|" + timestamp + "|" + bits + "|" + dataType;
+	}
+
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+}
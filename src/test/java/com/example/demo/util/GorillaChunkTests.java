@@ -0,0 +1,124 @@
+package com.example.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GorillaChunkTests {
+
+	private static final long START = 1_700_000_000_000L;
+
+	@Test
+	void specialValuesRoundTripBitExact() {
+		double[] values = {
+				0.0, -0.0, 0.0, Double.NaN, Double.longBitsToDouble(0x7ff8dead0000beefL), Double.NaN,
+				Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, -Double.MIN_VALUE,
+				Double.MAX_VALUE, -Double.MAX_VALUE, 21.5, 21.5, 21.75, -21.75, 1e-300, 1e300
+		};
+		long[] timestamps = new long[values.length];
+		for (int i = 0; i < values.length; i++) {
+			timestamps[i] = START + i * 1000L;
+		}
+
+		assertRoundTrip(timestamps, values);
+	}
+
+	@Test
+	void deltaOfDeltaBucketLimits() {
+		// Границы кодов: 7 бит -63..64, 9 бит -255..256, 12 бит -2047..2048, дальше 64 бита
+		long[] deltaOfDeltas = {
+				0, 64, -63, 65, -64, -1, 1,
+				256, -255, 257, -256,
+				2048, -2047, 2049, -2048,
+				1L << 40, -(1L << 40), Long.MAX_VALUE / 4, Long.MIN_VALUE / 4
+		};
+		long[] timestamps = new long[deltaOfDeltas.length + 2];
+		double[] values = new double[timestamps.length];
+		long delta = 10_000;
+		timestamps[0] = START;
+		timestamps[1] = START + delta;
+		for (int i = 0; i < deltaOfDeltas.length; i++) {
+			delta += deltaOfDeltas[i];
+			timestamps[i + 2] = timestamps[i + 1] + delta;
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = i;
+		}
+
+		assertRoundTrip(timestamps, values);
+	}
+
+	@Test
+	void randomSeriesRoundTrip() {
+		Random random = new Random(42);
+		for (int series = 0; series < 200; series++) {
+			int size = 1 + random.nextInt(2000);
+			long[] timestamps = new long[size];
+			double[] values = new double[size];
+			long timestamp = START + random.nextInt(1_000_000);
+			double value = random.nextGaussian() * 100;
+			for (int i = 0; i < size; i++) {
+				// Почти регулярный шаг с редкими скачками, значения то повторяются, то меняются
+				timestamp += switch (random.nextInt(10)) {
+					case 0 -> random.nextInt(100_000);
+					case 1 -> -random.nextInt(5_000);
+					default -> 1000 + random.nextInt(3) - 1;
+				};
+				int kind = random.nextInt(4);
+				if (kind == 1) {
+					value += Math.round(random.nextGaussian() * 10) / 10.0;
+				} else if (kind == 2) {
+					value = Double.longBitsToDouble(random.nextLong());
+				}
+				timestamps[i] = timestamp;
+				values[i] = value;
+			}
+
+			assertRoundTrip(timestamps, values);
+		}
+	}
+
+	@Test
+	void sealKeepsPointsAndBounds() {
+		GorillaChunk chunk = new GorillaChunk(START);
+		chunk.append(START + 5000, 1.0);
+		chunk.append(START + 1000, 2.0);
+		chunk.append(START + 9000, 3.0);
+		chunk.seal();
+
+		List<Long> timestamps = new ArrayList<>();
+		chunk.forEach((timestamp, value) -> timestamps.add(timestamp));
+		assertThat(timestamps).containsExactly(START + 5000, START + 1000, START + 9000);
+		assertThat(chunk.getMinTimestamp()).isEqualTo(START + 1000);
+		assertThat(chunk.getMaxTimestamp()).isEqualTo(START + 9000);
+		assertThat(chunk.size()).isEqualTo(3);
+	}
+
+	private static void assertRoundTrip(long[] timestamps, double[] values) {
+		GorillaChunk chunk = new GorillaChunk(timestamps[0]);
+		for (int i = 0; i < timestamps.length; i++) {
+			chunk.append(timestamps[i], values[i]);
+		}
+		chunk.seal();
+
+		List<Long> decodedTimestamps = new ArrayList<>();
+		List<Long> decodedBits = new ArrayList<>();
+		chunk.forEach((timestamp, value) -> {
+			decodedTimestamps.add(timestamp);
+			decodedBits.add(Double.doubleToRawLongBits(value));
+		});
+		List<Long> expectedTimestamps = new ArrayList<>();
+		List<Long> expectedBits = new ArrayList<>();
+		for (int i = 0; i < timestamps.length; i++) {
+			expectedTimestamps.add(timestamps[i]);
+			expectedBits.add(Double.doubleToRawLongBits(values[i]));
+		}
+		assertThat(decodedTimestamps).isEqualTo(expectedTimestamps);
+		assertThat(decodedBits).isEqualTo(expectedBits);
+	}
+
+}
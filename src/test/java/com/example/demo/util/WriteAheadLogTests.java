@@ -0,0 +1,138 @@
+package com.example.demo.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadLogTests {
+
+	// [длина][crc32] + lsn, timestamp, sequence, value + длина deviceId + код dataType
+	private static final int RECORD_BYTES = 8 + 8 * 4 + 2 + "dev-1".length() + 2;
+	private static final int HEADER_BYTES = 32;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void replaysRecordsAfterCheckpoint() throws IOException {
+		try (WriteAheadLog wal = open(1 << 16)) {
+			for (int i = 1; i <= 5; i++) {
+				wal.append("dev-1", i * 1.5, (short) 3, 1000L + i, i);
+			}
+			wal.checkpoint(2);
+		}
+
+		List<String> records = new ArrayList<>();
+		long lastLsn = replay(records);
+
+		assertThat(lastLsn).isEqualTo(5L);
+		assertThat(records).containsExactly("dev-1 4.5 3 1003 3", "dev-1 6.0 3 1004 4", "dev-1 7.5 3 1005 5");
+	}
+
+	@Test
+	void replaysAcrossSegmentsInLsnOrder() throws IOException {
+		try (WriteAheadLog wal = open(HEADER_BYTES + RECORD_BYTES * 2)) {
+			for (int i = 1; i <= 5; i++) {
+				wal.append("dev-1", i, (short) 0, i, -1);
+			}
+			assertThat(wal.segmentCount()).isEqualTo(3);
+		}
+
+		List<String> records = new ArrayList<>();
+		assertThat(replay(records)).isEqualTo(5L);
+		assertThat(records).containsExactly("dev-1 1.0 0 1 -1", "dev-1 2.0 0 2 -1", "dev-1 3.0 0 3 -1",
+				"dev-1 4.0 0 4 -1", "dev-1 5.0 0 5 -1");
+	}
+
+	@Test
+	void stopsAtTruncatedRecord() throws IOException {
+		try (WriteAheadLog wal = open(1 << 16)) {
+			for (int i = 1; i <= 3; i++) {
+				wal.append("dev-1", i, (short) 1, i, i);
+			}
+		}
+		// Процесс упал посреди третьей записи: файл обрывается внутри нее
+		try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.WRITE)) {
+			channel.truncate(HEADER_BYTES + RECORD_BYTES * 2 + RECORD_BYTES / 2);
+		}
+
+		List<String> records = new ArrayList<>();
+		assertThat(replay(records)).isEqualTo(2L);
+		assertThat(records).containsExactly("dev-1 1.0 1 1 1", "dev-1 2.0 1 2 2");
+	}
+
+	@Test
+	void stopsAtRecordWithBadChecksum() throws IOException {
+		try (WriteAheadLog wal = open(1 << 16)) {
+			for (int i = 1; i <= 3; i++) {
+				wal.append("dev-1", i, (short) 1, i, i);
+			}
+		}
+		// Повреждаем значение второй записи: она и все после нее в сегменте не читаются
+		try (FileChannel channel = FileChannel.open(segment(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int valueOffset = HEADER_BYTES + RECORD_BYTES + 8 + 24;
+			ByteBuffer value = ByteBuffer.allocate(1);
+			channel.read(value, valueOffset);
+			value.put(0, (byte) (value.get(0) ^ 0x01)).rewind();
+			channel.write(value, valueOffset);
+		}
+
+		List<String> records = new ArrayList<>();
+		assertThat(replay(records)).isEqualTo(1L);
+		assertThat(records).containsExactly("dev-1 1.0 1 1 1");
+	}
+
+	@Test
+	void recodesDataTypesOfVersionOneSegments() throws IOException {
+		byte[] deviceId = "dev-1".getBytes(StandardCharsets.UTF_8);
+		byte[] dataType = "humidity".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer payload = ByteBuffer.allocate(8 * 4 + 2 + deviceId.length + 2 + dataType.length);
+		payload.putLong(1).putLong(1000).putLong(7).putDouble(42.0);
+		payload.putShort((short) deviceId.length).put(deviceId);
+		payload.putShort((short) dataType.length).put(dataType);
+		CRC32 crc = new CRC32();
+		crc.update(payload.array());
+
+		ByteBuffer segment = ByteBuffer.allocate(256);
+		segment.putInt(WriteAheadLog.MAGIC).putInt(1).putLong(1);
+		segment.position(HEADER_BYTES);
+		segment.putInt(payload.capacity()).putInt((int) crc.getValue()).put(payload.array());
+		Files.write(directory.resolve("segment-00000000000000000001.wal"), segment.array());
+
+		List<String> records = new ArrayList<>();
+		long lastLsn = WriteAheadLog.replay(directory, name -> "humidity".equals(name) ? 9 : -1,
+				(id, value, type, timestamp, sequence) -> records.add(id + " " + value + " " + type));
+
+		assertThat(lastLsn).isEqualTo(1L);
+		assertThat(records).containsExactly("dev-1 42.0 9");
+	}
+
+	private WriteAheadLog open(int segmentBytes) throws IOException {
+		return new WriteAheadLog(directory, segmentBytes, false, 1, "wal-test");
+	}
+
+	private long replay(List<String> records) throws IOException {
+		return WriteAheadLog.replay(directory, name -> 0, (deviceId, value, dataType, timestamp, sequence) ->
+				records.add(deviceId + " " + value + " " + dataType + " " + timestamp + " " + sequence));
+	}
+
+	private Path segment() throws IOException {
+		try (Stream<Path> list = Files.list(directory)) {
+			return list.filter(path -> path.getFileName().toString().endsWith(".wal")).findFirst().orElseThrow();
+		}
+	}
+
+}